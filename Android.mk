@@ -29,3 +29,6 @@ LOCAL_PACKAGE_NAME := Notepadv3
 LOCAL_SDK_VERSION := current
 
 include $(BUILD_PACKAGE)
+
+# Build the tests along with the application
+include $(call all-makefiles-under,$(LOCAL_PATH))
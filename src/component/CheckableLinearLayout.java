@@ -0,0 +1,42 @@
+package component;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.widget.Checkable;
+import android.widget.LinearLayout;
+
+/**
+ * Row layout for lists in multiple choice mode. The ListView checks its rows
+ * through Checkable, and a checked row is drawn highlighted.
+ */
+public class CheckableLinearLayout extends LinearLayout implements Checkable
+{
+	private static final int CHECKED_COLOR = 0x404080FF;
+
+	private boolean mChecked;
+
+	// This constructor is used by LayoutInflater
+	public CheckableLinearLayout(Context context, AttributeSet attrs)
+	{
+		super(context, attrs);
+	}
+
+	public boolean isChecked()
+	{
+		return mChecked;
+	}
+
+	public void setChecked(boolean checked)
+	{
+		if (checked != mChecked)
+		{
+			mChecked = checked;
+			setBackgroundColor(checked ? CHECKED_COLOR : 0);
+		}
+	}
+
+	public void toggle()
+	{
+		setChecked(!mChecked);
+	}
+}
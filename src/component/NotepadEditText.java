@@ -4,13 +4,18 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.text.Editable;
+import android.text.Layout;
 import android.util.AttributeSet;
 import android.widget.EditText;
 
 public class NotepadEditText extends EditText
 {
 	private final Rect mRect;
+	private final Rect mClip = new Rect();
 	private final Paint mPaint;
+	/** Endpoints of the ruled lines of a frame, four floats to a line */
+	private float[] mLines = new float[4 * 64];
 
 	// This constructor is used by LayoutInflater
 	public NotepadEditText(Context context, AttributeSet attrs)
@@ -23,10 +28,39 @@ public class NotepadEditText extends EditText
 		mPaint = new Paint();
 		mPaint.setStyle(Paint.Style.STROKE);
 		mPaint.setColor(0x800000FF);
+
+		// Text set from now on is kept in a VersionedEditable
+		setEditableFactory(new Editable.Factory()
+		{
+			@Override
+			public Editable newEditable(CharSequence source)
+			{
+				return new VersionedEditable(source);
+			}
+		});
 	}
 
 	/**
-	 * This is called to draw the LinedEditText object
+	 * @return the text as a String, reusing the copy made by the last call
+	 *         if the text has not been edited since
+	 */
+	public String getTextSnapshot()
+	{
+		final Editable text = getText();
+		if (text instanceof VersionedEditable)
+		{
+			return ((VersionedEditable) text).snapshot();
+		}
+		return text.toString();
+	}
+
+	/**
+	 * This is called to draw the LinedEditText object. Only the ruled lines
+	 * that fall inside the canvas clip are drawn, which keeps the cost of a
+	 * frame the same however long the note is. Below the text the ruling
+	 * continues to the bottom of the clip so it fills the view. All of them
+	 * are drawn with a single drawLines call from a buffer kept between
+	 * frames.
 	 * 
 	 * @param canvas
 	 *            The canvas on which the background is drawn.
@@ -34,33 +68,62 @@ public class NotepadEditText extends EditText
 	@Override
 	protected void onDraw(Canvas canvas)
 	{
-
-		// Gets the number of lines of text in the View.
-		final int count = getLineCount();
-
-		// Gets the global Rect and Paint objects
-		final Rect r = mRect;
-		final Paint paint = mPaint;
-
-		/*
-		 * Draws one line in the rectangle for every line of text in the
-		 * EditText
-		 */
-		for (int i = 0; i < count; i++)
+		final Layout layout = getLayout();
+		final Rect clip = mClip;
+		if (layout != null && canvas.getClipBounds(clip))
 		{
+			final Rect r = mRect;
+			int n = 0;
+
+			// Lines of text from the one at the top of the clip to the one at
+			// its bottom, found by binary search in the layout
+			final int top = getExtendedPaddingTop();
+			final int first = layout.getLineForVertical(clip.top - top);
+			final int last = layout.getLineForVertical(clip.bottom - top);
+			int baseline = 0;
+			for (int i = first; i <= last; i++)
+			{
+				// Gets the baseline coordinates for the current line of text
+				baseline = getLineBounds(i, r);
+				n = addLine(n, r.left, baseline + 1, r.right);
+			}
 
-			// Gets the baseline coordinates for the current line of text
-			final int baseline = getLineBounds(i, r);
+			// Below the last line of text the ruling carries on a line height
+			// apart down to the bottom of the clip
+			if (last == layout.getLineCount() - 1)
+			{
+				final int lineHeight = getLineHeight();
+				for (int y = baseline + lineHeight; y + 1 < clip.bottom;
+						y += lineHeight)
+				{
+					n = addLine(n, r.left, y + 1, r.right);
+				}
+			}
 
-			/*
-			 * Draws a line in the background from the left of the rectangle to
-			 * the right, at a vertical position one dip below the baseline,
-			 * using the "paint" object for details.
-			 */
-			canvas.drawLine(r.left, baseline + 1, r.right, baseline + 1, paint);
+			canvas.drawLines(mLines, 0, n, mPaint);
 		}
 
 		// Finishes up by calling the parent method
 		super.onDraw(canvas);
 	}
+
+	/**
+	 * Add a horizontal line to the buffer, growing it if it is full
+	 * 
+	 * @return the number of floats now in the buffer
+	 */
+	private int addLine(int n, float left, float y, float right)
+	{
+		if (n + 4 > mLines.length)
+		{
+			final float[] lines = new float[mLines.length * 2];
+			System.arraycopy(mLines, 0, lines, 0, n);
+			mLines = lines;
+		}
+		mLines[n] = left;
+		mLines[n + 1] = y;
+		mLines[n + 2] = right;
+		mLines[n + 3] = y;
+		return n + 4;
+	}
 }
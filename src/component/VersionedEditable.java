@@ -0,0 +1,47 @@
+package component;
+
+import android.text.SpannableStringBuilder;
+
+/**
+ * Editable that counts the edits made to its text, so the String copy of it
+ * that saving needs is made once per change rather than once per save. A
+ * snapshot that is still current is returned as the same String, which
+ * String.equals recognises without comparing characters.
+ *
+ * Every insert, delete, append and clear of SpannableStringBuilder ends in
+ * the replace overridden here; span changes leave the text and the version
+ * alone.
+ */
+public class VersionedEditable extends SpannableStringBuilder
+{
+	private int mVersion;
+	private int mSnapshotVersion;
+	private String mSnapshot;
+
+	public VersionedEditable(CharSequence text)
+	{
+		super(text);
+	}
+
+	@Override
+	public SpannableStringBuilder replace(int start, int end, CharSequence tb,
+			int tbstart, int tbend)
+	{
+		mVersion++;
+		return super.replace(start, end, tb, tbstart, tbend);
+	}
+
+	/**
+	 * @return the text as a String, copied only if it has changed since the
+	 *         last snapshot
+	 */
+	public String snapshot()
+	{
+		if (mSnapshot == null || mSnapshotVersion != mVersion)
+		{
+			mSnapshot = toString();
+			mSnapshotVersion = mVersion;
+		}
+		return mSnapshot;
+	}
+}
@@ -5,10 +5,21 @@ import android.os.Parcelable;
 
 public class ListRow implements Parcelable
 {
+	/** The description changed since the row was last saved */
+	public static final int DIRTY_DESCRIPTION = 1;
+	/** The checked state changed since the row was last saved */
+	public static final int DIRTY_CHECKED = 2;
+	/** The row was moved since it was last saved */
+	public static final int DIRTY_POSITION = 4;
+
 	private long _id;
 	private long _listId;
 	private int _isChecked;
 	private String _description;
+	private long _version;
+	private String _position;
+	private int _dirtyFields;
+	private int _edits;
 
 	public ListRow(long listId, int isChecked, String description)
 	{
@@ -19,11 +30,34 @@ public class ListRow implements Parcelable
 	}
 
 	public ListRow(long id, long listId, String description, int isChecked)
+	{
+		this(id, listId, description, isChecked, 0);
+	}
+
+	/**
+	 * @param version
+	 *            the version of the row as read from the database
+	 */
+	public ListRow(long id, long listId, String description, int isChecked,
+			long version)
+	{
+		this(id, listId, description, isChecked, version, null);
+	}
+
+	/**
+	 * @param position
+	 *            the sort key of the row within its list, see
+	 *            notepad.main.PositionKey
+	 */
+	public ListRow(long id, long listId, String description, int isChecked,
+			long version, String position)
 	{
 		_id = id;
 		_listId = listId;
 		_isChecked = isChecked;
 		_description = description;
+		_version = version;
+		_position = position;
 	}
 
 	public ListRow(Parcel source)
@@ -32,6 +66,10 @@ public class ListRow implements Parcelable
 		_listId = source.readLong();
 		_isChecked = source.readInt();
 		_description = source.readString();
+		_version = source.readLong();
+		_position = source.readString();
+		_dirtyFields = source.readInt();
+		_edits = source.readInt();
 	}
 
 	public long getListId()
@@ -51,7 +89,12 @@ public class ListRow implements Parcelable
 
 	public void setRowDescription(String desc)
 	{
-		_description = desc;
+		if (desc == null ? _description != null : !desc.equals(_description))
+		{
+			_description = desc;
+			_dirtyFields |= DIRTY_DESCRIPTION;
+			_edits++;
+		}
 	}
 
 	public void setListId(long listId)
@@ -61,7 +104,12 @@ public class ListRow implements Parcelable
 
 	public void setIsChecked(int checked)
 	{
-		_isChecked = checked;
+		if (checked != _isChecked)
+		{
+			_isChecked = checked;
+			_dirtyFields |= DIRTY_CHECKED;
+			_edits++;
+		}
 	}
 
 	public void setId(long id)
@@ -74,6 +122,75 @@ public class ListRow implements Parcelable
 		return _id;
 	}
 
+	/**
+	 * @return the version of the row this one was loaded from or last saved
+	 *         as; a save only applies if the database still holds it
+	 */
+	public long getVersion()
+	{
+		return _version;
+	}
+
+	public void setVersion(long version)
+	{
+		_version = version;
+	}
+
+	public String getPosition()
+	{
+		return _position;
+	}
+
+	public void setPosition(String position)
+	{
+		if (position == null ? _position != null : !position
+				.equals(_position))
+		{
+			_position = position;
+			_dirtyFields |= DIRTY_POSITION;
+			_edits++;
+		}
+	}
+
+	/**
+	 * @return true if the row has changes that have not been saved
+	 */
+	public boolean isDirty()
+	{
+		return _dirtyFields != 0;
+	}
+
+	/**
+	 * @return DIRTY_DESCRIPTION, DIRTY_CHECKED and DIRTY_POSITION flags for
+	 *         the fields changed since the row was last saved
+	 */
+	public int getDirtyFields()
+	{
+		return _dirtyFields;
+	}
+
+	/**
+	 * @return the number of changes made so far, to be passed to
+	 *         {@link #markClean(int)} once a copy taken now is saved
+	 */
+	public int getEdits()
+	{
+		return _edits;
+	}
+
+	/**
+	 * Record that the row has been saved as it was when getEdits() returned
+	 * edits. Changes made since then keep it dirty.
+	 */
+	public void markClean(int edits)
+	{
+		if (edits == _edits)
+		{
+			_dirtyFields = 0;
+			_edits = 0;
+		}
+	}
+
 	public int describeContents()
 	{
 		// TODO Auto-generated method stub
@@ -86,6 +203,10 @@ public class ListRow implements Parcelable
 		arg0.writeLong(_listId);
 		arg0.writeInt(_isChecked);
 		arg0.writeString(_description);
+		arg0.writeLong(_version);
+		arg0.writeString(_position);
+		arg0.writeInt(_dirtyFields);
+		arg0.writeInt(_edits);
 	}
 
 	public static final Parcelable.Creator CREATOR = new Parcelable.Creator()
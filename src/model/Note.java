@@ -6,10 +6,10 @@ import android.os.Parcelable;
 public class Note implements Parcelable
 {
 	private String title;
-	private String due_date;
+	private long due_date;
 	private String body;
 
-	public Note(String title, String due_date, String body)
+	public Note(String title, long due_date, String body)
 	{
 		this.title = title;
 		this.due_date = due_date;
@@ -19,7 +19,7 @@ public class Note implements Parcelable
 	public Note(Parcel source)
 	{
 		this.title = source.readString();
-		this.due_date = source.readString();
+		this.due_date = source.readLong();
 		this.body = source.readString();
 	}
 
@@ -33,12 +33,12 @@ public class Note implements Parcelable
 		this.title = title;
 	}
 
-	public String getDue_date()
+	public long getDue_date()
 	{
 		return due_date;
 	}
 
-	public void setDue_date(String due_date)
+	public void setDue_date(long due_date)
 	{
 		this.due_date = due_date;
 	}
@@ -62,7 +62,7 @@ public class Note implements Parcelable
 	public void writeToParcel(Parcel dest, int flags)
 	{
 		dest.writeString(this.title);
-		dest.writeString(this.due_date);
+		dest.writeLong(this.due_date);
 		dest.writeString(this.body);
 	}
 
@@ -0,0 +1,49 @@
+package model;
+
+/**
+ * One piece of the body of a large note. Pieces are ordered by seq, which
+ * leaves gaps so a piece can be split without renumbering its neighbours.
+ */
+public class NoteChunk
+{
+	private long _id;
+	private long _seq;
+	private String _text;
+
+	public NoteChunk(long id, long seq, String text)
+	{
+		_id = id;
+		_seq = seq;
+		_text = text;
+	}
+
+	public long getId()
+	{
+		return _id;
+	}
+
+	public void setId(long id)
+	{
+		_id = id;
+	}
+
+	public long getSeq()
+	{
+		return _seq;
+	}
+
+	public void setSeq(long seq)
+	{
+		_seq = seq;
+	}
+
+	public String getText()
+	{
+		return _text;
+	}
+
+	public void setText(String text)
+	{
+		_text = text;
+	}
+}
@@ -0,0 +1,699 @@
+/*
+ * Archive.java
+ *
+ * Exports every note and list to a single file and imports them back. Records
+ * are streamed through one fixed buffer on a FileChannel in both directions,
+ * so memory use does not depend on how much data there is. Text is written in
+ * segments of at most SEGMENT characters; a list is followed by its rows, so
+ * importing never has to remember more than the list it is filling.
+ *
+ * Exporting only reads, so it is meant to run beside the DbWriter thread
+ * rather than on it. Notes and lists are read PAGE_SIZE at a time, and writes
+ * go ahead between pages; a row changed while the export runs is exported as
+ * it was when its page was read.
+ *
+ * Layout: MAGIC, VERSION, then records each starting with a tag byte:
+ * NOTE (title, due, created, body), LIST (title, created),
+ * ROW (item, checked) and END.
+ */
+
+package notepad.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+public class Archive
+{
+	private static final String TAG = "Archive";
+
+	private static final int MAGIC = 0x48424e41; // "HBNA"
+	private static final int VERSION = 1;
+
+	private static final byte NOTE = 'N';
+	private static final byte LIST = 'L';
+	private static final byte ROW = 'R';
+	private static final byte END = 'E';
+
+	/** Characters per text segment; encoded, one always fits the buffer */
+	private static final int SEGMENT = 8192;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Records imported per transaction */
+	private static final int BATCH_SIZE = 500;
+	/** Notes or lists read per query while exporting */
+	private static final int PAGE_SIZE = 200;
+
+	private static final String CHARSET = "UTF-8";
+
+	private Archive()
+	{
+	}
+
+	/**
+	 * Write every note and list to a file, replacing it.
+	 *
+	 * @return the number of records written
+	 */
+	public static long exportTo(NotesDbAdapter db, File file)
+			throws IOException
+	{
+		return export(db, file, null, null);
+	}
+
+	/**
+	 * Write the chosen notes and lists to a file, replacing it.
+	 * 
+	 * @return the number of records written
+	 */
+	public static long exportTo(NotesDbAdapter db, File file, long[] noteIds,
+			long[] listIds) throws IOException
+	{
+		return export(db, file, sorted(noteIds), sorted(listIds));
+	}
+
+	/**
+	 * Render the chosen notes and lists as plain text for sharing: each title
+	 * on its own line followed by the body, or by the list rows marked as
+	 * checked or not. Text past limit characters is cut off.
+	 */
+	public static String toText(NotesDbAdapter db, long[] noteIds,
+			long[] listIds, int limit) throws IOException
+	{
+		final StringBuilder text = new StringBuilder();
+		final Cursor notes = db.fetchNotes(noteIds);
+		try
+		{
+			final int id = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_ROWID);
+			final int title = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE);
+			final int body = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY);
+			final int format = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY_FORMAT);
+			while (text.length() < limit && notes.moveToNext())
+			{
+				text.append(notes.getString(title)).append("\n\n");
+				if (notes.getInt(format) == BodyCodec.FORMAT_CHUNKED)
+				{
+					final Reader reader = db.openBodyReader(notes.getLong(id));
+					try
+					{
+						final char[] buffer = new char[SEGMENT];
+						int n;
+						while (reader != null && text.length() < limit
+								&& (n = reader.read(buffer)) != -1)
+						{
+							text.append(buffer, 0, n);
+						}
+					} finally
+					{
+						if (reader != null)
+						{
+							reader.close();
+						}
+					}
+				} else if (notes.getString(body) != null)
+				{
+					text.append(notes.getString(body));
+				}
+				text.append("\n\n");
+			}
+		} finally
+		{
+			notes.close();
+		}
+
+		final Cursor lists = db.fetchLists(listIds);
+		final Cursor rows = db.fetchListData(listIds);
+		try
+		{
+			final int listId = lists.getColumnIndexOrThrow(NotesDbAdapter.KEY_ROWID);
+			final int listTitle = lists.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE);
+			final int rowList = rows.getColumnIndexOrThrow("list_id");
+			final int rowItem = rows.getColumnIndexOrThrow("item_data");
+			final int rowChecked = rows.getColumnIndexOrThrow("checked");
+			boolean hasRow = rows.moveToNext();
+			while (text.length() < limit && lists.moveToNext())
+			{
+				final long list = lists.getLong(listId);
+				text.append(lists.getString(listTitle)).append("\n\n");
+				while (hasRow && rows.getLong(rowList) < list)
+				{
+					hasRow = rows.moveToNext();
+				}
+				while (hasRow && rows.getLong(rowList) == list)
+				{
+					text.append(rows.getInt(rowChecked) != 0 ? "[x] " : "[ ] ")
+							.append(rows.getString(rowItem)).append('\n');
+					hasRow = rows.moveToNext();
+				}
+				text.append('\n');
+			}
+		} finally
+		{
+			lists.close();
+			rows.close();
+		}
+
+		if (text.length() > limit)
+		{
+			text.setLength(limit);
+		}
+		return text.toString().trim();
+	}
+
+	/**
+	 * Write notes and lists to a file a page at a time.
+	 * 
+	 * @param noteIds
+	 *            ids of the notes to write in ascending order, or null for
+	 *            every note not in the trash
+	 * @param listIds
+	 *            ids of the lists to write in ascending order, or null for
+	 *            every list not in the trash
+	 */
+	private static long export(NotesDbAdapter db, File file, long[] noteIds,
+			long[] listIds) throws IOException
+	{
+		final long start = SystemClock.elapsedRealtime();
+		long records = 0;
+		final FileOutputStream stream = new FileOutputStream(file);
+		try
+		{
+			final Output out = new Output(stream.getChannel());
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+
+			long afterId = Long.MIN_VALUE;
+			int count;
+			do
+			{
+				final Cursor notes = (noteIds == null) ? db.fetchNotesAfter(
+						afterId, PAGE_SIZE) : db.fetchNotes(page(noteIds,
+						afterId));
+				try
+				{
+					count = notes.getCount();
+					final int id = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_ROWID);
+					final int title = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE);
+					final int due = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_DATE);
+					final int created = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_CREATE_DATE);
+					final int body = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY);
+					final int format = notes.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY_FORMAT);
+					while (notes.moveToNext())
+					{
+						afterId = notes.getLong(id);
+						out.putByte(NOTE);
+						out.putText(notes.getString(title));
+						out.putLong(notes.getLong(due));
+						out.putLong(notes.getLong(created));
+						if (notes.getInt(format) == BodyCodec.FORMAT_CHUNKED)
+						{
+							putChunkedBody(db, out, afterId);
+						} else
+						{
+							out.putText(notes.getString(body));
+						}
+						records++;
+					}
+				} finally
+				{
+					notes.close();
+				}
+			} while (count == PAGE_SIZE);
+
+			afterId = Long.MIN_VALUE;
+			do
+			{
+				final Cursor lists = (listIds == null) ? db.fetchListsAfter(
+						afterId, PAGE_SIZE) : db.fetchLists(page(listIds,
+						afterId));
+				try
+				{
+					count = lists.getCount();
+					final long[] ids = new long[count];
+					final int listId = lists.getColumnIndexOrThrow(NotesDbAdapter.KEY_ROWID);
+					while (lists.moveToNext())
+					{
+						ids[lists.getPosition()] = lists.getLong(listId);
+					}
+					if (count > 0)
+					{
+						afterId = ids[count - 1];
+						lists.moveToPosition(-1);
+						records += putLists(out, lists, db.fetchListData(ids));
+					}
+				} finally
+				{
+					lists.close();
+				}
+			} while (count == PAGE_SIZE);
+
+			out.putByte(END);
+			out.flush();
+		} finally
+		{
+			stream.close();
+		}
+		logThroughput("Exported", records, start);
+		return records;
+	}
+
+	/**
+	 * Write a page of lists, each followed by its rows. Both cursors are
+	 * ordered by list id, so this takes a single pass over each. The rows
+	 * cursor is closed.
+	 * 
+	 * @return the number of records written
+	 */
+	private static long putLists(Output out, Cursor lists, Cursor rows)
+			throws IOException
+	{
+		long records = 0;
+		try
+		{
+			final int listId = lists.getColumnIndexOrThrow(NotesDbAdapter.KEY_ROWID);
+			final int listTitle = lists.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE);
+			final int listCreated = lists.getColumnIndexOrThrow(NotesDbAdapter.KEY_CREATE_DATE);
+			final int rowList = rows.getColumnIndexOrThrow("list_id");
+			final int rowItem = rows.getColumnIndexOrThrow("item_data");
+			final int rowChecked = rows.getColumnIndexOrThrow("checked");
+			boolean hasRow = rows.moveToNext();
+			while (lists.moveToNext())
+			{
+				final long list = lists.getLong(listId);
+				out.putByte(LIST);
+				out.putText(lists.getString(listTitle));
+				out.putLong(lists.getLong(listCreated));
+				records++;
+				while (hasRow && rows.getLong(rowList) < list)
+				{
+					hasRow = rows.moveToNext();
+				}
+				while (hasRow && rows.getLong(rowList) == list)
+				{
+					out.putByte(ROW);
+					out.putText(rows.getString(rowItem));
+					out.putInt(rows.getInt(rowChecked));
+					records++;
+					hasRow = rows.moveToNext();
+				}
+			}
+		} finally
+		{
+			rows.close();
+		}
+		return records;
+	}
+
+	/**
+	 * Write a body stored in chunks. The chunks are read in one transaction,
+	 * so a save that lands during the export cannot leave the body half old
+	 * and half new. A note removed since its page was read has an empty body.
+	 */
+	private static void putChunkedBody(NotesDbAdapter db, Output out,
+			long rowId) throws IOException
+	{
+		db.beginTransaction();
+		try
+		{
+			final Reader reader = db.openBodyReader(rowId);
+			if (reader == null)
+			{
+				out.putText("");
+			} else
+			{
+				try
+				{
+					out.putText(reader);
+				} finally
+				{
+					reader.close();
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally
+		{
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * @return a sorted copy of ids
+	 */
+	private static long[] sorted(long[] ids)
+	{
+		final long[] copy = ids.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+
+	/**
+	 * @return the first PAGE_SIZE of the sorted ids that are above afterId
+	 */
+	private static long[] page(long[] ids, long afterId)
+	{
+		int from = Arrays.binarySearch(ids, afterId);
+		from = (from < 0) ? -from - 1 : from + 1;
+		final long[] page = new long[Math.min(ids.length - from, PAGE_SIZE)];
+		System.arraycopy(ids, from, page, 0, page.length);
+		return page;
+	}
+
+	/**
+	 * Add every note and list in a file to the database. Records are committed
+	 * BATCH_SIZE at a time; if the file turns out to be damaged, the batches
+	 * before the damage are kept.
+	 *
+	 * @return the number of records imported
+	 */
+	public static long importFrom(NotesDbAdapter db, File file)
+			throws IOException
+	{
+		final long start = SystemClock.elapsedRealtime();
+		final FileInputStream stream = new FileInputStream(file);
+		long records = 0;
+		try
+		{
+			final Input in = new Input(stream.getChannel());
+			if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			{
+				throw new IOException("Not a notepad archive: " + file);
+			}
+
+			long listId = -1;
+			db.beginTransaction();
+			try
+			{
+				byte tag;
+				while ((tag = in.getByte()) != END)
+				{
+					if (tag == NOTE)
+					{
+						final String title = in.getText();
+						final long due = in.getLong();
+						final long created = in.getLong();
+						readBody(db, in, title, due, created);
+					} else if (tag == LIST)
+					{
+						final String title = in.getText();
+						listId = db.createList(title, in.getLong());
+					} else if (tag == ROW)
+					{
+						final String item = in.getText();
+						final int checked = in.getInt();
+						if (listId != -1)
+						{
+							db.createListRowData(listId, item, checked);
+						}
+					} else
+					{
+						throw new IOException("Damaged archive: " + file);
+					}
+					if (++records % BATCH_SIZE == 0)
+					{
+						db.setTransactionSuccessful();
+						db.endTransaction();
+						db.beginTransaction();
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally
+			{
+				db.endTransaction();
+			}
+		} finally
+		{
+			stream.close();
+		}
+		logThroughput("Imported", records, start);
+		return records;
+	}
+
+	/**
+	 * Create a note from the body at the head of the input. A body that
+	 * fits inline is collected and stored in one go; a longer one is passed
+	 * straight on to the chunk writer.
+	 */
+	private static void readBody(NotesDbAdapter db, Input in, String title,
+			long due, long created) throws IOException
+	{
+		final StringBuilder body = new StringBuilder();
+		String segment;
+		while ((segment = in.getSegment()) != null)
+		{
+			body.append(segment);
+			if (body.length() > NotesDbAdapter.INLINE_LIMIT)
+			{
+				final long rowId = db.createNote(title, due, "", created);
+				final Writer writer = db.openBodyWriter(rowId);
+				writer.append(body);
+				while ((segment = in.getSegment()) != null)
+				{
+					writer.write(segment);
+				}
+				writer.close();
+				return;
+			}
+		}
+		db.createNote(title, due, body.toString(), created);
+	}
+
+	private static void logThroughput(String action, long records, long start)
+	{
+		final long elapsed = Math.max(1, SystemClock.elapsedRealtime()
+				- start);
+		Log.i(TAG, action + " " + records + " records in " + elapsed
+				+ " ms (" + (records * 1000 / elapsed) + " records/s)");
+	}
+
+	/**
+	 * Writes primitives and text through a fixed buffer into a channel.
+	 */
+	private static class Output
+	{
+		private final FileChannel mChannel;
+		private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final char[] mChars = new char[SEGMENT];
+
+		Output(FileChannel channel)
+		{
+			mChannel = channel;
+		}
+
+		private void ensure(int bytes) throws IOException
+		{
+			if (mBuffer.remaining() < bytes)
+			{
+				flush();
+			}
+		}
+
+		void flush() throws IOException
+		{
+			mBuffer.flip();
+			while (mBuffer.hasRemaining())
+			{
+				mChannel.write(mBuffer);
+			}
+			mBuffer.clear();
+		}
+
+		void putByte(byte value) throws IOException
+		{
+			ensure(1);
+			mBuffer.put(value);
+		}
+
+		void putInt(int value) throws IOException
+		{
+			ensure(4);
+			mBuffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException
+		{
+			ensure(8);
+			mBuffer.putLong(value);
+		}
+
+		/**
+		 * Write text as segments followed by an end marker. A null string is
+		 * written as empty.
+		 */
+		void putText(String text) throws IOException
+		{
+			if (text != null)
+			{
+				int start = 0;
+				while (start < text.length())
+				{
+					int end = Math.min(start + SEGMENT, text.length());
+					if (end < text.length()
+							&& Character.isHighSurrogate(text.charAt(end - 1)))
+					{
+						end--;
+					}
+					putSegment(text.substring(start, end));
+					start = end;
+				}
+			}
+			putInt(-1);
+		}
+
+		/**
+		 * Write the text of a Reader as segments followed by an end marker
+		 */
+		void putText(Reader reader) throws IOException
+		{
+			int held = 0;
+			int read;
+			while ((read = reader.read(mChars, held, SEGMENT - held)) != -1)
+			{
+				int count = held + read;
+				// Keep a trailing high surrogate for the next segment so the
+				// pair is encoded together
+				held = (count > 0 && Character.isHighSurrogate(mChars[count - 1])) ? 1
+						: 0;
+				count -= held;
+				if (count > 0)
+				{
+					putSegment(new String(mChars, 0, count));
+				}
+				if (held > 0)
+				{
+					mChars[0] = mChars[count];
+				}
+			}
+			if (held > 0)
+			{
+				putSegment(new String(mChars, 0, held));
+			}
+			putInt(-1);
+		}
+
+		private void putSegment(String segment) throws IOException
+		{
+			final byte[] bytes = utf8(segment);
+			ensure(4 + bytes.length);
+			mBuffer.putInt(bytes.length);
+			mBuffer.put(bytes);
+		}
+	}
+
+	/**
+	 * Reads what Output wrote, refilling a fixed buffer from a channel.
+	 */
+	private static class Input
+	{
+		private final FileChannel mChannel;
+		private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final byte[] mBytes = new byte[BUFFER_SIZE];
+
+		Input(FileChannel channel)
+		{
+			mChannel = channel;
+			mBuffer.flip();
+		}
+
+		private void ensure(int bytes) throws IOException
+		{
+			if (bytes > BUFFER_SIZE)
+			{
+				throw new IOException("Damaged archive");
+			}
+			if (mBuffer.remaining() >= bytes)
+			{
+				return;
+			}
+			mBuffer.compact();
+			while (mBuffer.position() < bytes)
+			{
+				if (mChannel.read(mBuffer) == -1)
+				{
+					throw new IOException("Archive ends too soon");
+				}
+			}
+			mBuffer.flip();
+		}
+
+		byte getByte() throws IOException
+		{
+			ensure(1);
+			return mBuffer.get();
+		}
+
+		int getInt() throws IOException
+		{
+			ensure(4);
+			return mBuffer.getInt();
+		}
+
+		long getLong() throws IOException
+		{
+			ensure(8);
+			return mBuffer.getLong();
+		}
+
+		/**
+		 * @return the next segment of a text, or null at its end marker
+		 */
+		String getSegment() throws IOException
+		{
+			final int length = getInt();
+			if (length == -1)
+			{
+				return null;
+			}
+			if (length < 0)
+			{
+				throw new IOException("Damaged archive");
+			}
+			ensure(length);
+			mBuffer.get(mBytes, 0, length);
+			return new String(mBytes, 0, length, CHARSET);
+		}
+
+		/**
+		 * Read a whole text; only used for titles and list items
+		 */
+		String getText() throws IOException
+		{
+			final String first = getSegment();
+			if (first == null)
+			{
+				return "";
+			}
+			String segment = getSegment();
+			if (segment == null)
+			{
+				return first;
+			}
+			final StringBuilder text = new StringBuilder(first);
+			do
+			{
+				text.append(segment);
+			} while ((segment = getSegment()) != null);
+			return text.toString();
+		}
+	}
+
+	private static byte[] utf8(String text)
+	{
+		try
+		{
+			return text.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e)
+		{
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * BodyCodec.java
+ *
+ * Encodes note bodies for storage. Short bodies are stored as plain text;
+ * bodies above COMPRESS_THRESHOLD characters are deflated into a BLOB when
+ * that saves at least a tenth of their size. Bodies too large to read back in
+ * one piece are kept in note_chunks instead. The body_format column of a note
+ * records which of these was used.
+ */
+
+package notepad.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+public class BodyCodec
+{
+	public static final int FORMAT_PLAIN = 0;
+	public static final int FORMAT_DEFLATE = 1;
+	public static final int FORMAT_CHUNKED = 2;
+
+	/** Bodies shorter than this many characters are never compressed */
+	static final int COMPRESS_THRESHOLD = 4096;
+
+	private static final String CHARSET = "UTF-8";
+
+	private BodyCodec()
+	{
+	}
+
+	/**
+	 * @param body
+	 *            the text of a note
+	 * @return the compressed body, or null if it should be stored as text
+	 */
+	public static byte[] compress(String body)
+	{
+		if (body == null || body.length() < COMPRESS_THRESHOLD)
+		{
+			return null;
+		}
+		final byte[] plain = utf8(body);
+		final Deflater deflater = new Deflater();
+		try
+		{
+			deflater.setInput(plain);
+			deflater.finish();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(
+					plain.length / 2);
+			final byte[] buffer = new byte[8192];
+			while (!deflater.finished())
+			{
+				out.write(buffer, 0, deflater.deflate(buffer));
+				if (out.size() > plain.length * 9 / 10)
+				{
+					return null;
+				}
+			}
+			return out.toByteArray();
+		} finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @param data
+	 *            a body returned by {@link #compress(String)}
+	 * @return the text of the body
+	 */
+	public static String decompress(byte[] data)
+	{
+		final Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(data);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(
+					data.length * 4);
+			final byte[] buffer = new byte[8192];
+			while (!inflater.finished())
+			{
+				final int count = inflater.inflate(buffer);
+				if (count == 0 && inflater.needsInput())
+				{
+					throw new IllegalStateException("Truncated note body");
+				}
+				out.write(buffer, 0, count);
+			}
+			return new String(out.toByteArray(), CHARSET);
+		} catch (DataFormatException e)
+		{
+			throw new IllegalStateException("Corrupt note body", e);
+		} catch (UnsupportedEncodingException e)
+		{
+			throw new AssertionError(e);
+		} finally
+		{
+			inflater.end();
+		}
+	}
+
+	private static byte[] utf8(String text)
+	{
+		try
+		{
+			return text.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e)
+		{
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Cursor over notes that hands out the body column as text whatever
+	 * format it is stored in. The query must include body_format.
+	 */
+	static class BodyCursor extends CursorWrapper
+	{
+		private final int mBodyColumn;
+		private final int mFormatColumn;
+
+		BodyCursor(Cursor cursor)
+		{
+			super(cursor);
+			mBodyColumn = cursor.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY);
+			mFormatColumn = cursor
+					.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY_FORMAT);
+		}
+
+		@Override
+		public String getString(int columnIndex)
+		{
+			if (columnIndex == mBodyColumn
+					&& getInt(mFormatColumn) == FORMAT_DEFLATE)
+			{
+				return decompress(getBlob(columnIndex));
+			}
+			return super.getString(columnIndex);
+		}
+	}
+}
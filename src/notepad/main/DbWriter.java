@@ -0,0 +1,312 @@
+/*
+ * DbWriter.java
+ *
+ * Runs database writes on a single background thread, in the order they were
+ * submitted, so the UI thread never waits on the disk. Writes carry a key
+ * naming the operation and the row it overwrites; a write submitted while an
+ * earlier one with the same key is still queued replaces it, takes its place
+ * at the back of the queue, and the callers of both are answered with the
+ * result of the write that ran. The queue is bounded for background threads:
+ * once it is full, submitting from one waits for the writer to catch up. The
+ * main thread never waits.
+ */
+
+package notepad.main;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+public class DbWriter
+{
+	private static final String TAG = "DbWriter";
+	private static final int CAPACITY = 64;
+
+	private static DbWriter sInstance;
+
+	/**
+	 * A unit of work run on the writer thread.
+	 */
+	public static abstract class Write<T>
+	{
+		public abstract T run(NotesDbAdapter db);
+	}
+
+	/**
+	 * Receives the result of a write on the main thread.
+	 */
+	public interface Callback<T>
+	{
+		/**
+		 * @param result
+		 *            what the write returned, or null if it failed
+		 */
+		void onComplete(T result);
+	}
+
+	private static class Task<T> implements Callable<T>
+	{
+		Write<T> write;
+		final ArrayList<Callback<T>> callbacks = new ArrayList<Callback<T>>();
+		final FutureTask<T> future = new FutureTask<T>(this);
+		NotesDbAdapter db;
+
+		public T call()
+		{
+			return write.run(db);
+		}
+	}
+
+	private final Context mContext;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private final LinkedHashMap<Object, Task<?>> mQueue = new LinkedHashMap<Object, Task<?>>();
+
+	private DbWriter(Context context)
+	{
+		mContext = context.getApplicationContext();
+		final Thread thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				runWrites();
+			}
+		}, TAG);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return the writer shared by the whole process
+	 */
+	public static synchronized DbWriter get(Context context)
+	{
+		if (sInstance == null)
+		{
+			sInstance = new DbWriter(context);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Queue a write.
+	 *
+	 * @param key
+	 *            names the operation and the data it replaces, see
+	 *            {@link #key(String, long)}; a queued write with the same key
+	 *            is merged into this one. null if the write must always run.
+	 * @param write
+	 *            the work to run on the writer thread
+	 * @param callback
+	 *            called on the main thread once the write has run, or null
+	 * @return Future of the result of the write
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Future<T> submit(String key, Write<T> write, Callback<T> callback)
+	{
+		final Object queueKey = (key == null) ? new Object() : key;
+		synchronized (mQueue)
+		{
+			Task<T> task = (Task<T>) mQueue.remove(queueKey);
+			if (task == null)
+			{
+				final boolean mainThread = Looper.myLooper() == Looper
+						.getMainLooper();
+				while (!mainThread && mQueue.size() >= CAPACITY)
+				{
+					try
+					{
+						mQueue.wait();
+					} catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				task = new Task<T>();
+			}
+			// Put back at the end, after the writes it now follows
+			mQueue.put(queueKey, task);
+			mQueue.notifyAll();
+			task.write = write;
+			if (callback != null)
+			{
+				task.callbacks.add(callback);
+			}
+			return task.future;
+		}
+	}
+
+	/**
+	 * Run an action on the main thread once every write submitted so far has
+	 * been applied.
+	 */
+	public void afterPendingWrites(final Runnable action)
+	{
+		submit(null, new Write<Void>()
+		{
+			@Override
+			public Void run(NotesDbAdapter db)
+			{
+				return null;
+			}
+		}, new Callback<Void>()
+		{
+			public void onComplete(Void result)
+			{
+				action.run();
+			}
+		});
+	}
+
+	/**
+	 * Run a long read, such as an export, on a thread of its own once every
+	 * write submitted so far has been applied. It holds its own reference to
+	 * the connection and reads through it in short queries, so writes
+	 * submitted meanwhile are not queued behind it.
+	 *
+	 * @param read
+	 *            the work to run; it must not write
+	 * @param callback
+	 *            called on the main thread with its result, or with null if
+	 *            it failed
+	 */
+	public <T> void submitRead(final Write<T> read, final Callback<T> callback)
+	{
+		afterPendingWrites(new Runnable()
+		{
+			public void run()
+			{
+				new Thread(new Runnable()
+				{
+					public void run()
+					{
+						T result = null;
+						final NotesDbAdapter db = new NotesDbAdapter(mContext)
+								.open();
+						try
+						{
+							result = read.run(db);
+						} catch (RuntimeException e)
+						{
+							Log.e(TAG, "Read failed", e);
+						} finally
+						{
+							db.close();
+						}
+						final T delivered = result;
+						mMainHandler.post(new Runnable()
+						{
+							public void run()
+							{
+								callback.onComplete(delivered);
+							}
+						});
+					}
+				}, "DbReader").start();
+			}
+		});
+	}
+
+	/**
+	 * @param operation
+	 *            the table and what is done to the row, such as "notes.trash".
+	 *            Writes sharing an operation must return the same kind of
+	 *            result, since their callbacks receive each other's.
+	 * @return a key for writes that replace the whole of one row
+	 */
+	public static String key(String operation, long rowId)
+	{
+		return operation + ":" + rowId;
+	}
+
+	private void runWrites()
+	{
+		while (true)
+		{
+			synchronized (mQueue)
+			{
+				while (mQueue.isEmpty())
+				{
+					try
+					{
+						mQueue.wait();
+					} catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+			}
+
+			// Hold the connection only while there is work to do, so it still
+			// closes when the last activity lets go of it
+			final NotesDbAdapter db = new NotesDbAdapter(mContext).open();
+			try
+			{
+				Task<?> task;
+				while ((task = next()) != null)
+				{
+					run(task, db);
+				}
+			} finally
+			{
+				db.close();
+			}
+		}
+	}
+
+	private Task<?> next()
+	{
+		synchronized (mQueue)
+		{
+			final Iterator<Task<?>> tasks = mQueue.values().iterator();
+			if (!tasks.hasNext())
+			{
+				return null;
+			}
+			final Task<?> task = tasks.next();
+			tasks.remove();
+			mQueue.notifyAll();
+			return task;
+		}
+	}
+
+	private <T> void run(final Task<T> task, NotesDbAdapter db)
+	{
+		task.db = db;
+		task.future.run();
+		T result = null;
+		try
+		{
+			result = task.future.get();
+		} catch (ExecutionException e)
+		{
+			Log.e(TAG, "Write failed", e.getCause());
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if (!task.callbacks.isEmpty())
+		{
+			final T delivered = result;
+			mMainHandler.post(new Runnable()
+			{
+				public void run()
+				{
+					for (Callback<T> callback : task.callbacks)
+					{
+						callback.onComplete(delivered);
+					}
+				}
+			});
+		}
+	}
+}
@@ -3,6 +3,10 @@
  * 
  * This is a custom adapter that will build a row that contains a CheckBox and a EditText. Their information will be populated
  * based on a the ArrayList of values found in the ListRow objects. 
+ * 
+ * Each row also has a grip that drags it to another place in the list. The
+ * row is shown moving as it is dragged; only dropping it gives it a new
+ * position, so a move saves a single row.
  */
 
 package notepad.main;
@@ -12,6 +16,7 @@ import java.util.ArrayList;
 import model.ListRow;
 import android.content.Context;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
@@ -22,9 +27,25 @@ import android.widget.TextView;
 
 public class ListAdapter extends BaseAdapter
 {
+	/**
+	 * Receives the rows dragged by their grip
+	 */
+	public interface RowMover
+	{
+		/** Show the row at from at to while it is still being dragged */
+		void dragRow(int from, int to);
+
+		/** The dragged row was let go at position */
+		void dropRow(int position);
+	}
+
 	private ArrayList<ListRow> todoItems;
 	private LayoutInflater inflater;
 	private Context context;
+	private ListView listView;
+	private RowMover rowMover;
+	/** Where the dragged row is now, or -1 when there is no drag */
+	private int dragPosition = -1;
 
 	public ListAdapter(Context context, int textViewResourceId,
 			ArrayList<ListRow> dataItems)
@@ -40,6 +61,7 @@ public class ListAdapter extends BaseAdapter
 		final ListRow row = this.todoItems.get(position);
 		EditText rowDesc;
 		CheckBox bCheck;
+		View grip;
 		View v = convertView;
 		if (v == null)
 		{
@@ -47,7 +69,9 @@ public class ListAdapter extends BaseAdapter
 			rowDesc = (EditText) v.findViewById(R.id.row_description);
 			v.setFocusableInTouchMode(true);
 			bCheck = (CheckBox) v.findViewById(R.id.checked);
-			v.setTag(new RowViewHolder(rowDesc, bCheck));
+			grip = v.findViewById(R.id.drag_handle);
+			v.setTag(new RowViewHolder(rowDesc, bCheck, grip));
+			grip.setOnTouchListener(onGripTouch);
 			rowDesc.setText(row.getRowDescription());
 
 			bCheck.setOnClickListener(new View.OnClickListener()
@@ -75,11 +99,13 @@ public class ListAdapter extends BaseAdapter
 			RowViewHolder viewHolder = (RowViewHolder) convertView.getTag();
 			bCheck = viewHolder.getCheckBox();
 			rowDesc = viewHolder.getEditText();
+			grip = viewHolder.getGrip();
 
 		}
 
 		bCheck.setTag(row);
 		rowDesc.setTag(row);
+		grip.setTag(row);
 
 		bCheck.setChecked((row.getIsChecked() == 1) ? true : false);
 		rowDesc.setText(row.getRowDescription().toString());
@@ -102,15 +128,74 @@ public class ListAdapter extends BaseAdapter
 		return position;
 	}
 
+	/**
+	 * Let rows be dragged within listView, which shows this adapter
+	 */
+	public void setRowMover(ListView listView, RowMover rowMover)
+	{
+		this.listView = listView;
+		this.rowMover = rowMover;
+	}
+
+	private final View.OnTouchListener onGripTouch = new View.OnTouchListener()
+	{
+		public boolean onTouch(View v, MotionEvent event)
+		{
+			if (rowMover == null)
+			{
+				return false;
+			}
+			switch (event.getAction())
+			{
+			case MotionEvent.ACTION_DOWN:
+				dragPosition = todoItems.indexOf(v.getTag());
+				// Keep the list from taking the gesture for a scroll
+				v.getParent().requestDisallowInterceptTouchEvent(true);
+				return dragPosition != -1;
+			case MotionEvent.ACTION_MOVE:
+				// The grip's own view may be rebound to another row as the
+				// list changes, so the pointer is placed by screen position
+				final int[] origin = new int[2];
+				listView.getLocationOnScreen(origin);
+				final int position = listView.pointToPosition((int) event
+						.getRawX()
+						- origin[0], (int) event.getRawY() - origin[1]);
+				if (dragPosition != -1 && position != ListView.INVALID_POSITION
+						&& position != dragPosition)
+				{
+					rowMover.dragRow(dragPosition, position);
+					dragPosition = position;
+				}
+				return true;
+			case MotionEvent.ACTION_UP:
+			case MotionEvent.ACTION_CANCEL:
+				if (dragPosition != -1)
+				{
+					rowMover.dropRow(dragPosition);
+					dragPosition = -1;
+				}
+				return true;
+			}
+			return false;
+		}
+	};
+
 	private static class RowViewHolder
 	{
 		private CheckBox checkBox;
 		private EditText editText;
+		private final View grip;
 
-		public RowViewHolder(EditText editText, CheckBox checkBox)
+		public RowViewHolder(EditText editText, CheckBox checkBox, View grip)
 		{
 			this.checkBox = checkBox;
 			this.editText = editText;
+			this.grip = grip;
+		}
+
+		public View getGrip()
+		{
+			return grip;
 		}
 
 		public CheckBox getCheckBox()
@@ -17,7 +17,8 @@
 package notepad.main;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 
 import model.ListRow;
 import android.app.AlertDialog;
@@ -48,13 +49,14 @@ public class ListEdit extends ListActivity
 	private final String DEFAULT_TITLE = "Untitled";
 
 	private Long mListId;
-	private ArrayList<Long> mRowRemovalIds;
+	private ArrayList<ListRow> mRemovedRows;
 	private String listTitle;
-	private String mCreateDate;
+	private long mCreateDate;
 	private NotesDbAdapter mDbHelper;
 	private ArrayList<ListRow> toDoData;
 	private ListAdapter customToDoAdapter;
 	private ListActivity contextView;
+	private boolean destroyed;
 
 	private Button addButton;
 	private Button removeButton;
@@ -100,8 +102,9 @@ public class ListEdit extends ListActivity
 		contextView = this;
 		setTitle(DEFAULT_TITLE);
 		toDoData = new ArrayList<ListRow>();
-		mRowRemovalIds = new ArrayList<Long>();
+		mRemovedRows = new ArrayList<ListRow>();
 		customToDoAdapter = new ListAdapter(this, R.layout.list_item, toDoData);
+		customToDoAdapter.setRowMover(getListView(), rowMover);
 		registerForContextMenu(getListView());
 
 		setListAdapter(customToDoAdapter);
@@ -114,8 +117,7 @@ public class ListEdit extends ListActivity
 			final Bundle extras = getIntent().getExtras();
 			mListId = extras != null ? extras.getLong(NotesDbAdapter.KEY_ROWID)
 					: null;
-			final Date currentDate = new Date();
-			mCreateDate = currentDate.toString().substring(0, 16);
+			mCreateDate = System.currentTimeMillis();
 		} else
 		{
 		}
@@ -134,6 +136,14 @@ public class ListEdit extends ListActivity
 		outState.putSerializable(NotesDbAdapter.KEY_ROWID, mListId);
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		super.onDestroy();
+		destroyed = true;
+		mDbHelper.close();
+	}
+
 	@Override
 	protected void onPause()
 	{
@@ -217,10 +227,73 @@ public class ListEdit extends ListActivity
 
 	private void addRow()
 	{
-		toDoData.add(new ListRow(0, 0, ""));
+		final ListRow row = new ListRow(0, 0, "");
+		row.setPosition(PositionKey.between(toDoData.isEmpty() ? null
+				: toDoData.get(toDoData.size() - 1).getPosition(), null));
+		toDoData.add(row);
 		customToDoAdapter.notifyDataSetChanged();
 	}
 
+	private final ListAdapter.RowMover rowMover = new ListAdapter.RowMover()
+	{
+		public void dragRow(int from, int to)
+		{
+			toDoData.add(to, toDoData.remove(from));
+			customToDoAdapter.notifyDataSetChanged();
+		}
+
+		/**
+		 * Give the dropped row a position between its new neighbours, so
+		 * saving the move writes that row alone
+		 */
+		public void dropRow(int position)
+		{
+			final ListRow row = toDoData.get(position);
+			final String before = (position == 0) ? null : toDoData.get(
+					position - 1).getPosition();
+			final String after = (position == toDoData.size() - 1) ? null
+					: toDoData.get(position + 1).getPosition();
+			if (inOrder(before, row.getPosition())
+					&& inOrder(row.getPosition(), after))
+			{
+				// Dropped where it was picked up
+				return;
+			}
+			try
+			{
+				if ((position > 0 && before == null)
+						|| (position < toDoData.size() - 1 && after == null))
+				{
+					throw new IllegalArgumentException("Row without position");
+				}
+				row.setPosition(PositionKey.between(before, after));
+			} catch (IllegalArgumentException e)
+			{
+				// Neighbours out of order, e.g. after another save of the
+				// list; number every row afresh
+				respaceRows();
+			}
+		}
+	};
+
+	private static boolean inOrder(String before, String after)
+	{
+		return before == null || after == null || before.compareTo(after) < 0;
+	}
+
+	/**
+	 * Give every row an evenly spaced position in its current order. Rows
+	 * whose position changes are saved as moves.
+	 */
+	private void respaceRows()
+	{
+		final String[] keys = PositionKey.spread(toDoData.size());
+		for (int i = 0; i < keys.length; i++)
+		{
+			toDoData.get(i).setPosition(keys[i]);
+		}
+	}
+
 	private void removeRow()
 	{
 		if (toDoData.size() > 0)
@@ -236,7 +309,7 @@ public class ListEdit extends ListActivity
 				final ListRow removeRow = toDoData.get(toDoData.size() - 1);
 				if (removeRow.getId() != -1)
 				{
-					mRowRemovalIds.add(removeRow.getId());
+					mRemovedRows.add(removeRow);
 				}
 				toDoData.remove(toDoData.size() - 1);
 				customToDoAdapter.notifyDataSetChanged();
@@ -250,50 +323,168 @@ public class ListEdit extends ListActivity
 											// off the OnFocusChange event in
 											// the ListAdapter
 		final String title = titleView.getText().toString();
-		if (mListId == null)
+		final Long listId = mListId;
+		final long createDate = mCreateDate;
+
+		// Keys grow as rows are dropped into the same gap; once one is too
+		// long the save rewrites them all, on the writer thread
+		for (int i = 0; i < toDoData.size(); i++)
+		{
+			if (PositionKey.isTooLong(toDoData.get(i).getPosition()))
+			{
+				respaceRows();
+				break;
+			}
+		}
+
+		// The writer thread works on copies, the rows stay editable meanwhile.
+		// Rows unchanged since they were last saved are left out.
+		final ArrayList<ListRow> changedRows = new ArrayList<ListRow>();
+		final ArrayList<ListRow> changedCopies = new ArrayList<ListRow>();
+		final ArrayList<Integer> changedEdits = new ArrayList<Integer>();
+		final ArrayList<ListRow> inserted = new ArrayList<ListRow>();
+		final ArrayList<ListRow> updated = new ArrayList<ListRow>();
+		final ArrayList<ListRow> moved = new ArrayList<ListRow>();
+		for (int i = 0; i < toDoData.size(); i++)
+		{
+			final ListRow row = toDoData.get(i);
+			if (row.getId() != -1 && !row.isDirty()) // -1 = ID not set
+			{
+				continue;
+			}
+			final ListRow copy = new ListRow(row.getId(), row.getListId(),
+					row.getRowDescription(), row.getIsChecked(), row
+							.getVersion(), row.getPosition());
+			changedRows.add(row);
+			changedCopies.add(copy);
+			changedEdits.add(row.getEdits());
+			if (row.getId() == -1)
+			{
+				inserted.add(copy);
+			} else if (row.getDirtyFields() == ListRow.DIRTY_POSITION)
+			{
+				moved.add(copy);
+			} else
+			{
+				updated.add(copy);
+			}
+		}
+		final ArrayList<ListRow> removed = new ArrayList<ListRow>(mRemovedRows);
+		final ArrayList<ListRow> stale = new ArrayList<ListRow>();
+
+		final DbWriter.Write<Long> save = new DbWriter.Write<Long>()
 		{
-			final long id = mDbHelper.createList(title, mCreateDate);
-			if (id > 0)
+			@Override
+			public Long run(NotesDbAdapter db)
 			{
+				long id = (listId == null) ? db.createList(title, createDate)
+						: listId;
+				if (id > 0)
+				{
+					stale.addAll(db.saveListRows(id, inserted, updated,
+							moved, removed));
+				}
+				return id;
+			}
+		};
+		final DbWriter.Callback<Long> saved = new DbWriter.Callback<Long>()
+		{
+			public void onComplete(Long id)
+			{
+				if (id == null || id <= 0)
+				{
+					return;
+				}
 				mListId = id;
-				for (int i = 0; i < toDoData.size(); i++)
+				for (int i = 0; i < changedRows.size(); i++)
 				{
-					final ListRow insertRow = toDoData.get(i);
-					final long rowId = mDbHelper.createListRowData(mListId,
-							insertRow.getRowDescription(),
-							insertRow.getIsChecked());
-					insertRow.setId(rowId);
-					toDoData.set(i, insertRow);
+					final ListRow copy = changedCopies.get(i);
+					if (!stale.contains(copy))
+					{
+						final ListRow row = changedRows.get(i);
+						row.setId(copy.getId());
+						row.setVersion(copy.getVersion());
+						row.markClean(changedEdits.get(i));
+					}
+				}
+				mRemovedRows.removeAll(removed);
+				if (!stale.isEmpty())
+				{
+					reloadRows(stale);
 				}
 			}
-		} else
+		};
+		DbWriter.get(this).submit(
+				(listId == null) ? null : DbWriter.key("lists.save",
+						listId), save, saved);
+
+		Toast.makeText(contextView, "List Saved", Toast.LENGTH_SHORT).show();
+
+	}
+
+	/**
+	 * Replace rows that another save changed with what it saved, after a save
+	 * of them was refused as stale. Rows whose removal was refused come back.
+	 */
+	private void reloadRows(List<ListRow> stale)
+	{
+		Toast.makeText(contextView, R.string.list_conflict, Toast.LENGTH_LONG)
+				.show();
+		// Saving from the menu finishes the activity before the save lands
+		if (destroyed)
+		{
+			return;
+		}
+		final HashSet<Long> ids = new HashSet<Long>();
+		for (ListRow row : stale)
+		{
+			ids.add(row.getId());
+		}
+		final Cursor current = mDbHelper.fetchListData(mListId);
+		try
 		{
-			for (int i = 0; i < toDoData.size(); i++)
+			for (boolean more = current.getCount() > 0; more; more = current
+					.moveToNext())
 			{
-				final ListRow insertRow = toDoData.get(i);
-				if (insertRow.getId() == -1) // -1 = ID not set
+				final long id = current.getLong(current.getColumnIndex("_id"));
+				if (!ids.remove(id))
 				{
-					final long rowId = mDbHelper.createListRowData(mListId,
-							insertRow.getRowDescription(),
-							insertRow.getIsChecked());
-					insertRow.setId(rowId);
-					toDoData.set(i, insertRow);
+					continue;
+				}
+				final ListRow fresh = new ListRow(id, mListId, current
+						.getString(current.getColumnIndex("item_data")),
+						current.getInt(current.getColumnIndex("checked")),
+						current.getLong(current
+								.getColumnIndex(NotesDbAdapter.KEY_VERSION)),
+						current.getString(current
+								.getColumnIndex(NotesDbAdapter.KEY_POSITION)));
+				int position = 0;
+				while (position < toDoData.size()
+						&& toDoData.get(position).getId() != id)
+				{
+					position++;
+				}
+				if (position < toDoData.size())
+				{
+					toDoData.set(position, fresh);
 				} else
 				{
-					mDbHelper.updateListData(insertRow.getId(),
-							insertRow.getRowDescription(),
-							insertRow.getIsChecked());
+					toDoData.add(fresh);
 				}
 			}
-			// Row removal database clean up clean up
-			for (int i = 0; i < mRowRemovalIds.size(); i++)
+		} finally
+		{
+			current.close();
+		}
+		// Rows still in the set were deleted by the other save
+		for (int i = toDoData.size() - 1; i >= 0; i--)
+		{
+			if (ids.contains(toDoData.get(i).getId()))
 			{
-				mDbHelper.deleteListRow(mRowRemovalIds.get(i));
+				toDoData.remove(i);
 			}
 		}
-
-		Toast.makeText(contextView, "List Saved", Toast.LENGTH_SHORT).show();
-
+		customToDoAdapter.notifyDataSetChanged();
 	}
 
 	private void populateList(Bundle savedInstanceState)
@@ -307,27 +498,8 @@ public class ListEdit extends ListActivity
 				listTitle = lists.getString(lists
 						.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE));
 				titleView.setText(listTitle);
-				final Cursor listDataRaw = mDbHelper.fetchListData(mListId);
-
-				if (listDataRaw.getCount() > 0)
-				{
-					do
-					{
-						final ListRow row = new ListRow(
-								listDataRaw.getLong(listDataRaw
-										.getColumnIndex("_id")),
-								listDataRaw.getLong(listDataRaw
-										.getColumnIndex("list_id")),
-								listDataRaw.getString(listDataRaw
-										.getColumnIndex("item_data")),
-								listDataRaw.getInt(listDataRaw
-										.getColumnIndex("checked")));
-						toDoData.add(row);
-					} while (listDataRaw.moveToNext());
-					customToDoAdapter.notifyDataSetChanged();
-				} else
-				{
-				}
+				toDoData.addAll(mDbHelper.loadListRows(mListId));
+				customToDoAdapter.notifyDataSetChanged();
 			} else
 			{
 				reloadSavedState(savedInstanceState);
@@ -17,22 +17,25 @@
 package notepad.main;
 
 import java.util.Calendar;
-import java.util.Date;
+import java.util.List;
 
 import model.Note;
+import model.NoteChunk;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.DatePickerDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.WindowManager;
+import android.widget.AdapterView;
 import android.widget.DatePicker;
 import android.widget.EditText;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -45,7 +48,7 @@ public class NoteEdit extends Activity
 	private EditText mEditDate;
 	private NotepadEditText mBodyText;
 	private Long mRowId;
-	private String mCreateDate;
+	private long mCreateDate;
 	private NotesDbAdapter mDbHelper;
 	private int mYear;
 	private int mMonth;
@@ -53,8 +56,29 @@ public class NoteEdit extends Activity
 	private Context noteContext;
 	private Note currentNote;
 
+	/**
+	 * The chunks shown in mBodyText when the body is too large to edit in
+	 * one piece, null otherwise
+	 */
+	private List<NoteChunk> mChunks;
+
+	/**
+	 * The title, due date and body as last read or saved, so that saving a
+	 * note that was only looked at writes nothing. The body is null when it
+	 * is unknown or chunked; saveChunks finds unchanged chunks itself.
+	 */
+	private String mSavedTitle;
+	private long mSavedDate;
+	private String mSavedBody;
+
 	private static final int SAVE_ID = Menu.FIRST;
 	private static final int SEND_SMS = Menu.FIRST + 1;
+	private static final int PREV_PART_ID = Menu.FIRST + 2;
+	private static final int NEXT_PART_ID = Menu.FIRST + 3;
+	private static final int HISTORY_ID = Menu.FIRST + 4;
+
+	/** Number of chunks of a large body shown at a time */
+	private static final int WINDOW_CHUNKS = 4;
 
 	static final int DATE_DIALOG_ID = 1;
 	private DatePickerDialog.OnDateSetListener mDateSetListener;
@@ -85,11 +109,13 @@ public class NoteEdit extends Activity
 			Bundle extras = getIntent().getExtras();
 			mRowId = extras != null ? extras.getLong(NotesDbAdapter.KEY_ROWID)
 					: null;
-			Date currentDate = new Date();
-			mCreateDate = currentDate.toString().substring(0, 16);
+			mCreateDate = System.currentTimeMillis();
 		}
 
+		// Notes are due today unless populateFields finds a due date
+		setDueDate(System.currentTimeMillis());
 		populateFields(savedInstanceState);
+		updateDisplay();
 
 		mEditDate.setOnFocusChangeListener(new View.OnFocusChangeListener()
 		{
@@ -103,12 +129,6 @@ public class NoteEdit extends Activity
 			}
 		});
 
-		// get the current date
-		final Calendar c = Calendar.getInstance();
-		mYear = c.get(Calendar.YEAR);
-		mMonth = c.get(Calendar.MONTH);
-		mDay = c.get(Calendar.DAY_OF_MONTH);
-		updateDisplay();
 		mDateSetListener = new DatePickerDialog.OnDateSetListener()
 		{
 
@@ -131,6 +151,21 @@ public class NoteEdit extends Activity
 				android.R.drawable.ic_menu_save);
 		menu.add(0, SEND_SMS, 0, R.string.send_sms).setIcon(
 				android.R.drawable.ic_menu_send);
+		menu.add(0, PREV_PART_ID, 0, R.string.prev_part);
+		menu.add(0, NEXT_PART_ID, 0, R.string.next_part);
+		menu.add(0, HISTORY_ID, 0, R.string.history).setIcon(
+				android.R.drawable.ic_menu_recent_history);
+		return true;
+	}
+
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu)
+	{
+		super.onPrepareOptionsMenu(menu);
+		final boolean windowed = mChunks != null && mBodyText.isEnabled();
+		menu.findItem(PREV_PART_ID).setVisible(windowed);
+		menu.findItem(NEXT_PART_ID).setVisible(windowed);
+		menu.findItem(HISTORY_ID).setVisible(mRowId != null && mChunks == null);
 		return true;
 	}
 
@@ -145,6 +180,15 @@ public class NoteEdit extends Activity
 		case SEND_SMS:
 			sendToSMS();
 			return true;
+		case PREV_PART_ID:
+			moveWindow(false);
+			return true;
+		case NEXT_PART_ID:
+			moveWindow(true);
+			return true;
+		case HISTORY_ID:
+			showHistory();
+			return true;
 		}
 
 		return super.onMenuItemSelected(featureId, item);
@@ -156,19 +200,42 @@ public class NoteEdit extends Activity
 		{
 			if (savedState == null)
 			{
-				Cursor note = mDbHelper.fetchNote(mRowId);
-				startManagingCursor(note);
-				mTitleText.setText(note.getString(note
-						.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE)));
-				mEditDate.setText(note.getString(note
-						.getColumnIndexOrThrow(NotesDbAdapter.KEY_DATE)));
-				mBodyText.setText(note.getString(note
-						.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY)));
+				// Usually served from RowCache when the note was opened
+				// recently
+				final Note note = mDbHelper.loadNote(mRowId);
+				if (note == null)
+				{
+					// Deleted meanwhile; saving creates it again
+					mRowId = null;
+					mCreateDate = System.currentTimeMillis();
+					return;
+				}
+				mTitleText.setText(note.getTitle());
+				setDueDate(note.getDue_date());
+				if (note.getBody() == null)
+				{
+					showWindow(mDbHelper.fetchChunks(mRowId, Long.MIN_VALUE,
+							WINDOW_CHUNKS));
+				} else
+				{
+					mBodyText.setText(note.getBody());
+					// The snapshot, so an unchanged body is the same String
+					mSavedBody = mBodyText.getTextSnapshot();
+				}
+				mSavedTitle = mTitleText.getText().toString();
+				mSavedDate = getDueDate();
 			} else
 			{
 				Note tempNote = savedState.getParcelable("note_data");
 				mTitleText.setText(tempNote.getTitle());
-				mEditDate.setText(tempNote.getDue_date());
+				setDueDate(tempNote.getDue_date());
+				if (savedState.containsKey("window_start"))
+				{
+					// The saved text is the edited window; reload the chunks
+					// it came from so saving can tell what changed
+					mChunks = mDbHelper.fetchChunks(mRowId, savedState
+							.getLong("window_start") - 1, WINDOW_CHUNKS);
+				}
 				mBodyText.setText(tempNote.getBody());
 			}
 		}
@@ -178,10 +245,21 @@ public class NoteEdit extends Activity
 	protected void onSaveInstanceState(Bundle outState)
 	{
 		super.onSaveInstanceState(outState);
-		currentNote = new Note(mTitleText.getText().toString(), mEditDate
-				.getText().toString(), mBodyText.getText().toString());
+		currentNote = new Note(mTitleText.getText().toString(), getDueDate(),
+				mBodyText.getTextSnapshot());
 		outState.putParcelable("note_data", currentNote);
 		outState.putSerializable(NotesDbAdapter.KEY_ROWID, mRowId);
+		if (mChunks != null && !mChunks.isEmpty())
+		{
+			outState.putLong("window_start", mChunks.get(0).getSeq());
+		}
+	}
+
+	@Override
+	protected void onDestroy()
+	{
+		super.onDestroy();
+		mDbHelper.close();
 	}
 
 	@Override
@@ -208,28 +286,211 @@ public class NoteEdit extends Activity
 	{
 		Intent sendIntent = new Intent(Intent.ACTION_VIEW);
 		sendIntent.putExtra("sms_body", mTitleText.getText().toString() + "\n"
-				+ mBodyText.getText().toString());
+				+ mBodyText.getTextSnapshot());
 		sendIntent.setType("vnd.android-dir/mms-sms");
 		startActivity(sendIntent);
 	}
 
 	private void saveState()
 	{
-		String title = mTitleText.getText().toString();
-		String body = mBodyText.getText().toString();
-		String date = mEditDate.getText().toString();
+		final String title = mTitleText.getText().toString();
+		// Copied only if edited since the last save, and then compared with
+		// mSavedBody by identity
+		final String body = mBodyText.getTextSnapshot();
+		final long date = getDueDate();
+		final DbWriter writer = DbWriter.get(this);
 
 		if (mRowId == null)
 		{
-			long id = mDbHelper.createNote(title, date, body, mCreateDate);
-			if (id > 0)
+			final long createDate = mCreateDate;
+			writer.submit(null, new DbWriter.Write<Long>()
+			{
+				@Override
+				public Long run(NotesDbAdapter db)
+				{
+					return db.createNote(title, date, body, createDate);
+				}
+			}, new DbWriter.Callback<Long>()
 			{
-				mRowId = id;
+				public void onComplete(Long id)
+				{
+					if (id != null && id > 0)
+					{
+						mRowId = id;
+					}
+				}
+			});
+		} else if (mChunks != null)
+		{
+			final long rowId = mRowId;
+			final List<NoteChunk> window = mChunks;
+			final boolean headerChanged = !headerSaved(title, date);
+			writer.submit(DbWriter.key("notes.chunks", rowId),
+					new DbWriter.Write<List<NoteChunk>>()
+					{
+						@Override
+						public List<NoteChunk> run(NotesDbAdapter db)
+						{
+							if (headerChanged)
+							{
+								db.updateNoteHeader(rowId, title, date);
+							}
+							return db.saveChunks(rowId, window, body);
+						}
+					}, null);
+		} else if (!headerSaved(title, date) || !body.equals(mSavedBody))
+		{
+			final long rowId = mRowId;
+			writer.submit(DbWriter.key("notes.body", rowId),
+					new DbWriter.Write<Boolean>()
+					{
+						@Override
+						public Boolean run(NotesDbAdapter db)
+						{
+							return db.updateNote(rowId, title, date, body);
+						}
+					}, null);
+			mSavedBody = body;
+		}
+		mSavedTitle = title;
+		mSavedDate = date;
+	}
+
+	private boolean headerSaved(String title, long date)
+	{
+		return title.equals(mSavedTitle) && date == mSavedDate;
+	}
+
+	/**
+	 * List the saved revisions of the note, newest first. Picking one puts
+	 * its title and body in the editor, to be kept by saving.
+	 */
+	private void showHistory()
+	{
+		final ListView revisions = new ListView(this);
+		final RevisionListAdapter adapter = new RevisionListAdapter(this,
+				mDbHelper, mRowId);
+		revisions.setAdapter(adapter);
+		revisions.setOnScrollListener(adapter);
+		if (adapter.isEmpty())
+		{
+			Toast.makeText(this, R.string.no_history, Toast.LENGTH_SHORT)
+					.show();
+			return;
+		}
+		final AlertDialog dialog = new AlertDialog.Builder(this)
+				.setTitle(R.string.history).setView(revisions)
+				.setNegativeButton(android.R.string.cancel, null).create();
+		revisions.setOnItemClickListener(new AdapterView.OnItemClickListener()
+		{
+			public void onItemClick(AdapterView<?> parent, View view,
+					int position, long id)
+			{
+				final String body = mDbHelper.fetchRevisionBody(id);
+				if (body != null)
+				{
+					mTitleText.setText((String) adapter.getItem(position));
+					mBodyText.setText(body);
+				}
+				dialog.dismiss();
 			}
-		} else
+		});
+		dialog.show();
+	}
+
+	/**
+	 * Show a run of chunks of a large body for editing
+	 */
+	private void showWindow(List<NoteChunk> chunks)
+	{
+		mChunks = chunks;
+		final StringBuilder text = new StringBuilder(WINDOW_CHUNKS
+				* NotesDbAdapter.CHUNK_SIZE);
+		for (NoteChunk chunk : chunks)
 		{
-			mDbHelper.updateNote(mRowId, title, date, body);
+			text.append(chunk.getText());
 		}
+		mBodyText.setText(text);
+	}
+
+	/**
+	 * Save the chunks being edited and show the ones before or after them.
+	 * Both happen on the writer thread, so the next chunks are read after the
+	 * save has split or merged the current ones. The body cannot be edited
+	 * until they arrive.
+	 */
+	private void moveWindow(final boolean forward)
+	{
+		final long rowId = mRowId;
+		final List<NoteChunk> window = mChunks;
+		final String body = mBodyText.getTextSnapshot();
+		mBodyText.setEnabled(false);
+		DbWriter.get(this).submit(null,
+				new DbWriter.Write<List<NoteChunk>>()
+				{
+					@Override
+					public List<NoteChunk> run(NotesDbAdapter db)
+					{
+						final List<NoteChunk> saved = db.saveChunks(rowId,
+								window, body);
+						List<NoteChunk> next;
+						if (saved.isEmpty())
+						{
+							next = db.fetchChunks(rowId, Long.MIN_VALUE,
+									WINDOW_CHUNKS);
+						} else if (forward)
+						{
+							next = db.fetchChunks(rowId, saved.get(
+									saved.size() - 1).getSeq(), WINDOW_CHUNKS);
+						} else
+						{
+							next = db.fetchChunksBefore(rowId, saved.get(0)
+									.getSeq(), WINDOW_CHUNKS);
+						}
+						return next.isEmpty() ? saved : next;
+					}
+				}, new DbWriter.Callback<List<NoteChunk>>()
+				{
+					public void onComplete(List<NoteChunk> chunks)
+					{
+						// A failed save leaves the window where it was
+						if (chunks != null)
+						{
+							showWindow(chunks);
+						}
+						mBodyText.setEnabled(true);
+					}
+				});
+	}
+
+	/**
+	 * @param dueDate
+	 *            due date to show, in milliseconds since the epoch. 0 marks a
+	 *            date that could not be read and leaves the current one.
+	 */
+	private void setDueDate(long dueDate)
+	{
+		if (dueDate == 0)
+		{
+			return;
+		}
+		final Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(dueDate);
+		mYear = c.get(Calendar.YEAR);
+		mMonth = c.get(Calendar.MONTH);
+		mDay = c.get(Calendar.DAY_OF_MONTH);
+	}
+
+	/**
+	 * @return the due date picked, as midnight local time in milliseconds
+	 *         since the epoch
+	 */
+	private long getDueDate()
+	{
+		final Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(mYear, mMonth, mDay);
+		return c.getTimeInMillis();
 	}
 
 	private void updateDisplay()
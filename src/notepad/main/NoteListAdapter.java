@@ -0,0 +1,302 @@
+/*
+ * NoteListAdapter.java
+ * 
+ * Adapter for the notes tab. Only the id, title, snippet and creation date of
+ * each note are read, one page at a time as the list is scrolled, with each
+ * page starting after the sort key and id of the last note already loaded.
+ * The first screen costs the same however many notes there are, and note
+ * bodies never enter a cursor window.
+ *
+ * Pages are read by a background task and swapped in on the main thread. A
+ * reload keeps showing the old rows until the new ones arrive and abandons
+ * any page still being read for the old ones.
+ */
+
+package notepad.main;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.Checkable;
+import android.widget.ListView;
+import android.widget.TextView;
+
+public class NoteListAdapter extends BaseAdapter implements
+		AbsListView.OnScrollListener
+{
+	private static final int PAGE_SIZE = 50;
+
+	private final Context context;
+	private final LayoutInflater inflater;
+	private ArrayList<Long> ids = new ArrayList<Long>();
+	private ArrayList<String> titles = new ArrayList<String>();
+	private ArrayList<String> snippets = new ArrayList<String>();
+	private ArrayList<Long> createDates = new ArrayList<Long>();
+	private int sortOrder = NotesDbAdapter.SORT_BY_CREATED;
+	private long lastKey;
+	private boolean exhausted;
+	/** The page being read, or null */
+	private PageTask pageTask;
+	private Runnable onPageLoaded;
+
+	public NoteListAdapter(Context context)
+	{
+		this.context = context;
+		inflater = (LayoutInflater) context
+				.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+	}
+
+	/**
+	 * @param sortOrder
+	 *            {@link NotesDbAdapter#SORT_BY_CREATED} or
+	 *            {@link NotesDbAdapter#SORT_BY_DUE}
+	 */
+	public void setSortOrder(int sortOrder)
+	{
+		this.sortOrder = sortOrder;
+		load(true, PAGE_SIZE);
+	}
+
+	/**
+	 * Read the loaded notes again. As many are read as are loaded now, so the
+	 * list stays where it was scrolled to.
+	 */
+	public void reload()
+	{
+		load(true, Math.max(PAGE_SIZE, ids.size()));
+	}
+
+	/**
+	 * @param onPageLoaded
+	 *            run on the main thread each time a page has been swapped in
+	 */
+	public void setOnPageLoaded(Runnable onPageLoaded)
+	{
+		this.onPageLoaded = onPageLoaded;
+	}
+
+	/**
+	 * Abandon the page being read, for when the list goes away
+	 */
+	public void cancel()
+	{
+		if (pageTask != null)
+		{
+			pageTask.cancel(false);
+			pageTask = null;
+		}
+	}
+
+	/**
+	 * @param replace
+	 *            true to replace the loaded notes, false to add the next page
+	 *            to them
+	 */
+	private void load(boolean replace, int limit)
+	{
+		if (pageTask != null)
+		{
+			if (!replace)
+			{
+				// The next page is already on its way
+				return;
+			}
+			pageTask.cancel(false);
+		}
+		pageTask = (replace || ids.isEmpty()) ? new PageTask(true, sortOrder,
+				Long.MIN_VALUE, Long.MIN_VALUE, limit) : new PageTask(false,
+				sortOrder, lastKey, ids.get(ids.size() - 1), limit);
+		pageTask.execute();
+	}
+
+	/**
+	 * Rows of one page, read off the main thread
+	 */
+	private static class Page
+	{
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		final ArrayList<String> titles = new ArrayList<String>();
+		final ArrayList<String> snippets = new ArrayList<String>();
+		final ArrayList<Long> createDates = new ArrayList<Long>();
+		long lastKey;
+	}
+
+	private class PageTask extends AsyncTask<Void, Void, Page>
+	{
+		private final boolean replace;
+		private final int order;
+		private final long afterKey;
+		private final long afterId;
+		private final int limit;
+
+		PageTask(boolean replace, int order, long afterKey, long afterId,
+				int limit)
+		{
+			this.replace = replace;
+			this.order = order;
+			this.afterKey = afterKey;
+			this.afterId = afterId;
+			this.limit = limit;
+		}
+
+		@Override
+		protected Page doInBackground(Void... params)
+		{
+			// Holds its own reference so the connection outlives the activity
+			// until the page is read
+			final NotesDbAdapter dbHelper = new NotesDbAdapter(context).open();
+			try
+			{
+				final Cursor page = dbHelper.fetchNoteTitles(order, afterKey,
+						afterId, limit);
+				try
+				{
+					final int idColumn = page
+							.getColumnIndexOrThrow(NotesDbAdapter.KEY_ROWID);
+					final int titleColumn = page
+							.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE);
+					final int snippetColumn = page
+							.getColumnIndexOrThrow(NotesDbAdapter.KEY_SNIPPET);
+					final int createDateColumn = page
+							.getColumnIndexOrThrow(NotesDbAdapter.KEY_CREATE_DATE);
+					final int keyColumn = page
+							.getColumnIndexOrThrow(NotesDbAdapter.KEY_SORT);
+					final Page rows = new Page();
+					while (!isCancelled() && page.moveToNext())
+					{
+						rows.ids.add(page.getLong(idColumn));
+						rows.titles.add(page.getString(titleColumn));
+						rows.snippets.add(page.getString(snippetColumn));
+						rows.createDates.add(page.getLong(createDateColumn));
+						rows.lastKey = page.getLong(keyColumn);
+					}
+					return rows;
+				} finally
+				{
+					page.close();
+				}
+			} finally
+			{
+				dbHelper.close();
+			}
+		}
+
+		@Override
+		protected void onPostExecute(Page rows)
+		{
+			if (pageTask != this)
+			{
+				return;
+			}
+			pageTask = null;
+			if (replace)
+			{
+				ids = rows.ids;
+				titles = rows.titles;
+				snippets = rows.snippets;
+				createDates = rows.createDates;
+			} else
+			{
+				ids.addAll(rows.ids);
+				titles.addAll(rows.titles);
+				snippets.addAll(rows.snippets);
+				createDates.addAll(rows.createDates);
+			}
+			if (!rows.ids.isEmpty())
+			{
+				lastKey = rows.lastKey;
+			}
+			exhausted = rows.ids.size() < limit;
+			notifyDataSetChanged();
+			if (onPageLoaded != null)
+			{
+				onPageLoaded.run();
+			}
+		}
+	}
+
+	public void onScroll(AbsListView view, int firstVisibleItem,
+			int visibleItemCount, int totalItemCount)
+	{
+		// Fetch the next page while half a page is still left to scroll
+		if (!exhausted
+				&& firstVisibleItem + visibleItemCount >= totalItemCount
+						- PAGE_SIZE / 2)
+		{
+			load(false, PAGE_SIZE);
+		}
+	}
+
+	public void onScrollStateChanged(AbsListView view, int scrollState)
+	{
+	}
+
+	public View getView(int position, View convertView, ViewGroup parent)
+	{
+		View v = convertView;
+		if (v == null)
+		{
+			v = inflater.inflate(R.layout.notes_row, parent, false);
+			v.setTag(new RowViewHolder(v));
+		}
+		final RowViewHolder holder = (RowViewHolder) v.getTag();
+		holder.title.setText(titles.get(position));
+		final String snippet = snippets.get(position);
+		holder.snippet.setText(snippet);
+		holder.snippet.setVisibility(snippet.length() == 0 ? View.GONE
+				: View.VISIBLE);
+		// Rows are recycled, so the choice mode's check has to be reapplied
+		((Checkable) v).setChecked(((ListView) parent)
+				.isItemChecked(position));
+		return v;
+	}
+
+	private static class RowViewHolder
+	{
+		final TextView title;
+		final TextView snippet;
+
+		RowViewHolder(View row)
+		{
+			title = (TextView) row.findViewById(R.id.text1);
+			snippet = (TextView) row.findViewById(R.id.note_snippet);
+		}
+	}
+
+	public int getCount()
+	{
+		return ids.size();
+	}
+
+	public Object getItem(int position)
+	{
+		return titles.get(position);
+	}
+
+	public long getItemId(int position)
+	{
+		return ids.get(position);
+	}
+
+	/**
+	 * @return the creation time of the note at a position, in milliseconds
+	 *         since the epoch
+	 */
+	public long getCreateDate(int position)
+	{
+		return createDates.get(position);
+	}
+
+	@Override
+	public boolean hasStableIds()
+	{
+		return true;
+	}
+}
@@ -1,13 +1,29 @@
 package notepad.main;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 import android.app.AlertDialog;
 import android.app.TabActivity;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.util.SparseBooleanArray;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Gravity;
@@ -15,13 +31,17 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
+import android.widget.Checkable;
 import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 import android.widget.TabHost;
 import android.widget.TextView;
+import android.widget.Toast;
 
 public class Notepadv3 extends TabActivity
 {
@@ -35,27 +55,108 @@ public class Notepadv3 extends TabActivity
 	private static final int DELETE_ID = 6;
 	private static final int INSERT_LIST_ID = 7;
 	private static final int EDIT_TITLE_ID = 8;
+	private static final int SORT_DUE_ID = 9;
+	private static final int SORT_CREATED_ID = 10;
+	private static final int EXPORT_ID = 11;
+	private static final int IMPORT_ID = 12;
+	private static final int SELECT_ID = 13;
+	private static final int DELETE_SELECTED_ID = 14;
+	private static final int EXPORT_SELECTED_ID = 15;
+	private static final int SHARE_SELECTED_ID = 16;
+	private static final int DONE_ID = 17;
+	private static final int TRASH_ID = 18;
+	/** Menu group shown only while selecting */
+	private static final int SELECTION_GROUP = 1;
+	private static final String ARCHIVE_NAME = "notepad.hbn";
+	private static final String SELECTION_ARCHIVE_NAME = "notepad-selection.hbn";
+	/** Characters of text shared at most */
+	private static final int SHARE_LIMIT = 100000;
 	private static final String DEFAULT_TITLE = "Untitled";
+	private static final int SEARCH_LIMIT = 50;
+	/** Milliseconds after the first frame that expired trash is purged */
+	private static final long PURGE_DELAY = 5000;
 
-	private NotesDbAdapter mDbHelper;
+	/**
+	 * Opened on its own thread while the layout is inflated; see
+	 * {@link #db()}
+	 */
+	private FutureTask<NotesDbAdapter> mDbHelper;
 	private ListView notesView;
 	private ListView listsView;
 	private Context homeContext;
 
 	private SimpleCursorAdapter lists;
-	private SimpleCursorAdapter notes;
+	private NoteListAdapter notes;
 	private Resources res;
 
+	private EditText searchText;
+	private ListView searchView;
+	private SimpleCursorAdapter searchResults;
+	private SearchTask searchTask;
+	private ListsTask listsTask;
+	private boolean destroyed;
+
+	/**
+	 * The tab whose rows are being picked for a bulk action, or null. Taps
+	 * check rows instead of opening them until the selection ends.
+	 */
+	private ListView selectingView;
+
+	/**
+	 * Each tab is reloaded only once its URI in NotesUris reports a change, and
+	 * only while the activity is in front; changes made meanwhile are picked
+	 * up together when it returns.
+	 */
+	private final Handler handler = new Handler();
+	private boolean resumed;
+	private boolean notesStale;
+	private boolean listsStale;
+	private boolean refreshPosted;
+
+	private final ContentObserver notesObserver = new ContentObserver(handler)
+	{
+		@Override
+		public void onChange(boolean selfChange)
+		{
+			notesStale = true;
+			scheduleRefresh();
+		}
+	};
+
+	private final ContentObserver listsObserver = new ContentObserver(handler)
+	{
+		@Override
+		public void onChange(boolean selfChange)
+		{
+			listsStale = true;
+			scheduleRefresh();
+		}
+	};
+
 	/** Called when the activity is first created. */
 	@Override
 	public void onCreate(Bundle savedInstanceState)
 	{
 		super.onCreate(savedInstanceState);
+		StartupTrace.mark(StartupTrace.ACTIVITY_CREATE);
 		res = getResources();
 
+		// Opening may upgrade the schema, which need not hold up inflation;
+		// the notes page read below waits for it on its own thread
+		final NotesDbAdapter dbHelper = new NotesDbAdapter(this);
+		mDbHelper = new FutureTask<NotesDbAdapter>(
+				new Callable<NotesDbAdapter>()
+				{
+					public NotesDbAdapter call()
+					{
+						dbHelper.open();
+						StartupTrace.mark(StartupTrace.DB_READY);
+						return dbHelper;
+					}
+				});
+		new Thread(mDbHelper, "DbOpen").start();
+
 		setContentView(R.layout.notes_list);
-		mDbHelper = new NotesDbAdapter(this);
-		mDbHelper.open();
 
 		homeContext = this;
 
@@ -75,6 +176,17 @@ public class Notepadv3 extends TabActivity
 		getTabHost().addTab(spec);
 
 		getTabHost().setCurrentTab(0);
+		getTabHost().setOnTabChangedListener(new TabHost.OnTabChangeListener()
+		{
+			public void onTabChanged(String tabId)
+			{
+				endSelection();
+				if (getTabHost().getCurrentTab() == 1)
+				{
+					fillLists();
+				}
+			}
+		});
 		
 		//0 = Notes, 1 = Lists
 		
@@ -115,47 +227,376 @@ public class Notepadv3 extends TabActivity
 
 		notesView.setOnItemClickListener(onNoteClick);
 		listsView.setOnItemClickListener(onListClick);
-		fillData();
+		fillNotes();
+		getContentResolver().registerContentObserver(NotesUris.NOTES_URI,
+				true, notesObserver);
+		getContentResolver().registerContentObserver(NotesUris.LISTS_URI,
+				true, listsObserver);
 		registerForContextMenu(notesView);
 		registerForContextMenu(listsView);
+
+		// Search results replace the tabs while there is a query
+		searchText = (EditText) findViewById(R.id.search);
+		searchView = (ListView) findViewById(R.id.search_results);
+		searchResults = new SimpleCursorAdapter(this, R.layout.search_row,
+				null, new String[] { NotesDbAdapter.KEY_TITLE,
+						SearchIndex.KEY_SNIPPET }, new int[] {
+						R.id.search_title, R.id.search_snippet });
+		searchResults.setViewBinder(highlightSnippet);
+		searchView.setAdapter(searchResults);
+		searchView.setOnItemClickListener(onSearchResultClick);
+		searchText.addTextChangedListener(onSearchTextChanged);
 	}
 
-	private void fillData()
+	@Override
+	protected void onResume()
 	{
-		// Get all of the rows from the database and create the item list
-		Cursor notesCursor = mDbHelper.fetchAllNotes();
-		startManagingCursor(notesCursor);
+		super.onResume();
+		resumed = true;
+		if (notesStale || listsStale)
+		{
+			scheduleRefresh();
+		}
+	}
 
-		Cursor listsCursor = mDbHelper.fetchAllLists();
-		startManagingCursor(listsCursor);
+	@Override
+	protected void onPause()
+	{
+		super.onPause();
+		resumed = false;
+	}
 
-		// Create an array to specify the fields we want to display in the list
-		// (only TITLE)
-		String[] from = new String[] { NotesDbAdapter.KEY_TITLE };
-		String[] listFrom = new String[] { NotesDbAdapter.KEY_TITLE };
+	@Override
+	protected void onDestroy()
+	{
+		super.onDestroy();
+		destroyed = true;
+		getContentResolver().unregisterContentObserver(notesObserver);
+		getContentResolver().unregisterContentObserver(listsObserver);
+		handler.removeCallbacks(refreshStale);
+		handler.removeCallbacks(purgeExpired);
+		notes.cancel();
+		if (listsTask != null)
+		{
+			listsTask.cancel(false);
+			listsTask = null;
+		}
+		if (lists != null)
+		{
+			lists.changeCursor(null);
+		}
+		if (searchTask != null)
+		{
+			searchTask.cancel(false);
+			searchTask = null;
+		}
+		searchResults.changeCursor(null);
+		db().close();
+	}
 
-		// and an array of the fields we want to bind those fields to (in this
-		// case just text1)
-		int[] to = new int[] { R.id.text1 };
-		int[] listTo = new int[] { R.id.list_title };
+	/**
+	 * @return the activity's database adapter, waiting for it to be opened
+	 */
+	private NotesDbAdapter db()
+	{
+		try
+		{
+			return mDbHelper.get();
+		} catch (ExecutionException e)
+		{
+			throw new RuntimeException("Database could not be opened", e
+					.getCause());
+		} catch (InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
 
-		// Now create a simple cursor adapter and set it to display
-		notes = new SimpleCursorAdapter(this, R.layout.notes_row, notesCursor,
-				from, to);
+	private void fillNotes()
+	{
+		// Notes are paged in by title as the list scrolls
+		notes = new NoteListAdapter(this);
+		notes.setOnPageLoaded(firstPageShown);
 		notesView.setAdapter(notes);
+		notesView.setOnScrollListener(notes);
+		notes.reload();
+	}
 
-		lists = new SimpleCursorAdapter(this, R.layout.list_display,
-				listsCursor, listFrom, listTo);
+	/**
+	 * Set up the lists tab the first time it is shown; until then nothing
+	 * about lists is read.
+	 */
+	private void fillLists()
+	{
+		if (lists != null)
+		{
+			return;
+		}
+
+		// Create an array to specify the fields we want to display in the list
+		// (the title and the checked count)
+		String[] listFrom = new String[] { NotesDbAdapter.KEY_TITLE,
+				NotesDbAdapter.KEY_CHECKED_COUNT };
+
+		// and an array of the fields we want to bind those fields to
+		int[] listTo = new int[] { R.id.list_title, R.id.list_progress };
+
+		// Now create a simple cursor adapter and set it to display
+		// The cursor is read in the background and swapped in when ready, and
+		// again whenever lists change
+		lists = new SimpleCursorAdapter(this, R.layout.list_display, null,
+				listFrom, listTo)
+		{
+			@Override
+			public View getView(int position, View convertView,
+					ViewGroup parent)
+			{
+				final View v = super.getView(position, convertView, parent);
+				((Checkable) v).setChecked(listsView.isItemChecked(position));
+				return v;
+			}
+		};
+		lists.setViewBinder(listProgress);
 		listsView.setAdapter(lists);
+		loadLists();
+	}
+
+	/**
+	 * Read the lists in the background, abandoning any read still running
+	 */
+	private void loadLists()
+	{
+		if (listsTask != null)
+		{
+			listsTask.cancel(false);
+		}
+		listsTask = new ListsTask();
+		listsTask.execute();
 	}
 
+	/**
+	 * A task that reads a cursor in the background. One cancelled after its
+	 * cursor is read gets onCancelled() instead of onPostExecute, and before
+	 * API 11 its result is dropped, so the cursor is kept here as well and
+	 * closed by whichever of the two runs.
+	 */
+	private abstract static class CursorTask<Params> extends
+			AsyncTask<Params, Void, Cursor>
+	{
+		private Cursor mResult;
+
+		/**
+		 * Keep the cursor read, or close it if the task is already cancelled
+		 * 
+		 * @return the cursor, or null if it was closed
+		 */
+		protected final synchronized Cursor keep(Cursor cursor)
+		{
+			if (isCancelled())
+			{
+				cursor.close();
+				return null;
+			}
+			mResult = cursor;
+			return cursor;
+		}
+
+		/**
+		 * @return the cursor kept, which is now the caller's to close, or
+		 *         null if there is none
+		 */
+		protected final synchronized Cursor take()
+		{
+			final Cursor result = mResult;
+			mResult = null;
+			return result;
+		}
+
+		@Override
+		protected void onCancelled()
+		{
+			final Cursor result = take();
+			if (result != null)
+			{
+				result.close();
+			}
+		}
+	}
+
+	private class ListsTask extends CursorTask<Void>
+	{
+		@Override
+		protected Cursor doInBackground(Void... params)
+		{
+			final NotesDbAdapter dbHelper = new NotesDbAdapter(homeContext)
+					.open();
+			try
+			{
+				final Cursor result = dbHelper.fetchAllLists();
+				// Runs the query and fills the window off the UI thread
+				result.getCount();
+				return keep(result);
+			} finally
+			{
+				dbHelper.close();
+			}
+		}
+
+		@Override
+		protected void onPostExecute(Cursor result)
+		{
+			// From here the cursor is this method's to close
+			take();
+			if (listsTask != this || destroyed)
+			{
+				if (result != null)
+				{
+					result.close();
+				}
+				return;
+			}
+			listsTask = null;
+			// Closes the old cursor; the adapter and scroll position stay
+			lists.changeCursor(result);
+		}
+	}
+
+	/**
+	 * Marks the first page of notes and the first frame that shows it in the
+	 * start-up trace, then leaves the purge of expired trash for a while
+	 * later, so its writes stay clear of the start and of the first scrolls
+	 */
+	private final Runnable firstPageShown = new Runnable()
+	{
+		public void run()
+		{
+			notes.setOnPageLoaded(null);
+			StartupTrace.mark(StartupTrace.FIRST_CURSOR);
+			notesView.getViewTreeObserver().addOnPreDrawListener(
+					new ViewTreeObserver.OnPreDrawListener()
+					{
+						public boolean onPreDraw()
+						{
+							notesView.getViewTreeObserver()
+									.removeOnPreDrawListener(this);
+							StartupTrace.mark(StartupTrace.FIRST_FRAME);
+							handler.postDelayed(purgeExpired, PURGE_DELAY);
+							return true;
+						}
+					});
+		}
+	};
+
+	private final Runnable purgeExpired = new Runnable()
+	{
+		public void run()
+		{
+			Trash.purgeExpired(homeContext);
+		}
+	};
+
+	/**
+	 * Shows how many of a list's items are checked, from the counts the
+	 * lists row carries
+	 */
+	private final SimpleCursorAdapter.ViewBinder listProgress = new SimpleCursorAdapter.ViewBinder()
+	{
+		public boolean setViewValue(View view, Cursor cursor, int columnIndex)
+		{
+			if (view.getId() != R.id.list_progress)
+			{
+				return false;
+			}
+			final int items = cursor.getInt(cursor
+					.getColumnIndexOrThrow(NotesDbAdapter.KEY_ITEM_COUNT));
+			((TextView) view).setText((items == 0) ? "" : res.getString(
+					R.string.list_progress, cursor.getInt(columnIndex), items));
+			return true;
+		}
+	};
+
+	private void scheduleRefresh()
+	{
+		if (resumed && !refreshPosted)
+		{
+			refreshPosted = true;
+			handler.post(refreshStale);
+		}
+	}
+
+	/**
+	 * Reload whichever tabs have changed since they were last shown. A burst
+	 * of notifications is handled in one pass.
+	 */
+	private final Runnable refreshStale = new Runnable()
+	{
+		public void run()
+		{
+			refreshPosted = false;
+			if (!resumed || destroyed || !(notesStale || listsStale))
+			{
+				return;
+			}
+			// Reloaded rows may have moved, so a selection starts over
+			if (notesStale)
+			{
+				notesStale = false;
+				if (selectingView == notesView)
+				{
+					notesView.clearChoices();
+				}
+				notes.reload();
+			}
+			// A tab not shown yet reads fresh rows once it is
+			if (listsStale)
+			{
+				listsStale = false;
+				if (selectingView == listsView)
+				{
+					listsView.clearChoices();
+				}
+				if (lists != null)
+				{
+					loadLists();
+				}
+			}
+			if (selectingView != null)
+			{
+				showSelectionCount();
+			}
+			if (searchView.getVisibility() == View.VISIBLE)
+			{
+				search(searchText.getText().toString());
+			}
+		}
+	};
+
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu)
 	{
 		super.onCreateOptionsMenu(menu);
 		menu.add(0, INSERT_NOTE_ID, 0, R.string.menu_insert).setIcon(android.R.drawable.ic_menu_add);
 		menu.add(0, INSERT_LIST_ID, 0, R.string.list_insert).setIcon(android.R.drawable.ic_menu_add);
+		menu.add(0, SORT_DUE_ID, 0, R.string.sort_due).setIcon(android.R.drawable.ic_menu_sort_by_size);
+		menu.add(0, SORT_CREATED_ID, 0, R.string.sort_created).setIcon(android.R.drawable.ic_menu_recent_history);
+		menu.add(0, EXPORT_ID, 0, R.string.export).setIcon(android.R.drawable.ic_menu_save);
+		menu.add(0, IMPORT_ID, 0, R.string.import_archive).setIcon(android.R.drawable.ic_menu_upload);
+		menu.add(0, SELECT_ID, 0, R.string.select).setIcon(android.R.drawable.ic_menu_more);
+		menu.add(0, TRASH_ID, 0, R.string.trash).setIcon(android.R.drawable.ic_menu_delete);
 		menu.add(0, ABOUT_ID, 0, R.string.about).setIcon(android.R.drawable.ic_menu_info_details);
+		menu.add(SELECTION_GROUP, DELETE_SELECTED_ID, 0, R.string.delete_selected).setIcon(android.R.drawable.ic_menu_delete);
+		menu.add(SELECTION_GROUP, EXPORT_SELECTED_ID, 0, R.string.export_selected).setIcon(android.R.drawable.ic_menu_save);
+		menu.add(SELECTION_GROUP, SHARE_SELECTED_ID, 0, R.string.share_selected).setIcon(android.R.drawable.ic_menu_share);
+		menu.add(SELECTION_GROUP, DONE_ID, 0, R.string.done).setIcon(android.R.drawable.ic_menu_close_clear_cancel);
+		return true;
+	}
+
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu)
+	{
+		super.onPrepareOptionsMenu(menu);
+		menu.setGroupVisible(0, selectingView == null);
+		menu.setGroupVisible(SELECTION_GROUP, selectingView != null);
 		return true;
 	}
 
@@ -170,13 +611,303 @@ public class Notepadv3 extends TabActivity
 		case INSERT_LIST_ID:
 			createList();
 			return true;
+		case SORT_DUE_ID:
+			sortNotes(NotesDbAdapter.SORT_BY_DUE);
+			return true;
+		case SORT_CREATED_ID:
+			sortNotes(NotesDbAdapter.SORT_BY_CREATED);
+			return true;
+		case EXPORT_ID:
+			transferArchive(true);
+			return true;
+		case IMPORT_ID:
+			transferArchive(false);
+			return true;
 		case ABOUT_ID:
 			showAbout();
 			return true;
+		case SELECT_ID:
+			startSelection();
+			return true;
+		case TRASH_ID:
+			startActivity(new Intent(this, Trash.class));
+			return true;
+		case DELETE_SELECTED_ID:
+			deleteSelected();
+			return true;
+		case EXPORT_SELECTED_ID:
+			exportSelected();
+			return true;
+		case SHARE_SELECTED_ID:
+			shareSelected();
+			return true;
+		case DONE_ID:
+			endSelection();
+			return true;
 		}
 		return super.onMenuItemSelected(featureId, item);
 	}
 
+	@Override
+	public void onBackPressed()
+	{
+		if (selectingView != null)
+		{
+			endSelection();
+		} else
+		{
+			super.onBackPressed();
+		}
+	}
+
+	/**
+	 * Let the rows of the current tab be checked for a bulk action. There is
+	 * no action mode on this platform, so the options menu switches to the
+	 * bulk actions until the selection ends.
+	 */
+	private void startSelection()
+	{
+		selectingView = (getTabHost().getCurrentTab() == 0) ? notesView
+				: listsView;
+		selectingView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+		showSelectionCount();
+	}
+
+	private void endSelection()
+	{
+		if (selectingView == null)
+		{
+			return;
+		}
+		selectingView.clearChoices();
+		selectingView.setChoiceMode(ListView.CHOICE_MODE_NONE);
+		// Rows keep their check until they are bound again
+		selectingView.invalidateViews();
+		selectingView = null;
+		setTitle(R.string.app_name);
+	}
+
+	private void showSelectionCount()
+	{
+		setTitle(res.getString(R.string.selected_count,
+				selectedIds(selectingView).length));
+	}
+
+	/**
+	 * @return the ids of the checked rows of a list view
+	 */
+	private static long[] selectedIds(ListView view)
+	{
+		final SparseBooleanArray checked = view.getCheckedItemPositions();
+		int count = 0;
+		for (int i = 0; i < checked.size(); i++)
+		{
+			if (checked.valueAt(i))
+			{
+				count++;
+			}
+		}
+		final long[] ids = new long[count];
+		count = 0;
+		for (int i = 0; i < checked.size(); i++)
+		{
+			if (checked.valueAt(i))
+			{
+				ids[count++] = view.getItemIdAtPosition(checked.keyAt(i));
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Delete every selected row in one statement, after asking. The tab is
+	 * reloaded once, when its URI reports the change.
+	 */
+	private void deleteSelected()
+	{
+		final long[] ids = selectedIds(selectingView);
+		if (ids.length == 0)
+		{
+			return;
+		}
+		final boolean deleteNotes = selectingView == notesView;
+		new AlertDialog.Builder(this).setMessage(
+				res.getString(R.string.confirm_delete, ids.length))
+				.setPositiveButton("OK", new DialogInterface.OnClickListener()
+				{
+					public void onClick(DialogInterface dialog, int whichButton)
+					{
+						endSelection();
+						DbWriter.get(homeContext).submit(null,
+								new DbWriter.Write<Integer>()
+								{
+									@Override
+									public Integer run(NotesDbAdapter db)
+									{
+										return deleteNotes ? db
+												.deleteNotes(ids) : db
+												.deleteLists(ids);
+									}
+								}, new DbWriter.Callback<Integer>()
+								{
+									public void onComplete(Integer deleted)
+									{
+										if (deleted == null)
+										{
+											return;
+										}
+										Toast.makeText(homeContext,
+												res.getString(
+														R.string.deleted_count,
+														deleted),
+												Toast.LENGTH_SHORT).show();
+									}
+								});
+					}
+				}).setNegativeButton("CANCEL", null).show();
+	}
+
+	/**
+	 * Export the selected rows to their own archive file, which can be
+	 * imported like a full export.
+	 */
+	private void exportSelected()
+	{
+		final long[] ids = selectedIds(selectingView);
+		if (ids.length == 0)
+		{
+			return;
+		}
+		final long[] noteIds = (selectingView == notesView) ? ids : new long[0];
+		final long[] listIds = (selectingView == listsView) ? ids : new long[0];
+		endSelection();
+		final File file = new File(Environment.getExternalStorageDirectory(),
+				SELECTION_ARCHIVE_NAME);
+		DbWriter.get(this).submitRead(new DbWriter.Write<Long>()
+		{
+			@Override
+			public Long run(NotesDbAdapter db)
+			{
+				try
+				{
+					return Archive.exportTo(db, file, noteIds, listIds);
+				} catch (IOException e)
+				{
+					Log.e("Notepadv3", "Export of selection failed", e);
+					return -1L;
+				}
+			}
+		}, new DbWriter.Callback<Long>()
+		{
+			public void onComplete(Long records)
+			{
+				final String message = (records == null || records < 0) ? res
+						.getString(R.string.archive_failed, file.getPath()) : res
+						.getString(R.string.export_done, records, file
+								.getPath());
+				Toast.makeText(homeContext, message, Toast.LENGTH_LONG).show();
+			}
+		});
+	}
+
+	/**
+	 * Send the selected rows as plain text to whichever application the user
+	 * picks. The text is read in the background, after any pending writes.
+	 */
+	private void shareSelected()
+	{
+		final long[] ids = selectedIds(selectingView);
+		if (ids.length == 0)
+		{
+			return;
+		}
+		final long[] noteIds = (selectingView == notesView) ? ids : new long[0];
+		final long[] listIds = (selectingView == listsView) ? ids : new long[0];
+		endSelection();
+		DbWriter.get(this).submitRead(new DbWriter.Write<String>()
+		{
+			@Override
+			public String run(NotesDbAdapter db)
+			{
+				try
+				{
+					return Archive.toText(db, noteIds, listIds, SHARE_LIMIT);
+				} catch (IOException e)
+				{
+					Log.e("Notepadv3", "Reading selection failed", e);
+					return null;
+				}
+			}
+		}, new DbWriter.Callback<String>()
+		{
+			public void onComplete(String text)
+			{
+				if (text == null || destroyed)
+				{
+					return;
+				}
+				final Intent send = new Intent(Intent.ACTION_SEND);
+				send.setType("text/plain");
+				send.putExtra(Intent.EXTRA_TEXT, text);
+				startActivity(Intent.createChooser(send, res
+						.getString(R.string.share)));
+			}
+		});
+	}
+
+	/**
+	 * Export everything to, or import everything from, the archive file on
+	 * external storage, after any pending writes. Importing runs on the writer
+	 * thread; exporting only reads, and runs beside it so saves made during a
+	 * long export are not held up.
+	 */
+	private void transferArchive(final boolean export)
+	{
+		final File file = new File(Environment.getExternalStorageDirectory(),
+				ARCHIVE_NAME);
+		final DbWriter.Write<Long> transfer = new DbWriter.Write<Long>()
+		{
+			@Override
+			public Long run(NotesDbAdapter db)
+			{
+				try
+				{
+					return export ? Archive.exportTo(db, file) : Archive
+							.importFrom(db, file);
+				} catch (IOException e)
+				{
+					Log.e("Notepadv3", "Archive transfer failed", e);
+					return -1L;
+				}
+			}
+		};
+		final DbWriter.Callback<Long> done = new DbWriter.Callback<Long>()
+		{
+			public void onComplete(Long records)
+			{
+				final String message = (records == null || records < 0) ? res
+						.getString(R.string.archive_failed, file.getPath()) : res
+						.getString(export ? R.string.export_done
+								: R.string.import_done, records, file
+								.getPath());
+				Toast.makeText(homeContext, message, Toast.LENGTH_LONG).show();
+			}
+		};
+		if (export)
+		{
+			DbWriter.get(this).submitRead(transfer, done);
+		} else
+		{
+			DbWriter.get(this).submit(null, transfer, done);
+		}
+	}
+
+	private void sortNotes(int sortOrder)
+	{
+		getTabHost().setCurrentTab(0);
+		notes.setSortOrder(sortOrder);
+	}
+
 	private void showAbout()
 	{
 		 AlertDialog.Builder alertbox = new AlertDialog.Builder(this);
@@ -211,30 +942,33 @@ public class Notepadv3 extends TabActivity
 	{
 		AdapterContextMenuInfo info = (AdapterContextMenuInfo) menuInfo;
 		super.onCreateContextMenu(menu, v, menuInfo);
+		// The creation date comes from the row as loaded for the list, so
+		// opening the menu never waits on the database
 		if (getTabHost().getCurrentTab() == 0) // Notes
 		{
-			Cursor mCursor = mDbHelper.getNoteCreateDate(info.id);
-			startManagingCursor(mCursor);
 			menu.setHeaderTitle(getResources().getString(R.string.create_date)
-					+ " "
-					+ mCursor.getString(mCursor
-							.getColumnIndexOrThrow(NotesDbAdapter.KEY_CREATE_DATE)));
+					+ " " + formatDate(notes.getCreateDate(info.position)));
 			menu.add(0, DELETE_ID, 0, R.string.note_delete);
 		} else
 		// List
 		{
-			Cursor mCursor = mDbHelper.getListCreateDate(info.id);
-			startManagingCursor(mCursor);
+			final Cursor row = (Cursor) lists.getItem(info.position);
 			menu.setHeaderTitle(getResources().getString(R.string.create_date)
 					+ " "
-					+ mCursor.getString(mCursor
-							.getColumnIndexOrThrow(NotesDbAdapter.KEY_CREATE_DATE)));
+					+ formatDate(row.getLong(row
+							.getColumnIndexOrThrow(NotesDbAdapter.KEY_CREATE_DATE))));
 			menu.add(0, EDIT_TITLE_ID, 0, R.string.edit_title);
 			menu.add(0, DELETE_ID, 0, R.string.list_delete);
 
 		}
 	}
 
+	private static String formatDate(long millis)
+	{
+		return DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
+				DateFormat.SHORT).format(new Date(millis));
+	}
+
 	@Override
 	public boolean onContextItemSelected(MenuItem item)
 	{
@@ -244,14 +978,30 @@ public class Notepadv3 extends TabActivity
 			{
 				AdapterContextMenuInfo deleteInfo = (AdapterContextMenuInfo) item
 						.getMenuInfo();
+				final long id = deleteInfo.id;
 				if (getTabHost().getCurrentTab() == 0) // Note
 				{
-					mDbHelper.deleteNote(deleteInfo.id);
+					DbWriter.get(this).submit(DbWriter.key("notes.trash", id),
+							new DbWriter.Write<Boolean>()
+							{
+								@Override
+								public Boolean run(NotesDbAdapter db)
+								{
+									return db.deleteNote(id);
+								}
+							}, null);
 				} else if (getTabHost().getCurrentTab() == 1) // List
 				{
-					mDbHelper.deleteList(deleteInfo.id);
+					DbWriter.get(this).submit(DbWriter.key("lists.trash", id),
+							new DbWriter.Write<Boolean>()
+							{
+								@Override
+								public Boolean run(NotesDbAdapter db)
+								{
+									return db.deleteList(id);
+								}
+							}, null);
 				}
-				fillData();
 				return true;
 			}
 			case EDIT_TITLE_ID:
@@ -279,15 +1029,19 @@ public class Notepadv3 extends TabActivity
 		{
 			public void onClick(DialogInterface dialog, int whichButton)
 			{
-				String title = titleInput.getText().toString();
-				if (!title.equals(null))
-				{
-					mDbHelper.updateListTitle(id, title);
-				} else
-				{
-					mDbHelper.updateListTitle(id, DEFAULT_TITLE);
-				}
-				lists.getCursor().requery();
+				String input = titleInput.getText().toString();
+				final String title = (!input.equals(null)) ? input
+						: DEFAULT_TITLE;
+				DbWriter.get(homeContext).submit(
+						DbWriter.key("lists.title", id),
+						new DbWriter.Write<Boolean>()
+						{
+							@Override
+							public Boolean run(NotesDbAdapter db)
+							{
+								return db.updateListTitle(id, title);
+							}
+						}, null);
 			}
 		});
 		alert.setNegativeButton("CANCEL", new DialogInterface.OnClickListener()
@@ -317,6 +1071,11 @@ public class Notepadv3 extends TabActivity
 		public void onItemClick(AdapterView<?> l, View view, int position,
 				long id)
 		{
+			if (selectingView != null)
+			{
+				showSelectionCount();
+				return;
+			}
 			Intent i = new Intent(homeContext, NoteEdit.class);
 			i.putExtra(NotesDbAdapter.KEY_ROWID, id);
 			startActivityForResult(i, ACTIVITY_EDIT);
@@ -329,17 +1088,135 @@ public class Notepadv3 extends TabActivity
 		public void onItemClick(AdapterView<?> l, View view, int position,
 				long id)
 		{
+			if (selectingView != null)
+			{
+				showSelectionCount();
+				return;
+			}
 			Intent i = new Intent(homeContext, ListEdit.class);
 			i.putExtra(NotesDbAdapter.KEY_ROWID, id);
 			startActivityForResult(i, ACTIVITY_EDIT_LIST);
 		}
 	};
 
-	@Override
-	protected void onActivityResult(int requestCode, int resultCode,
-			Intent intent)
+	private final AdapterView.OnItemClickListener onSearchResultClick = new AdapterView.OnItemClickListener()
+	{
+		public void onItemClick(AdapterView<?> l, View view, int position,
+				long id)
+		{
+			final Cursor result = (Cursor) l.getItemAtPosition(position);
+			final int noteColumn = result
+					.getColumnIndexOrThrow(SearchIndex.KEY_NOTE_ID);
+			if (!result.isNull(noteColumn))
+			{
+				Intent i = new Intent(homeContext, NoteEdit.class);
+				i.putExtra(NotesDbAdapter.KEY_ROWID, result.getLong(noteColumn));
+				startActivityForResult(i, ACTIVITY_EDIT);
+			} else
+			{
+				Intent i = new Intent(homeContext, ListEdit.class);
+				i.putExtra(NotesDbAdapter.KEY_ROWID, result.getLong(result
+						.getColumnIndexOrThrow(SearchIndex.KEY_LIST_ID)));
+				startActivityForResult(i, ACTIVITY_EDIT_LIST);
+			}
+		}
+	};
+
+	private final SimpleCursorAdapter.ViewBinder highlightSnippet = new SimpleCursorAdapter.ViewBinder()
+	{
+		public boolean setViewValue(View view, Cursor cursor, int columnIndex)
+		{
+			if (view.getId() == R.id.search_snippet)
+			{
+				((TextView) view).setText(SearchIndex.highlight(cursor
+						.getString(columnIndex)));
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private final TextWatcher onSearchTextChanged = new TextWatcher()
+	{
+		public void afterTextChanged(Editable s)
+		{
+			search(s.toString());
+		}
+
+		public void beforeTextChanged(CharSequence s, int start, int count,
+				int after)
+		{
+		}
+
+		public void onTextChanged(CharSequence s, int start, int before,
+				int count)
+		{
+		}
+	};
+
+	/**
+	 * Start a search in the background, abandoning the one still running.
+	 * An empty query hides the results and shows the tabs again.
+	 */
+	private void search(String query)
+	{
+		if (searchTask != null)
+		{
+			searchTask.cancel(false);
+			searchTask = null;
+		}
+		if (SearchIndex.toMatchQuery(query) == null)
+		{
+			searchView.setVisibility(View.GONE);
+			searchResults.changeCursor(null);
+			return;
+		}
+		searchTask = new SearchTask();
+		searchTask.execute(query);
+	}
+
+	private class SearchTask extends CursorTask<String>
 	{
-		super.onActivityResult(requestCode, resultCode, intent);
-		fillData();
+		@Override
+		protected Cursor doInBackground(String... query)
+		{
+			// Holds its own reference so the connection outlives the activity
+			// until the query is done
+			final NotesDbAdapter dbHelper = new NotesDbAdapter(homeContext)
+					.open();
+			try
+			{
+				final Cursor results = dbHelper.search(query[0],
+						SEARCH_LIMIT, 0);
+				if (results != null)
+				{
+					// Runs the query and fills the window off the UI thread
+					results.getCount();
+					return keep(results);
+				}
+				return null;
+			} finally
+			{
+				dbHelper.close();
+			}
+		}
+
+		@Override
+		protected void onPostExecute(Cursor results)
+		{
+			take();
+			// Searches run in parallel, only the latest one is shown
+			if (searchTask != this)
+			{
+				if (results != null)
+				{
+					results.close();
+				}
+				return;
+			}
+			searchTask = null;
+			searchResults.changeCursor(results);
+			searchView.setVisibility(View.VISIBLE);
+		}
 	}
 }
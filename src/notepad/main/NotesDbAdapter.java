@@ -16,12 +16,39 @@
 
 package notepad.main;
 
-import android.content.ContentValues;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import model.ListRow;
+import model.Note;
+import model.NoteChunk;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
@@ -38,34 +65,407 @@ public class NotesDbAdapter
 {
 
 	public static final String KEY_TITLE = "title";
-	public static final String KEY_DATE = "due_date";
+	public static final String KEY_DATE = "due_at";
 	public static final String KEY_BODY = "body";
-	public static final String KEY_CREATE_DATE = "create_date";
+	public static final String KEY_BODY_FORMAT = "body_format";
+	public static final String KEY_CREATE_DATE = "created_at";
 	public static final String KEY_ROWID = "_id";
+	public static final String KEY_SORT = "sort_key";
+	public static final String KEY_SAVED_AT = "saved_at";
+	public static final String KEY_VERSION = "version";
+	public static final String KEY_POSITION = "position";
+	public static final String KEY_ITEM_COUNT = "item_count";
+	public static final String KEY_CHECKED_COUNT = "checked_count";
+	public static final String KEY_DELETED_AT = "deleted_at";
+	public static final String KEY_SNIPPET = "snippet";
+	public static final String KEY_NOTE_ID = "note_id";
+	public static final String KEY_LIST_ID = "list_id";
+
+	/** Order notes by the time they were created */
+	public static final int SORT_BY_CREATED = 0;
+	/** Order notes by their due date */
+	public static final int SORT_BY_DUE = 1;
+
+	/** Bodies longer than this many characters are stored in note_chunks */
+	public static final int INLINE_LIMIT = 65536;
+	/** Characters of body text kept in the snippet column */
+	public static final int SNIPPET_LENGTH = 100;
+	/** Characters of a chunked body read to make its snippet */
+	private static final int SNIPPET_SCAN = 1024;
+	/** Characters in each piece of a body stored in note_chunks */
+	public static final int CHUNK_SIZE = 16384;
+	/** Distance between the seq numbers of chunks written one after another */
+	private static final long SEQ_STEP = 1024;
+
+	/** Revisions of a note kept as deltas between two full snapshots */
+	private static final int SNAPSHOT_INTERVAL = 10;
+	private static final int REVISION_SNAPSHOT = 0;
+	private static final int REVISION_DEFLATED = 1;
+	private static final int REVISION_DELTA = 2;
 
 	private static final String TAG = "NotesDbAdapter";
-	private DatabaseHelper mDbHelper;
 	private SQLiteDatabase mDb;
 
 	/**
-	 * Database creation sql statement
+	 * Database creation sql statement. Dates are stored as milliseconds since
+	 * the epoch. body_format says how the body is stored, see BodyCodec.
 	 */
 	private static final String CREATE_NOTE_TABLE = "CREATE TABLE notes (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
 			+ "title TEXT NOT NULL,"
 			+ "body TEXT NOT NULL,"
-			+ "due_date TEXT NOT NULL," + "create_date TEXT NOT NULL)";
+			+ "body_format INTEGER NOT NULL DEFAULT 0,"
+			+ "due_at INTEGER NOT NULL," + "created_at INTEGER NOT NULL,"
+			+ "deleted_at INTEGER,"
+			+ "snippet TEXT NOT NULL DEFAULT '')";
+	/**
+	 * A note or list is in the trash while deleted_at holds the time it was
+	 * put there. SQLite before 3.8 has no partial indexes, so deleted_at
+	 * leads each index instead: the live rows, where it is null, are one
+	 * range of the index in sort order, and the trash is another in order of
+	 * deletion.
+	 */
+	private static final String CREATE_NOTE_DUE_INDEX = "CREATE INDEX IF NOT EXISTS notes_due_at ON notes (deleted_at, due_at, _id)";
+	private static final String CREATE_NOTE_CREATED_INDEX = "CREATE INDEX IF NOT EXISTS notes_created_at ON notes (deleted_at, created_at, _id)";
+	private static final String CREATE_NOTE_CHUNKS_TABLE = "CREATE TABLE note_chunks (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+			+ "note_id INTEGER NOT NULL REFERENCES notes(_id) ON DELETE CASCADE,"
+			+ "seq INTEGER NOT NULL," + "data TEXT NOT NULL)";
+	private static final String CREATE_NOTE_CHUNKS_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS note_chunks_note_id ON note_chunks (note_id, seq)";
+	private static final String CREATE_NOTE_REVISIONS_TABLE = "CREATE TABLE note_revisions (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+			+ "note_id INTEGER NOT NULL REFERENCES notes(_id) ON DELETE CASCADE,"
+			+ "saved_at INTEGER NOT NULL,"
+			+ "title TEXT NOT NULL,"
+			+ "kind INTEGER NOT NULL,"
+			+ "depth INTEGER NOT NULL," + "data BLOB NOT NULL)";
+	private static final String CREATE_NOTE_REVISIONS_INDEX = "CREATE INDEX IF NOT EXISTS note_revisions_note_id ON note_revisions (note_id, _id)";
 	private static final String CREATE_LISTS_TABLE = "CREATE TABLE lists (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
-			+ "title TEXT NOT NULL," + "create_date TEXT NOT NULL)";
+			+ "title TEXT NOT NULL," + "created_at INTEGER NOT NULL,"
+			+ "item_count INTEGER NOT NULL DEFAULT 0,"
+			+ "checked_count INTEGER NOT NULL DEFAULT 0,"
+			+ "deleted_at INTEGER)";
+	private static final String CREATE_LISTS_DELETED_INDEX = "CREATE INDEX IF NOT EXISTS lists_deleted_at ON lists (deleted_at, _id)";
 	private static final String CREATE_LIST_DATA_TABLE = "CREATE TABLE list_data (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
-			+ "list_id INTEGER NOT NULL,"
+			+ "list_id INTEGER NOT NULL REFERENCES lists(_id) ON DELETE CASCADE,"
 			+ "item_data TEXT NOT NULL,"
-			+ "checked INTEGER NOT NULL)";
+			+ "checked INTEGER NOT NULL,"
+			+ "version INTEGER NOT NULL DEFAULT 0,"
+			+ "position TEXT NOT NULL DEFAULT '')";
+	/** Rows are listed by position, see PositionKey; ties fall back to _id */
+	private static final String CREATE_LIST_DATA_INDEX = "CREATE INDEX IF NOT EXISTS list_data_position ON list_data (list_id, position)";
+
+	/**
+	 * Keep item_count and checked_count on lists equal to the number of rows,
+	 * and of checked rows, each list has in list_data
+	 */
+	private static final String LIST_COUNT_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS list_data_count_insert AFTER INSERT ON list_data BEGIN "
+			+ "UPDATE lists SET item_count = item_count + 1, checked_count = checked_count + (new.checked != 0) WHERE _id = new.list_id; END";
+	private static final String LIST_COUNT_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS list_data_count_update AFTER UPDATE OF list_id, checked ON list_data "
+			+ "WHEN old.list_id != new.list_id OR (old.checked != 0) != (new.checked != 0) BEGIN "
+			+ "UPDATE lists SET item_count = item_count - 1, checked_count = checked_count - (old.checked != 0) WHERE _id = old.list_id; "
+			+ "UPDATE lists SET item_count = item_count + 1, checked_count = checked_count + (new.checked != 0) WHERE _id = new.list_id; END";
+	private static final String LIST_COUNT_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS list_data_count_delete AFTER DELETE ON list_data BEGIN "
+			+ "UPDATE lists SET item_count = item_count - 1, checked_count = checked_count - (old.checked != 0) WHERE _id = old.list_id; END";
+	private static final String RECOUNT_LISTS = "UPDATE lists SET "
+			+ "item_count = (SELECT count(*) FROM list_data WHERE list_id = lists._id), "
+			+ "checked_count = (SELECT count(*) FROM list_data WHERE list_id = lists._id AND checked != 0)";
+
+	/**
+	 * Write statements, compiled once per connection and rebound on each call
+	 */
+	private static final String INSERT_NOTE = "INSERT INTO notes (title, due_at, body, body_format, created_at, snippet) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String UPDATE_NOTE = "UPDATE notes SET title = ?, due_at = ?, body = ?, body_format = ?, snippet = ? WHERE _id = ?";
+	private static final String UPDATE_NOTE_SNIPPET = "UPDATE notes SET snippet = ? WHERE _id = ?";
+	private static final String FIRST_CHUNK_TEXT = "SELECT substr(data, 1, " + SNIPPET_SCAN
+			+ ") FROM note_chunks WHERE note_id = ? ORDER BY seq LIMIT 1";
+	private static final String UPDATE_NOTE_HEADER = "UPDATE notes SET title = ?, due_at = ? WHERE _id = ?";
+	private static final String TRASH_NOTE = "UPDATE notes SET deleted_at = ? WHERE _id = ? AND deleted_at IS NULL";
+	private static final String CLEAR_NOTE_BODY = "UPDATE notes SET body = '', body_format = "
+			+ BodyCodec.FORMAT_CHUNKED + " WHERE _id = ?";
+	private static final String INSERT_CHUNK = "INSERT INTO note_chunks (note_id, seq, data) VALUES (?, ?, ?)";
+	private static final String UPDATE_CHUNK = "UPDATE note_chunks SET data = ? WHERE _id = ?";
+	private static final String UPDATE_CHUNK_SEQ = "UPDATE note_chunks SET seq = ? WHERE _id = ?";
+	private static final String NEGATE_CHUNK_SEQS = "UPDATE note_chunks SET seq = -seq WHERE note_id = ?";
+	private static final String DELETE_CHUNK = "DELETE FROM note_chunks WHERE _id = ?";
+	private static final String DELETE_NOTE_CHUNKS = "DELETE FROM note_chunks WHERE note_id = ?";
+	private static final String NEXT_CHUNK_SEQ = "SELECT ifnull(min(seq), ?) FROM note_chunks WHERE note_id = ? AND seq > ?";
+	private static final String INSERT_REVISION = "INSERT INTO note_revisions (note_id, saved_at, title, kind, depth, data) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String LAST_CHUNK_SEQ = "SELECT ifnull(max(seq), ?) FROM note_chunks WHERE note_id = ?";
+	private static final String INSERT_LIST = "INSERT INTO lists (title, created_at) VALUES (?, ?)";
+	private static final String UPDATE_LIST_TITLE = "UPDATE lists SET title = ? WHERE _id = ?";
+	private static final String TRASH_LIST = "UPDATE lists SET deleted_at = ? WHERE _id = ? AND deleted_at IS NULL";
+	private static final String PURGE_NOTES = "DELETE FROM notes WHERE _id IN (SELECT _id FROM notes WHERE deleted_at < ? LIMIT ?)";
+	private static final String PURGE_LISTS = "DELETE FROM lists WHERE _id IN (SELECT _id FROM lists WHERE deleted_at < ? LIMIT ?)";
+	private static final String FETCH_TRASH = "SELECT _id * 2 AS _id, _id AS note_id, NULL AS list_id, title, deleted_at FROM notes WHERE deleted_at IS NOT NULL"
+			+ " UNION ALL "
+			+ "SELECT _id * 2 + 1, NULL, _id, title, deleted_at FROM lists WHERE deleted_at IS NOT NULL"
+			+ " ORDER BY deleted_at DESC, _id DESC";
+	private static final String INSERT_LIST_ROW = "INSERT INTO list_data (list_id, item_data, checked, position) VALUES (?, ?, ?, ?)";
+	private static final String UPDATE_LIST_ROW = "UPDATE list_data SET item_data = ?, checked = ?, version = version + 1 WHERE _id = ?";
+	private static final String UPDATE_LIST_ROW_VERSION = "UPDATE list_data SET item_data = ?, checked = ?, position = ifnull(?, position), version = version + 1 WHERE _id = ? AND version = ?";
+	private static final String UPDATE_LIST_ROW_POSITION = "UPDATE list_data SET position = ? WHERE _id = ?";
+	private static final String LAST_LIST_ROW_POSITION = "SELECT max(position) FROM list_data WHERE list_id = ?";
+	private static final String DELETE_LIST_ROW = "DELETE FROM list_data WHERE _id = ?";
+	private static final String DELETE_LIST_ROW_VERSION = "DELETE FROM list_data WHERE _id = ? AND version = ?";
+	private static final String CHANGES = "SELECT changes()";
+	private static final Method EXECUTE_UPDATE_DELETE = updateDeleteMethod();
 
 	private static final String DATABASE_NAME = "data";
 	private static final String DATABASE_TABLE = "notes";
-	private static final int DATABASE_VERSION = 4;
+	private static final int DATABASE_VERSION = 15;
+
+	/**
+	 * One connection is shared by every adapter in the process. It is opened
+	 * by the first open() and closed by the close() that balances the last
+	 * one, and the compiled statements live no longer than it does.
+	 */
+	private static DatabaseHelper sDbHelper;
+	private static SQLiteDatabase sDb;
+	private static int sOpenCount;
+	/**
+	 * Compiled write statements, cached per thread. A statement holds its
+	 * bindings until it runs, so two threads sharing one could each run the
+	 * other's values. Writes normally come from the DbWriter thread alone,
+	 * but tests and callers holding their own adapter write from others.
+	 */
+	private static final HashMap<Thread, HashMap<String, SQLiteStatement>> sStatements = new HashMap<Thread, HashMap<String, SQLiteStatement>>();
 
 	private final Context mCtx;
+	/** NotesUris URIs written inside the current transaction */
+	private final HashSet<Uri> mPendingChanges = new HashSet<Uri>();
+
+	/**
+	 * Current table layouts and the steps that upgrade older databases to them.
+	 * Versions 1 to 4 predate tracked migrations, so their tables are rebuilt
+	 * into the current layout with whichever columns they already have.
+	 */
+	private static final SchemaMigrator MIGRATOR = new SchemaMigrator()
+			.addTable("notes", CREATE_NOTE_TABLE, CREATE_NOTE_DUE_INDEX,
+					CREATE_NOTE_CREATED_INDEX,
+					SearchIndex.NOTES_INSERT_TRIGGER,
+					SearchIndex.NOTES_UPDATE_TRIGGER,
+					SearchIndex.NOTES_DELETE_TRIGGER)
+			.addTable("note_chunks", CREATE_NOTE_CHUNKS_TABLE,
+					CREATE_NOTE_CHUNKS_INDEX,
+					SearchIndex.NOTE_CHUNKS_INSERT_TRIGGER,
+					SearchIndex.NOTE_CHUNKS_UPDATE_TRIGGER,
+					SearchIndex.NOTE_CHUNKS_DELETE_TRIGGER)
+			.addTable("note_revisions", CREATE_NOTE_REVISIONS_TABLE,
+					CREATE_NOTE_REVISIONS_INDEX)
+			.addTable("lists", CREATE_LISTS_TABLE, CREATE_LISTS_DELETED_INDEX)
+			.addTable("list_data", CREATE_LIST_DATA_TABLE,
+					CREATE_LIST_DATA_INDEX,
+					SearchIndex.LIST_DATA_INSERT_TRIGGER,
+					SearchIndex.LIST_DATA_UPDATE_TRIGGER,
+					SearchIndex.LIST_DATA_DELETE_TRIGGER,
+					LIST_COUNT_INSERT_TRIGGER, LIST_COUNT_UPDATE_TRIGGER,
+					LIST_COUNT_DELETE_TRIGGER)
+			.addTable("notes_search", SearchIndex.CREATE_NOTES_SEARCH,
+					SearchIndex.FILL_NOTES_SEARCH)
+			.addTable("note_chunks_search",
+					SearchIndex.CREATE_NOTE_CHUNKS_SEARCH,
+					SearchIndex.FILL_NOTE_CHUNKS_SEARCH)
+			.addTable("list_data_search", SearchIndex.CREATE_LIST_DATA_SEARCH,
+					SearchIndex.FILL_LIST_DATA_SEARCH)
+			.addStep(2, SchemaMigrator.REBUILD_ALL)
+			.addStep(3, SchemaMigrator.REBUILD_ALL)
+			.addStep(4, SchemaMigrator.REBUILD_ALL)
+			.addStep(5, new SchemaMigrator.Step()
+			{
+				// list_data gains a cascading foreign key to lists; rows left
+				// behind by deleted lists would violate it
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.rebuild(db, "list_data",
+							"list_id IN (SELECT _id FROM lists)");
+				}
+			})
+			.addStep(6, new SchemaMigrator.Step()
+			{
+				// Full-text index over notes and list items
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.rebuild(db, "notes_search", null);
+					migrator.rebuild(db, "list_data_search", null);
+					migrator.createExtras(db, "notes");
+					migrator.createExtras(db, "list_data");
+				}
+			})
+			.addStep(7, new SchemaMigrator.Step()
+			{
+				// Dates move from display strings to indexed epoch millis
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.addColumn(db, "notes", "due_at", "INTEGER");
+					migrator.addColumn(db, "notes", "created_at", "INTEGER");
+					migrator.addColumn(db, "lists", "created_at", "INTEGER");
+					migrator.convertColumn(db, "notes", "due_date", "due_at",
+							new DateConverter("d-MMM-yyyy", false));
+					migrator.convertColumn(db, "notes", "create_date",
+							"created_at", new DateConverter("EEE MMM dd HH:mm",
+									true));
+					migrator.convertColumn(db, "lists", "create_date",
+							"created_at", new DateConverter("EEE MMM dd HH:mm",
+									true));
+					migrator.rebuild(db, "notes", null);
+					migrator.rebuild(db, "lists", null);
+				}
+			})
+			.addStep(8, new SchemaMigrator.Step()
+			{
+				// Large bodies may be stored compressed, which the search
+				// triggers must not index
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.addColumn(db, "notes", "body_format",
+							"INTEGER NOT NULL DEFAULT 0");
+					db.execSQL("DROP TRIGGER IF EXISTS notes_search_insert");
+					db.execSQL("DROP TRIGGER IF EXISTS notes_search_update");
+					migrator.createExtras(db, "notes");
+				}
+			})
+			.addStep(9, new SchemaMigrator.Step()
+			{
+				// Bodies too large for one CursorWindow are split into chunks
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.rebuild(db, "note_chunks", null);
+					migrator.rebuild(db, "note_chunks_search", null);
+				}
+			})
+			.addStep(10, new SchemaMigrator.Step()
+			{
+				// Revision history of notes
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.rebuild(db, "note_revisions", null);
+				}
+			})
+			.addStep(11, new SchemaMigrator.Step()
+			{
+				// List rows carry a version so stale saves can be detected
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.addColumn(db, "list_data", "version",
+							"INTEGER NOT NULL DEFAULT 0");
+				}
+			})
+			.addStep(12, new SchemaMigrator.Step()
+			{
+				// Lists carry the counts of their rows, kept by triggers
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.addColumn(db, "lists", "item_count",
+							"INTEGER NOT NULL DEFAULT 0");
+					migrator.addColumn(db, "lists", "checked_count",
+							"INTEGER NOT NULL DEFAULT 0");
+					db.execSQL(RECOUNT_LISTS);
+					migrator.createExtras(db, "list_data");
+				}
+			})
+			.addStep(13, new SchemaMigrator.Step()
+			{
+				// List rows are ordered by a position key, starting out in
+				// the order of their ids
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.addColumn(db, "list_data", "position",
+							"TEXT NOT NULL DEFAULT ''");
+					db.execSQL("DROP INDEX IF EXISTS list_data_list_id");
+					migrator.createExtras(db, "list_data");
+					final Cursor lists = db.rawQuery("SELECT _id FROM lists",
+							null);
+					try
+					{
+						while (lists.moveToNext())
+						{
+							rebalanceList(db, lists.getLong(0));
+						}
+					} finally
+					{
+						lists.close();
+					}
+				}
+			})
+			.addStep(14, new SchemaMigrator.Step()
+			{
+				// Deleted notes and lists go to the trash first, and the
+				// indexes lead with the column that says so
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.addColumn(db, "notes", "deleted_at", "INTEGER");
+					migrator.addColumn(db, "lists", "deleted_at", "INTEGER");
+					db.execSQL("DROP INDEX IF EXISTS notes_due_at");
+					db.execSQL("DROP INDEX IF EXISTS notes_created_at");
+					migrator.createExtras(db, "notes");
+					migrator.createExtras(db, "lists");
+				}
+			})
+			.addStep(15, new SchemaMigrator.Step()
+			{
+				// The notes list shows the start of each body from a column
+				// of its own, so listing never reads bodies
+				@Override
+				public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+				{
+					migrator.addColumn(db, "notes", "snippet",
+							"TEXT NOT NULL DEFAULT ''");
+					fillSnippets(db);
+				}
+			});
+
+	/**
+	 * Parses the date strings written before version 7. Creation dates were
+	 * the first 16 characters of Date.toString(), which has no year, so they
+	 * are placed in the most recent year that does not put them in the
+	 * future. Text that cannot be parsed becomes 0.
+	 */
+	private static class DateConverter implements SchemaMigrator.Converter
+	{
+		private final SimpleDateFormat mFormat;
+		private final boolean mGuessYear;
+		private final Calendar mNow = Calendar.getInstance();
+
+		DateConverter(String pattern, boolean guessYear)
+		{
+			mFormat = new SimpleDateFormat(pattern, Locale.US);
+			mGuessYear = guessYear;
+		}
+
+		public long convert(String value)
+		{
+			if (value == null)
+			{
+				return 0;
+			}
+			try
+			{
+				final Calendar date = Calendar.getInstance();
+				date.setTime(mFormat.parse(value.trim()));
+				if (mGuessYear)
+				{
+					date.set(Calendar.YEAR, mNow.get(Calendar.YEAR));
+					if (date.after(mNow))
+					{
+						date.add(Calendar.YEAR, -1);
+					}
+				}
+				return date.getTimeInMillis();
+			} catch (ParseException e)
+			{
+				Log.w(TAG, "Unreadable date " + value);
+				return 0;
+			}
+		}
+	}
 
 	private static class DatabaseHelper extends SQLiteOpenHelper
 	{
@@ -78,20 +478,29 @@ public class NotesDbAdapter
 		@Override
 		public void onCreate(SQLiteDatabase db)
 		{
-			db.execSQL(CREATE_NOTE_TABLE);
-			db.execSQL(CREATE_LISTS_TABLE);
-			db.execSQL(CREATE_LIST_DATA_TABLE);
+			MIGRATOR.create(db);
+		}
+
+		@Override
+		public void onOpen(SQLiteDatabase db)
+		{
+			super.onOpen(db);
+			if (!db.isReadOnly())
+			{
+				// Finish any interrupted upgrade before foreign keys are
+				// enforced, the rebuild drops the old tables
+				MIGRATOR.resume(db);
+				// Foreign keys are off by default on every new connection
+				db.execSQL("PRAGMA foreign_keys = ON");
+			}
 		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
 		{
 			Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
-					+ newVersion + ", which will destroy all old data");
-			db.execSQL("DROP TABLE IF EXISTS notes");
-			db.execSQL("DROP TABLE IF EXISTS lists");
-			db.execSQL("DROP TABLE IF EXISTS list_data");
-			onCreate(db);
+					+ newVersion);
+			MIGRATOR.upgrade(db, oldVersion, newVersion);
 		}
 	}
 
@@ -108,9 +517,11 @@ public class NotesDbAdapter
 	}
 
 	/**
-	 * Open the notes database. If it cannot be opened, try to create a new
-	 * instance of the database. If it cannot be created, throw an exception to
-	 * signal the failure
+	 * Open the notes database. The shared connection is opened, and created
+	 * or upgraded if needed, only when no other adapter holds it; otherwise
+	 * this just takes another reference to it. If it cannot be opened, throw
+	 * an exception to signal the failure. Every successful open must be
+	 * balanced by a call to {@link #close()}.
 	 * 
 	 * @return this (self reference, allowing this to be chained in an
 	 *         initialization call)
@@ -119,310 +530,2044 @@ public class NotesDbAdapter
 	 */
 	public NotesDbAdapter open() throws SQLException
 	{
-		mDbHelper = new DatabaseHelper(mCtx);
-		mDb = mDbHelper.getWritableDatabase();
+		if (mDb != null)
+		{
+			return this;
+		}
+		synchronized (NotesDbAdapter.class)
+		{
+			if (sDb == null)
+			{
+				final DatabaseHelper helper = new DatabaseHelper(mCtx
+						.getApplicationContext());
+				sDb = helper.getWritableDatabase();
+				sDbHelper = helper;
+				enableWriteAheadLogging(sDb);
+			}
+			sOpenCount++;
+			mDb = sDb;
+		}
 		return this;
 	}
 
-	public void close()
+	/**
+	 * Put the database in write-ahead-log mode where the platform supports it
+	 * (Honeycomb and later), so queries from the UI thread read from their own
+	 * connection instead of waiting for the writer thread's transaction. The
+	 * call is made reflectively since this project builds against API 8.
+	 */
+	private static void enableWriteAheadLogging(SQLiteDatabase db)
 	{
-		mDbHelper.close();
+		if (Build.VERSION.SDK_INT < 11)
+		{
+			return;
+		}
+		try
+		{
+			SQLiteDatabase.class.getMethod("enableWriteAheadLogging")
+					.invoke(db);
+		} catch (Exception e)
+		{
+			Log.w(TAG, "Write-ahead logging unavailable", e);
+		}
 	}
 
 	/**
-	 * Create a new note using the title and body provided. If the note is
-	 * successfully created return the new rowId for that note, otherwise return
-	 * a -1 to indicate failure.
-	 * 
-	 * @param title
-	 *            the title of the note
-	 * @param body
-	 *            the body of the note
-	 * @return rowId or -1 if failed
+	 * Release this adapter's reference to the shared connection, closing it
+	 * when no other adapter holds one.
 	 */
-	public long createNote(String title, String date, String body,
-			String create_date)
+	public void close()
 	{
-		ContentValues initialValues = new ContentValues();
-		initialValues.put(KEY_TITLE, title);
-		initialValues.put(KEY_DATE, date);
-		initialValues.put(KEY_BODY, body);
-		initialValues.put(KEY_CREATE_DATE, create_date);
+		if (mDb == null)
+		{
+			return;
+		}
+		mDb = null;
+		synchronized (NotesDbAdapter.class)
+		{
+			if (--sOpenCount == 0)
+			{
+				synchronized (sStatements)
+				{
+					for (HashMap<String, SQLiteStatement> statements : sStatements
+							.values())
+					{
+						closeAll(statements);
+					}
+					sStatements.clear();
+				}
+				sDbHelper.close();
+				sDbHelper = null;
+				sDb = null;
+			}
+		}
+	}
 
-		return mDb.insert(DATABASE_TABLE, null, initialValues);
+	/**
+	 * Return the calling thread's compiled form of a write statement,
+	 * compiling it on first use. Callers rebind every parameter before
+	 * executing it, and must not hand it to another thread.
+	 */
+	private SQLiteStatement statement(String sql)
+	{
+		final Thread thread = Thread.currentThread();
+		synchronized (sStatements)
+		{
+			HashMap<String, SQLiteStatement> statements = sStatements
+					.get(thread);
+			if (statements == null)
+			{
+				dropFinishedThreads();
+				statements = new HashMap<String, SQLiteStatement>();
+				sStatements.put(thread, statements);
+			}
+			SQLiteStatement statement = statements.get(sql);
+			if (statement == null)
+			{
+				statement = mDb.compileStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
 	}
 
 	/**
-	 * @param title
-	 * 	Title of the list
-	 * @param create_date
-	 *  Creation date of the list
-	 * @return rowId or -1 if failed
+	 * Close the statements of threads that have finished. Called with the
+	 * lock on sStatements held, when a thread writes for the first time.
 	 */
-	public long createList(String title, String create_date)
+	private static void dropFinishedThreads()
 	{
-		ContentValues initialValues = new ContentValues();
-		initialValues.put(KEY_TITLE, title);
-		initialValues.put(KEY_CREATE_DATE, create_date);
+		final Iterator<Map.Entry<Thread, HashMap<String, SQLiteStatement>>> entries = sStatements
+				.entrySet().iterator();
+		while (entries.hasNext())
+		{
+			final Map.Entry<Thread, HashMap<String, SQLiteStatement>> entry = entries
+					.next();
+			if (!entry.getKey().isAlive())
+			{
+				closeAll(entry.getValue());
+				entries.remove();
+			}
+		}
+	}
 
-		return mDb.insert("lists", null, initialValues);
+	private static void closeAll(HashMap<String, SQLiteStatement> statements)
+	{
+		for (SQLiteStatement statement : statements.values())
+		{
+			statement.close();
+		}
 	}
 
 	/**
-	 * @param listId
-	 *  References the associated rowId of the list that contains this data
-	 * @param data
-	 * 	Contains the description of the row
-	 * @param checked
-	 * 	1 if the row is check or 0 if it is not
+	 * Run an insert statement, reporting failure the way SQLiteDatabase.insert
+	 * does.
+	 * 
 	 * @return rowId or -1 if failed
 	 */
-	public long createListRowData(long listId, String data, int checked)
+	private long executeInsert(SQLiteStatement statement)
 	{
-		ContentValues initialValues = new ContentValues();
-		initialValues.put("list_id", listId);
-		initialValues.put("item_data", data);
-		initialValues.put("checked", checked);
-
-		return mDb.insert("list_data", null, initialValues);
+		try
+		{
+			return statement.executeInsert();
+		} catch (SQLException e)
+		{
+			Log.e(TAG, "Insert failed", e);
+			return -1;
+		}
 	}
 
 	/**
-	 * Delete the note with the given rowId
+	 * Run an update or delete statement. From Honeycomb, where write-ahead
+	 * logging gives the database a pool of connections and changes() may be
+	 * read on another one than the write ran on, the count comes from
+	 * SQLiteStatement.executeUpdateDelete(), called reflectively since this
+	 * project builds against API 8. Before that there is a single connection,
+	 * and the statement and changes() run in one transaction so that no other
+	 * write can come between them.
 	 * 
-	 * @param rowId
-	 *            id of note to delete
-	 * @return true if deleted, false otherwise
+	 * @return the number of rows changed
 	 */
-	public boolean deleteNote(long rowId)
+	private long executeUpdateDelete(SQLiteStatement statement)
 	{
-
-		return mDb.delete(DATABASE_TABLE, KEY_ROWID + "=" + rowId, null) > 0;
+		if (EXECUTE_UPDATE_DELETE != null)
+		{
+			try
+			{
+				return (Integer) EXECUTE_UPDATE_DELETE.invoke(statement);
+			} catch (InvocationTargetException e)
+			{
+				if (e.getCause() instanceof RuntimeException)
+				{
+					throw (RuntimeException) e.getCause();
+				}
+				throw new SQLException(e.getCause().toString());
+			} catch (IllegalAccessException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+		mDb.beginTransaction();
+		try
+		{
+			statement.execute();
+			final long changes = statement(CHANGES).simpleQueryForLong();
+			mDb.setTransactionSuccessful();
+			return changes;
+		} finally
+		{
+			mDb.endTransaction();
+		}
 	}
 
 	/**
-	 * @param rowId
-	 * @return true if deletion is successful or false if failed
+	 * @return SQLiteStatement.executeUpdateDelete() where the platform has it,
+	 *         otherwise null
 	 */
-	public boolean deleteList(long rowId)
+	private static Method updateDeleteMethod()
+	{
+		if (Build.VERSION.SDK_INT < 11)
+		{
+			return null;
+		}
+		try
+		{
+			return SQLiteStatement.class.getMethod("executeUpdateDelete");
+		} catch (NoSuchMethodException e)
+		{
+			Log.w(TAG, "executeUpdateDelete unavailable", e);
+			return null;
+		}
+	}
+
+	private static void bindText(SQLiteStatement statement, int index,
+			String value)
 	{
-		if ((mDb.delete("lists", KEY_ROWID + "=" + rowId, null) > 0)) // DeleteReference
+		if (value == null)
 		{
-			mDb.delete("list_data", "list_id" + "=" + rowId, null); // Delete
-																	// Associated
-																	// Data
-			return true;
+			statement.bindNull(index);
 		} else
 		{
-			return false;
+			statement.bindString(index, value);
 		}
 	}
 
 	/**
-	 * Delete a data row from an associated list
+	 * Bind a note body and its format. Large bodies are compressed, and the
+	 * largest are left out of the row altogether.
 	 * 
-	 * @param rowId
-	 * @return true if successful or fail if failed
+	 * @return the format bound; unless it is plain, the caller must finish
+	 *         the write with {@link #writeBody(long, String, int)}
 	 */
-	public boolean deleteListRow(long rowId)
+	private static int bindBody(SQLiteStatement statement, int index,
+			int formatIndex, String body)
 	{
-		return mDb.delete("list_data", KEY_ROWID + "=" + rowId, null) > 0;
+		if (body != null && body.length() > INLINE_LIMIT)
+		{
+			statement.bindString(index, "");
+			statement.bindLong(formatIndex, BodyCodec.FORMAT_CHUNKED);
+			return BodyCodec.FORMAT_CHUNKED;
+		}
+		final byte[] packed = BodyCodec.compress(body);
+		if (packed == null)
+		{
+			bindText(statement, index, body);
+			statement.bindLong(formatIndex, BodyCodec.FORMAT_PLAIN);
+			return BodyCodec.FORMAT_PLAIN;
+		}
+		statement.bindBlob(index, packed);
+		statement.bindLong(formatIndex, BodyCodec.FORMAT_DEFLATE);
+		return BodyCodec.FORMAT_DEFLATE;
 	}
 
 	/**
-	 * Return a Cursor over the list of all notes in the database
-	 * 
-	 * @return Cursor over all notes
+	 * Store the part of a body that does not live in its notes row.
 	 */
-	public Cursor fetchAllNotes()
+	private void writeBody(long rowId, String body, int format)
 	{
-		return mDb.query(DATABASE_TABLE, new String[] { KEY_ROWID, KEY_TITLE,
-				KEY_DATE, KEY_BODY, KEY_CREATE_DATE }, null, null, null, null,
-				null);
+		if (format == BodyCodec.FORMAT_DEFLATE)
+		{
+			indexBody(rowId, body);
+		} else if (format == BodyCodec.FORMAT_CHUNKED)
+		{
+			long seq = 0;
+			for (String piece : split(body))
+			{
+				insertChunk(rowId, seq, piece);
+				seq += SEQ_STEP;
+			}
+		}
 	}
 
 	/**
-	 * Returns all lists in the database
-	 * 
-	 * @return Cursor of all lists
+	 * Put the text of a compressed body into the search index, which the
+	 * triggers on notes leave empty.
 	 */
-	public Cursor fetchAllLists()
+	private void indexBody(long rowId, String body)
 	{
-
-		return mDb.query("lists", new String[] { KEY_ROWID, KEY_TITLE }, null,
-				null, null, null, null);
+		final SQLiteStatement update = statement(SearchIndex.UPDATE_NOTE_BODY);
+		update.bindString(1, body);
+		update.bindLong(2, rowId);
+		update.execute();
 	}
 
 	/**
-	 * Return a Cursor positioned at the note that matches the given rowId
-	 * 
-	 * @param rowId
-	 *            id of note to retrieve
-	 * @return Cursor positioned to matching note, if found
-	 * @throws SQLException
-	 *             if note could not be found/retrieved
+	 * Set the snippet of a note whose body is stored in chunks from the start
+	 * of its first chunk.
 	 */
-	public Cursor fetchNote(long rowId) throws SQLException
+	private void updateChunkedSnippet(long rowId)
 	{
-
-		Cursor mCursor =
-
-		mDb.query(true, DATABASE_TABLE, new String[] { KEY_ROWID, KEY_TITLE,
-				KEY_DATE, KEY_BODY, KEY_CREATE_DATE }, KEY_ROWID + "=" + rowId,
-				null, null, null, null, null);
-		if (mCursor != null)
+		final Cursor first = mDb.rawQuery(FIRST_CHUNK_TEXT, args(rowId));
+		final String text;
+		try
 		{
-			mCursor.moveToFirst();
+			text = first.moveToFirst() ? first.getString(0) : null;
+		} finally
+		{
+			first.close();
 		}
-		return mCursor;
-
+		final SQLiteStatement update = statement(UPDATE_NOTE_SNIPPET);
+		update.bindString(1, snippetOf(text));
+		update.bindLong(2, rowId);
+		update.execute();
 	}
-	
+
 	/**
-	 * @param rowId
-	 * 	id of a specific list
-	 * @return Cursor
-	 * 	Cursor positioned to the fields of a list
-	 * @throws SQLException
+	 * @return the first SNIPPET_LENGTH characters of a body, with each run
+	 *         of whitespace made a single space, reading no further into the
+	 *         body than that takes
 	 */
-	public Cursor fetchList(long rowId) throws SQLException
+	static String snippetOf(String body)
 	{
-
-		Cursor mCursor = mDb.query(true, "lists", new String[] { KEY_ROWID,
-				"title", "create_date" }, KEY_ROWID + "=" + rowId, null, null,
-				null, null, null);
-		if (mCursor != null)
+		if (body == null)
 		{
-			mCursor.moveToFirst();
+			return "";
 		}
-		return mCursor;
+		final StringBuilder snippet = new StringBuilder(SNIPPET_LENGTH);
+		boolean space = false;
+		for (int i = 0; i < body.length() && snippet.length() < SNIPPET_LENGTH; i++)
+		{
+			final char c = body.charAt(i);
+			if (Character.isWhitespace(c))
+			{
+				space = snippet.length() > 0;
+			} else
+			{
+				if (space)
+				{
+					snippet.append(' ');
+					space = false;
+				}
+				snippet.append(c);
+			}
+		}
+		if (snippet.length() > SNIPPET_LENGTH)
+		{
+			snippet.setLength(SNIPPET_LENGTH);
+		}
+		return snippet.toString();
 	}
 
 	/**
-	 * @param listId
-	 * 	listId of the list whose data it is retrieving
-	 * @return Cursor positioned at the list data retreived
-	 * @throws SQLException
+	 * Make the snippet of every note, for databases that predate the column.
+	 * This walks every note inside the onUpgrade transaction with no progress
+	 * record, so an upgrade interrupted part way starts over; only the first
+	 * chunk of a chunked body is read, which keeps each row cheap.
 	 */
-	public Cursor fetchListData(long listId) throws SQLException
+	private static void fillSnippets(SQLiteDatabase db)
 	{
-
-		Cursor mCursor = mDb.query(true, "list_data", new String[] { KEY_ROWID,
-				"list_id", "item_data", "checked" }, "list_id" + "=" + listId,
-				null, null, null, null, null);
-		if (mCursor != null)
+		final SQLiteStatement update = db.compileStatement(UPDATE_NOTE_SNIPPET);
+		final Cursor notes = new BodyCodec.BodyCursor(db.rawQuery(
+				"SELECT _id, body, body_format FROM notes", null));
+		try
 		{
-			mCursor.moveToFirst();
+			while (notes.moveToNext())
+			{
+				String body;
+				if (notes.getInt(2) == BodyCodec.FORMAT_CHUNKED)
+				{
+					body = DatabaseUtils.stringForQuery(db,
+							"SELECT ifnull((" + FIRST_CHUNK_TEXT + "), '')",
+							args(notes.getLong(0)));
+				} else
+				{
+					body = notes.getString(1);
+				}
+				update.bindString(1, snippetOf(body));
+				update.bindLong(2, notes.getLong(0));
+				update.execute();
+			}
+		} finally
+		{
+			notes.close();
+			update.close();
 		}
-		return mCursor;
 	}
 
 	/**
-	 * Update the note using the details provided. The note to be updated is
-	 * specified using the rowId, and it is altered to use the title and body
-	 * values passed in
-	 * 
-	 * @param rowId
-	 *            id of note to update
-	 * @param title
-	 *            value to set note title to
-	 * @param body
-	 *            value to set note body to
-	 * @return true if the note was successfully updated, false otherwise
+	 * Group the writes that follow into one transaction, for callers that make
+	 * many of them in a row. Transactions nest.
 	 */
-	public boolean updateNote(long rowId, String title, String date, String body)
+	public void beginTransaction()
+	{
+		mDb.beginTransaction();
+	}
+
+	public void setTransactionSuccessful()
 	{
-		ContentValues args = new ContentValues();
-		args.put(KEY_TITLE, title);
-		args.put(KEY_DATE, date);
-		args.put(KEY_BODY, body);
+		mDb.setTransactionSuccessful();
+	}
 
-		return mDb.update(DATABASE_TABLE, args, KEY_ROWID + "=" + rowId, null) > 0;
+	public void endTransaction()
+	{
+		mDb.endTransaction();
+		if (!mDb.inTransaction())
+		{
+			dispatchChanges();
+		}
 	}
 
 	/**
-	 * @param rowId
-	 * 	rowId of the list to be updated
-	 * @param title
-	 * 	value to set the list title to
-	 * @return
-	 * 	true if the note was successfully updated, false otherwise
+	 * Tell observers of a {@link NotesUris} URI that its data changed,
+	 * and drop what RowCache holds for it. Inside a transaction the
+	 * notification is held back until the outermost one ends, so a batch of
+	 * writes notifies each URI once; the cache is invalidated again then, in
+	 * case a reader cached the old row before the commit.
 	 */
-	public boolean updateList(long rowId, String title)
+	private void notifyChange(Uri uri)
+	{
+		RowCache.get().invalidate(uri);
+		if (mDb.inTransaction())
+		{
+			synchronized (mPendingChanges)
+			{
+				mPendingChanges.add(uri);
+			}
+			return;
+		}
+		mCtx.getContentResolver().notifyChange(uri, null);
+	}
+
+	private void dispatchChanges()
+	{
+		final Uri[] changed;
+		synchronized (mPendingChanges)
+		{
+			changed = mPendingChanges.toArray(new Uri[mPendingChanges.size()]);
+			mPendingChanges.clear();
+		}
+		for (Uri uri : changed)
+		{
+			RowCache.get().invalidate(uri);
+			mCtx.getContentResolver().notifyChange(uri, null);
+		}
+	}
+
+	private static Uri noteUri(long rowId)
 	{
-		ContentValues args = new ContentValues();
-		args.put(KEY_TITLE, title);
+		return ContentUris.withAppendedId(NotesUris.NOTES_URI, rowId);
+	}
 
-		return mDb.update("lists", args, KEY_ROWID + "=" + rowId, null) > 0;
+	private static Uri listUri(long rowId)
+	{
+		return ContentUris.withAppendedId(NotesUris.LISTS_URI, rowId);
 	}
 
 	/**
-	 * @param rowId
-	 * 	rowId of the data row to be updated
-	 * @param description
-	 * 	value to set the item_data field to
-	 * @param isChecked
-	 * 	value to set the isChecked field to
-	 * @return
-	 * 	true if the note was successfully updated, false otherwise
+	 * @return whether any rows changed, notifying uri if they did
 	 */
-	public boolean updateListData(long rowId, String description, int isChecked)
+	private boolean notifyIfChanged(long changes, Uri uri)
+	{
+		if (changes == 0)
+		{
+			return false;
+		}
+		notifyChange(uri);
+		return true;
+	}
+
+	private static String[] args(long value)
 	{
-		ContentValues args = new ContentValues();
-		args.put("item_data", description);
-		args.put("checked", isChecked);
-		return mDb.update("list_data", args, KEY_ROWID + "=" + rowId, null) > 0;
+		return new String[] { Long.toString(value) };
 	}
 
 	/**
-	 * @param rowId
-	 * 	rowId of the note whose creation date is being retrieved
-	 * @return
-	 * 	Cursor positioned to the creation date
+	 * Create a new note using the title and body provided. If the note is
+	 * successfully created return the new rowId for that note, otherwise return
+	 * a -1 to indicate failure.
+	 * 
+	 * @param title
+	 *            the title of the note
+	 * @param date
+	 *            due date of the note, in milliseconds since the epoch
+	 * @param body
+	 *            the body of the note
+	 * @param create_date
+	 *            creation time of the note, in milliseconds since the epoch
+	 * @return rowId or -1 if failed
 	 */
-	public Cursor getNoteCreateDate(long rowId)
+	public long createNote(String title, long date, String body,
+			long create_date)
 	{
-		Cursor mCursor = mDb.query(true, DATABASE_TABLE,
-				new String[] { KEY_CREATE_DATE }, KEY_ROWID + "=" + rowId,
-				null, null, null, null, null);
-		if (mCursor != null)
+		final SQLiteStatement insert = statement(INSERT_NOTE);
+		bindText(insert, 1, title);
+		insert.bindLong(2, date);
+		final int format = bindBody(insert, 3, 4, body);
+		insert.bindLong(5, create_date);
+		insert.bindString(6, snippetOf(body));
+		long rowId;
+		if (format == BodyCodec.FORMAT_PLAIN)
 		{
-			mCursor.moveToFirst();
+			rowId = executeInsert(insert);
+		} else
+		{
+			mDb.beginTransaction();
+			try
+			{
+				rowId = executeInsert(insert);
+				if (rowId != -1)
+				{
+					writeBody(rowId, body, format);
+					mDb.setTransactionSuccessful();
+				}
+			} finally
+			{
+				mDb.endTransaction();
+			}
 		}
-		return mCursor;
+		if (rowId != -1)
+		{
+			notifyChange(noteUri(rowId));
+		}
+		return rowId;
 	}
 
 	/**
-	 * @param rowId
-	 * 	rowId of the list whose creation is being retrieved
-	 * @return
-	 * 	Cursor positioned to the create date
+	 * @param title
+	 * 	Title of the list
+	 * @param create_date
+	 *  Creation time of the list, in milliseconds since the epoch
+	 * @return rowId or -1 if failed
 	 */
-	public Cursor getListCreateDate(long rowId)
+	public long createList(String title, long create_date)
 	{
-		Cursor mCursor = mDb.query(true, "lists",
-				new String[] { KEY_CREATE_DATE }, KEY_ROWID + "=" + rowId,
-				null, null, null, null, null);
-		if (mCursor != null)
+		final SQLiteStatement insert = statement(INSERT_LIST);
+		bindText(insert, 1, title);
+		insert.bindLong(2, create_date);
+		final long rowId = executeInsert(insert);
+		if (rowId != -1)
 		{
-			mCursor.moveToFirst();
+			notifyChange(listUri(rowId));
 		}
-		return mCursor;
+		return rowId;
 	}
 
 	/**
-	 * @param rowId
-	 * 	rowId of the list whoese title will be updated
-	 * @param newTitle
+	 * @param listId
+	 *  References the associated rowId of the list that contains this data
+	 * @param data
+	 * 	Contains the description of the row
+	 * @param checked
+	 * 	1 if the row is check or 0 if it is not
+	 * @return rowId or -1 if failed
+	 */
+	public long createListRowData(long listId, String data, int checked)
+	{
+		final String position = nextPosition(listId);
+		final SQLiteStatement insert = statement(INSERT_LIST_ROW);
+		insert.bindLong(1, listId);
+		bindText(insert, 2, data);
+		insert.bindLong(3, checked);
+		insert.bindString(4, position);
+		final long rowId = executeInsert(insert);
+		if (rowId != -1)
+		{
+			if (PositionKey.isTooLong(position))
+			{
+				rebalanceList(mDb, listId);
+			}
+			notifyChange(listUri(listId));
+		}
+		return rowId;
+	}
+
+	/**
+	 * @return a position after every row of a list
+	 */
+	private String nextPosition(long listId)
+	{
+		final SQLiteStatement last = statement(LAST_LIST_ROW_POSITION);
+		last.bindLong(1, listId);
+		return PositionKey.between(last.simpleQueryForString(), null);
+	}
+
+	/**
+	 * Give the rows of a list fresh, evenly spaced positions, keeping their
+	 * order. Needed once keys have grown long from rows squeezed into the
+	 * same gap; it rewrites every row, so it is left for the writer thread
+	 * and done rarely.
+	 */
+	private static void rebalanceList(SQLiteDatabase db, long listId)
+	{
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		final Cursor c = db.query("list_data", new String[] { KEY_ROWID },
+				"list_id = ?", args(listId), null, null, KEY_POSITION + ", "
+						+ KEY_ROWID);
+		try
+		{
+			while (c.moveToNext())
+			{
+				ids.add(c.getLong(0));
+			}
+		} finally
+		{
+			c.close();
+		}
+		final String[] keys = PositionKey.spread(ids.size());
+		final SQLiteStatement update = db
+				.compileStatement(UPDATE_LIST_ROW_POSITION);
+		db.beginTransaction();
+		try
+		{
+			for (int i = 0; i < keys.length; i++)
+			{
+				update.bindString(1, keys[i]);
+				update.bindLong(2, ids.get(i));
+				update.execute();
+			}
+			db.setTransactionSuccessful();
+		} finally
+		{
+			db.endTransaction();
+			update.close();
+		}
+	}
+
+	/**
+	 * Write every pending change to the rows of one list in a single
+	 * transaction. The cached insert, update and delete statements are rebound
+	 * for each row, so a large list costs one journal commit instead of one
+	 * per row. Updates and deletes only apply to a row still at the version
+	 * it was read at; a row changed since then by another save is left as it
+	 * is and reported back. A row that was only moved has just its position
+	 * written, whatever its version.
+	 *
+	 * @param listId
+	 *            rowId of the list that owns the rows
+	 * @param inserted
+	 *            rows that have not been persisted yet; each is given its new
+	 *            rowId, and a position after the others if it has none
+	 * @param updated
+	 *            persisted rows whose values should be rewritten; each is
+	 *            given its new version
+	 * @param moved
+	 *            persisted rows whose position alone should be rewritten
+	 * @param removed
+	 *            persisted rows that should be deleted
+	 * @return the updated and removed rows that were stale and not written
+	 * @throws SQLException
+	 *             if any of the writes failed, in which case none of them are
+	 *             applied
+	 */
+	public List<ListRow> saveListRows(long listId, List<ListRow> inserted,
+			List<ListRow> updated, List<ListRow> moved, List<ListRow> removed)
+			throws SQLException
+	{
+		final ArrayList<ListRow> stale = new ArrayList<ListRow>();
+		final SQLiteStatement insert = statement(INSERT_LIST_ROW);
+		final SQLiteStatement update = statement(UPDATE_LIST_ROW_VERSION);
+		final SQLiteStatement move = statement(UPDATE_LIST_ROW_POSITION);
+		final SQLiteStatement delete = statement(DELETE_LIST_ROW_VERSION);
+
+		mDb.beginTransaction();
+		try
+		{
+			for (int i = 0; i < inserted.size(); i++)
+			{
+				final ListRow row = inserted.get(i);
+				if (row.getPosition() == null)
+				{
+					row.setPosition(nextPosition(listId));
+				}
+				insert.bindLong(1, listId);
+				insert.bindString(2, itemData(row));
+				insert.bindLong(3, row.getIsChecked());
+				insert.bindString(4, row.getPosition());
+				row.setId(insert.executeInsert());
+				row.setVersion(0);
+			}
+			for (int i = 0; i < updated.size(); i++)
+			{
+				final ListRow row = updated.get(i);
+				update.bindString(1, itemData(row));
+				update.bindLong(2, row.getIsChecked());
+				bindText(update, 3, row.getPosition());
+				update.bindLong(4, row.getId());
+				update.bindLong(5, row.getVersion());
+				if (executeUpdateDelete(update) == 0)
+				{
+					stale.add(row);
+				} else
+				{
+					row.setVersion(row.getVersion() + 1);
+				}
+			}
+			for (int i = 0; i < moved.size(); i++)
+			{
+				final ListRow row = moved.get(i);
+				move.bindString(1, row.getPosition());
+				move.bindLong(2, row.getId());
+				move.execute();
+			}
+			for (int i = 0; i < removed.size(); i++)
+			{
+				final ListRow row = removed.get(i);
+				delete.bindLong(1, row.getId());
+				delete.bindLong(2, row.getVersion());
+				if (executeUpdateDelete(delete) == 0)
+				{
+					stale.add(row);
+				}
+			}
+			mDb.setTransactionSuccessful();
+		} finally
+		{
+			mDb.endTransaction();
+		}
+		if (!inserted.isEmpty() || !moved.isEmpty()
+				|| stale.size() < updated.size() + removed.size())
+		{
+			notifyChange(listUri(listId));
+		}
+		return stale;
+	}
+
+	private static String itemData(ListRow row)
+	{
+		return (row.getRowDescription() == null) ? "" : row
+				.getRowDescription();
+	}
+
+	/**
+	 * Move the note with the given rowId to the trash. It stays in the
+	 * database, out of every listing, until it is restored or purged.
+	 * 
+	 * @param rowId
+	 *            id of note to delete
+	 * @return true if deleted, false otherwise
+	 */
+	public boolean deleteNote(long rowId)
+	{
+		final SQLiteStatement trash = statement(TRASH_NOTE);
+		trash.bindLong(1, System.currentTimeMillis());
+		trash.bindLong(2, rowId);
+		return notifyIfChanged(executeUpdateDelete(trash), noteUri(rowId));
+	}
+
+	/**
+	 * Move a list to the trash. Its data rows stay with it.
+	 * 
+	 * @param rowId
+	 * @return true if deletion is successful or false if failed
+	 */
+	public boolean deleteList(long rowId)
+	{
+		final SQLiteStatement trash = statement(TRASH_LIST);
+		trash.bindLong(1, System.currentTimeMillis());
+		trash.bindLong(2, rowId);
+		return notifyIfChanged(executeUpdateDelete(trash), listUri(rowId));
+	}
+
+	/**
+	 * Move many notes to the trash with one statement in one transaction.
+	 * Observers of {@link NotesUris#NOTES_URI} are notified once.
+	 * 
+	 * @return the number of notes deleted
+	 */
+	public int deleteNotes(long[] rowIds)
+	{
+		return executeIn("UPDATE " + DATABASE_TABLE + " SET deleted_at = "
+				+ System.currentTimeMillis() + " WHERE _id IN ("
+				+ idList(rowIds) + ") AND deleted_at IS NULL",
+				NotesUris.NOTES_URI);
+	}
+
+	/**
+	 * Move many lists to the trash with one statement in one transaction.
+	 * 
+	 * @return the number of lists deleted
+	 */
+	public int deleteLists(long[] rowIds)
+	{
+		return executeIn("UPDATE lists SET deleted_at = "
+				+ System.currentTimeMillis() + " WHERE _id IN ("
+				+ idList(rowIds) + ") AND deleted_at IS NULL",
+				NotesUris.LISTS_URI);
+	}
+
+	/**
+	 * Take notes back out of the trash.
+	 * 
+	 * @return the number of notes restored
+	 */
+	public int restoreNotes(long[] rowIds)
+	{
+		return executeIn("UPDATE " + DATABASE_TABLE
+				+ " SET deleted_at = NULL WHERE _id IN (" + idList(rowIds)
+				+ ")", NotesUris.NOTES_URI);
+	}
+
+	/**
+	 * Take lists back out of the trash.
+	 * 
+	 * @return the number of lists restored
+	 */
+	public int restoreLists(long[] rowIds)
+	{
+		return executeIn("UPDATE lists SET deleted_at = NULL WHERE _id IN ("
+				+ idList(rowIds) + ")", NotesUris.LISTS_URI);
+	}
+
+	/**
+	 * Delete for good up to limit notes and lists that were put in the trash
+	 * before a given time, in one transaction. Chunks and revisions of the
+	 * notes, and the rows of the lists, go with them by cascade. Call again
+	 * until fewer than limit come back, so other writes get a turn in
+	 * between.
+	 * 
+	 * @param before
+	 *            purge what was trashed before this time, in milliseconds
+	 *            since the epoch
+	 * @return the number of notes and lists deleted
+	 */
+	public int purgeTrash(long before, int limit)
+	{
+		final SQLiteStatement notes = statement(PURGE_NOTES);
+		final SQLiteStatement lists = statement(PURGE_LISTS);
+		long purgedNotes = 0;
+		long purgedLists = 0;
+		mDb.beginTransaction();
+		try
+		{
+			notes.bindLong(1, before);
+			notes.bindLong(2, limit);
+			purgedNotes = executeUpdateDelete(notes);
+			if (purgedNotes < limit)
+			{
+				lists.bindLong(1, before);
+				lists.bindLong(2, limit - purgedNotes);
+				purgedLists = executeUpdateDelete(lists);
+			}
+			mDb.setTransactionSuccessful();
+		} finally
+		{
+			mDb.endTransaction();
+		}
+		notifyIfChanged(purgedNotes, NotesUris.NOTES_URI);
+		notifyIfChanged(purgedLists, NotesUris.LISTS_URI);
+		return (int) (purgedNotes + purgedLists);
+	}
+
+	/**
+	 * Give the pages freed by purges back to the file system, once they are
+	 * more than a quarter of the database. Must not be called inside a
+	 * transaction.
+	 * <p>
+	 * VACUUM fails while another thread is reading, from a cursor on the
+	 * shared connection or, with write-ahead logging, from a connection of
+	 * its own. The free pages then stay where they are and the next call,
+	 * after a later purge, tries again.
+	 * 
+	 * @return true if the database was compacted
+	 */
+	public boolean reclaimSpace()
+	{
+		final long free = DatabaseUtils.longForQuery(mDb,
+				"PRAGMA freelist_count", null);
+		final long pages = DatabaseUtils.longForQuery(mDb,
+				"PRAGMA page_count", null);
+		if (free * 4 <= pages)
+		{
+			return false;
+		}
+		final long start = SystemClock.elapsedRealtime();
+		try
+		{
+			mDb.execSQL("VACUUM");
+		} catch (SQLiteException e)
+		{
+			Log.w(TAG, "Could not reclaim " + free + " of " + pages
+					+ " pages, will retry after the next purge", e);
+			return false;
+		}
+		Log.i(TAG, "Reclaimed " + free + " of " + pages + " pages in "
+				+ (SystemClock.elapsedRealtime() - start) + " ms");
+		return true;
+	}
+
+	/**
+	 * Run an UPDATE or DELETE over an IN list in one transaction and notify
+	 * the given URI once if it changed anything.
+	 */
+	private int executeIn(String sql, Uri uri)
+	{
+		final SQLiteStatement statement = mDb.compileStatement(sql);
+		final long changes;
+		mDb.beginTransaction();
+		try
+		{
+			changes = executeUpdateDelete(statement);
+			mDb.setTransactionSuccessful();
+		} finally
+		{
+			mDb.endTransaction();
+			statement.close();
+		}
+		notifyIfChanged(changes, uri);
+		return (int) changes;
+	}
+
+	/**
+	 * Write ids out for an IN list. Ids are numbers, so this is safe to put in
+	 * a statement, and unlike bound parameters has no limit on their count.
+	 */
+	private static String idList(long[] ids)
+	{
+		final StringBuilder list = new StringBuilder(ids.length * 6);
+		for (int i = 0; i < ids.length; i++)
+		{
+			if (i > 0)
+			{
+				list.append(',');
+			}
+			list.append(ids[i]);
+		}
+		return list.toString();
+	}
+
+	/**
+	 * Delete a data row from an associated list
+	 * 
+	 * @param rowId
+	 * @return true if successful or fail if failed
+	 */
+	public boolean deleteListRow(long rowId)
+	{
+		final SQLiteStatement delete = statement(DELETE_LIST_ROW);
+		delete.bindLong(1, rowId);
+		return notifyIfChanged(executeUpdateDelete(delete),
+				NotesUris.LISTS_URI);
+	}
+
+	/**
+	 * Return one page of the notes that are not in the trash, in order of id.
+	 * Each page starts after the last note of the previous one, so reading
+	 * them all takes a short query per page rather than one long one. The
+	 * unary + keeps SQLite off the indexes that lead with deleted_at, which
+	 * would gather and sort every live note for each page instead of walking
+	 * the table on from afterId.
+	 * 
+	 * @param afterId
+	 *            rowId of the last note of the previous page, or
+	 *            Long.MIN_VALUE for the first page
+	 * @param limit
+	 *            number of notes in the page
+	 * @return Cursor over the _id, title, due date, body, body format and
+	 *         creation date of the notes
+	 */
+	public Cursor fetchNotesAfter(long afterId, int limit)
+	{
+		return new BodyCodec.BodyCursor(mDb.query(DATABASE_TABLE, new String[] {
+				KEY_ROWID, KEY_TITLE, KEY_DATE, KEY_BODY, KEY_BODY_FORMAT,
+				KEY_CREATE_DATE }, "+" + KEY_DELETED_AT + " IS NULL AND "
+				+ KEY_ROWID + ">?", args(afterId), null, null, KEY_ROWID,
+				Integer.toString(limit)));
+	}
+
+	/**
+	 * Query a table for NotesProvider, which has checked the columns against
+	 * those its URI allows. A body is handed out as text, so body_format is
+	 * added to columns that name the body without it.
+	 */
+	Cursor query(String table, String[] columns, String selection,
+			String[] selectionArgs, String orderBy)
+	{
+		final List<String> names = Arrays.asList(columns);
+		if (!names.contains(KEY_BODY))
+		{
+			return mDb.query(table, columns, selection, selectionArgs, null,
+					null, orderBy);
+		}
+		if (!names.contains(KEY_BODY_FORMAT))
+		{
+			final String[] withFormat = new String[columns.length + 1];
+			System.arraycopy(columns, 0, withFormat, 0, columns.length);
+			withFormat[columns.length] = KEY_BODY_FORMAT;
+			columns = withFormat;
+		}
+		return new BodyCodec.BodyCursor(mDb.query(table, columns, selection,
+				selectionArgs, null, null, orderBy));
+	}
+
+	/**
+	 * Return a Cursor over the notes with the given ids, with the same
+	 * columns as {@link #fetchNotesAfter(long, int)}
+	 */
+	public Cursor fetchNotes(long[] rowIds)
+	{
+		return new BodyCodec.BodyCursor(mDb.query(DATABASE_TABLE, new String[] {
+				KEY_ROWID, KEY_TITLE, KEY_DATE, KEY_BODY, KEY_BODY_FORMAT,
+				KEY_CREATE_DATE }, KEY_ROWID + " IN (" + idList(rowIds) + ")",
+				null, null, null, KEY_ROWID));
+	}
+
+	/**
+	 * Return one page of the notes list. Only the columns shown in the list are
+	 * read, and the page starts after the last note of the previous one, so
+	 * each page is a range scan on the index of the sort column however far
+	 * down it is.
+	 * 
+	 * @param sortOrder
+	 *            {@link #SORT_BY_CREATED} or {@link #SORT_BY_DUE}
+	 * @param afterKey
+	 *            sort key of the last note already shown, or Long.MIN_VALUE
+	 *            for the first page
+	 * @param afterId
+	 *            rowId of the last note already shown, or Long.MIN_VALUE for
+	 *            the first page
+	 * @param limit
+	 *            number of notes in the page
+	 * @return Cursor over the _id, title, snippet, creation date and sort_key
+	 *         of the notes
+	 */
+	public Cursor fetchNoteTitles(int sortOrder, long afterKey, long afterId,
+			int limit)
+	{
+		final String key = (sortOrder == SORT_BY_DUE) ? KEY_DATE
+				: KEY_CREATE_DATE;
+		final String after = Long.toString(afterKey);
+		return mDb.query(DATABASE_TABLE, new String[] { KEY_ROWID, KEY_TITLE,
+				KEY_SNIPPET, KEY_CREATE_DATE, key + " AS " + KEY_SORT },
+				KEY_DELETED_AT + " IS NULL AND " + key + ">=? AND (" + key
+						+ ">? OR " + KEY_ROWID + ">?)",
+				new String[] { after, after, Long.toString(afterId) }, null,
+				null, key + ", " + KEY_ROWID, Integer.toString(limit));
+	}
+
+	/**
+	 * Return the notes due in a range of time, earliest first.
+	 * 
+	 * @param from
+	 *            start of the range, inclusive, in milliseconds since the epoch
+	 * @param to
+	 *            end of the range, exclusive, in milliseconds since the epoch
+	 * @return Cursor over the _id, title and due date of the notes
+	 */
+	public Cursor fetchNotesDueBetween(long from, long to)
+	{
+		return mDb.query(DATABASE_TABLE, new String[] { KEY_ROWID, KEY_TITLE,
+				KEY_DATE }, KEY_DELETED_AT + " IS NULL AND " + KEY_DATE
+				+ ">=? AND " + KEY_DATE + "<?",
+				new String[] { Long.toString(from), Long.toString(to) }, null,
+				null, KEY_DATE + ", " + KEY_ROWID);
+	}
+
+	/**
+	 * Search note titles, note bodies and list items. Notes match on their
+	 * title or body; lists match once for each of their items that matches.
+	 * Results are ordered by the number of matched terms.
+	 * 
+	 * @param query
+	 *            text typed by the user, every word is matched as a prefix
+	 * @param limit
+	 *            maximum number of results to return
+	 * @param offset
+	 *            number of results to skip
+	 * @return Cursor over _id, note_id (null for list items), list_id (null
+	 *         for notes), title and snippet, or null if the query has no
+	 *         searchable words
+	 * @see SearchIndex#highlight(String)
+	 */
+	public Cursor search(String query, int limit, int offset)
+	{
+		final String match = SearchIndex.toMatchQuery(query);
+		if (match == null)
+		{
+			return null;
+		}
+		return mDb.rawQuery(SearchIndex.SEARCH_QUERY, new String[] { match,
+				match, match, Integer.toString(limit), Integer.toString(offset) });
+	}
+
+	/**
+	 * Returns all lists in the database, with the number of items and of
+	 * checked items in each
+	 * 
+	 * @return Cursor of all lists
+	 */
+	public Cursor fetchAllLists()
+	{
+
+		return mDb.query("lists", new String[] { KEY_ROWID, KEY_TITLE,
+				KEY_CREATE_DATE, KEY_ITEM_COUNT, KEY_CHECKED_COUNT },
+				KEY_DELETED_AT + " IS NULL", null, null, null, KEY_ROWID);
+	}
+
+	/**
+	 * Returns every note and list in the trash, most recently deleted first
+	 * 
+	 * @return Cursor over _id, note_id (null for lists), list_id (null for
+	 *         notes), title and deleted_at
+	 */
+	public Cursor fetchTrash()
+	{
+		return mDb.rawQuery(FETCH_TRASH, null);
+	}
+
+	/**
+	 * Returns one page of the lists that are not in the trash, with the same
+	 * columns and order as {@link #fetchAllLists()}
+	 * 
+	 * @param afterId
+	 *            rowId of the last list of the previous page, or
+	 *            Long.MIN_VALUE for the first page
+	 * @param limit
+	 *            number of lists in the page
+	 */
+	public Cursor fetchListsAfter(long afterId, int limit)
+	{
+		return mDb.query("lists", new String[] { KEY_ROWID, KEY_TITLE,
+				KEY_CREATE_DATE, KEY_ITEM_COUNT, KEY_CHECKED_COUNT },
+				KEY_DELETED_AT + " IS NULL AND " + KEY_ROWID + ">?",
+				args(afterId), null, null, KEY_ROWID, Integer.toString(limit));
+	}
+
+	/**
+	 * Returns the lists with the given ids, with the same columns and order
+	 * as {@link #fetchAllLists()}
+	 */
+	public Cursor fetchLists(long[] rowIds)
+	{
+		return mDb.query("lists", new String[] { KEY_ROWID, KEY_TITLE,
+				KEY_CREATE_DATE, KEY_ITEM_COUNT, KEY_CHECKED_COUNT }, KEY_ROWID
+				+ " IN (" + idList(rowIds) + ")", null, null, null, KEY_ROWID);
+	}
+
+	/**
+	 * Returns the rows of the lists with the given ids, grouped by list in the
+	 * order of {@link #fetchLists(long[])}
+	 */
+	public Cursor fetchListData(long[] listIds)
+	{
+		return mDb.query("list_data", new String[] { KEY_ROWID, "list_id",
+				"item_data", "checked" }, "list_id IN (" + idList(listIds)
+				+ ")", null, null, null, "list_id, " + KEY_POSITION + ", "
+				+ KEY_ROWID);
+	}
+
+	/**
+	 * Return a Cursor positioned at the note that matches the given rowId
+	 * 
+	 * @param rowId
+	 *            id of note to retrieve
+	 * @return Cursor positioned to matching note, if found
+	 * @throws SQLException
+	 *             if note could not be found/retrieved
+	 */
+	public Cursor fetchNote(long rowId) throws SQLException
+	{
+
+		Cursor mCursor = new BodyCodec.BodyCursor(mDb.query(DATABASE_TABLE,
+				new String[] { KEY_ROWID, KEY_TITLE, KEY_DATE, KEY_BODY,
+						KEY_BODY_FORMAT, KEY_CREATE_DATE }, KEY_ROWID + "=?",
+				args(rowId), null, null, null));
+		if (mCursor != null)
+		{
+			mCursor.moveToFirst();
+		}
+		return mCursor;
+
+	}
+	
+	/**
+	 * @param rowId
+	 * 	id of a specific list
+	 * @return Cursor
+	 * 	Cursor positioned to the fields of a list
+	 * @throws SQLException
+	 */
+	public Cursor fetchList(long rowId) throws SQLException
+	{
+
+		Cursor mCursor = mDb.query("lists", new String[] { KEY_ROWID,
+				KEY_TITLE, KEY_CREATE_DATE }, KEY_ROWID + "=?", args(rowId),
+				null, null, null);
+		if (mCursor != null)
+		{
+			mCursor.moveToFirst();
+		}
+		return mCursor;
+	}
+
+	/**
+	 * Return a note as last saved, from RowCache if it holds it, otherwise
+	 * read from the database and cached.
+	 * 
+	 * @param rowId
+	 *            id of the note to load
+	 * @return the note, or null if there is none with that id. A body stored
+	 *         in chunks is left null, see {@link #fetchChunks(long, long, int)}.
+	 */
+	public Note loadNote(long rowId)
+	{
+		final RowCache cache = RowCache.get();
+		Note note = cache.getNote(rowId);
+		if (note != null)
+		{
+			return note;
+		}
+		final long stamp = cache.stamp();
+		final Cursor c = fetchNote(rowId);
+		try
+		{
+			if (c.getCount() == 0)
+			{
+				return null;
+			}
+			final boolean chunked = c.getInt(c
+					.getColumnIndexOrThrow(KEY_BODY_FORMAT)) == BodyCodec.FORMAT_CHUNKED;
+			note = new Note(c.getString(c.getColumnIndexOrThrow(KEY_TITLE)),
+					c.getLong(c.getColumnIndexOrThrow(KEY_DATE)), chunked ? null
+							: c.getString(c.getColumnIndexOrThrow(KEY_BODY)));
+		} finally
+		{
+			c.close();
+		}
+		cache.putNote(rowId, note, stamp);
+		return note;
+	}
+
+	/**
+	 * Return the rows of a list as last saved, in list order, from RowCache
+	 * if it holds them, otherwise read from the database and cached. The rows
+	 * are the caller's to change.
+	 */
+	public List<ListRow> loadListRows(long listId)
+	{
+		final RowCache cache = RowCache.get();
+		List<ListRow> rows = cache.getListRows(listId);
+		if (rows != null)
+		{
+			return rows;
+		}
+		final long stamp = cache.stamp();
+		rows = new ArrayList<ListRow>();
+		final Cursor c = fetchListData(listId);
+		try
+		{
+			final int id = c.getColumnIndexOrThrow(KEY_ROWID);
+			final int item = c.getColumnIndexOrThrow("item_data");
+			final int checked = c.getColumnIndexOrThrow("checked");
+			final int version = c.getColumnIndexOrThrow(KEY_VERSION);
+			final int position = c.getColumnIndexOrThrow(KEY_POSITION);
+			for (boolean more = c.getCount() > 0; more; more = c.moveToNext())
+			{
+				rows.add(new ListRow(c.getLong(id), listId, c.getString(item),
+						c.getInt(checked), c.getLong(version), c
+								.getString(position)));
+			}
+		} finally
+		{
+			c.close();
+		}
+		cache.putListRows(listId, rows, stamp);
+		return rows;
+	}
+
+	/**
+	 * @param listId
+	 * 	listId of the list whose data it is retrieving
+	 * @return Cursor positioned at the list data retreived
+	 * @throws SQLException
+	 */
+	public Cursor fetchListData(long listId) throws SQLException
+	{
+
+		Cursor mCursor = mDb.query("list_data", new String[] { KEY_ROWID,
+				"list_id", "item_data", "checked", KEY_VERSION, KEY_POSITION },
+				"list_id" + "=?",
+				args(listId), null, null, KEY_POSITION + ", " + KEY_ROWID);
+		if (mCursor != null)
+		{
+			mCursor.moveToFirst();
+		}
+		return mCursor;
+	}
+
+	/**
+	 * Update the note using the details provided. The note to be updated is
+	 * specified using the rowId, and it is altered to use the title and body
+	 * values passed in
+	 * 
+	 * @param rowId
+	 *            id of note to update
+	 * @param title
+	 *            value to set note title to
+	 * @param date
+	 *            value to set the due date to, in milliseconds since the epoch
+	 * @param body
+	 *            value to set note body to
+	 * @return true if the note was successfully updated, false otherwise
+	 */
+	public boolean updateNote(long rowId, String title, long date, String body)
+	{
+		final SQLiteStatement update = statement(UPDATE_NOTE);
+		bindText(update, 1, title);
+		update.bindLong(2, date);
+		final int format = bindBody(update, 3, 4, body);
+		update.bindString(5, snippetOf(body));
+		update.bindLong(6, rowId);
+		final boolean updated;
+		mDb.beginTransaction();
+		try
+		{
+			recordRevision(rowId, title, body);
+			updated = executeUpdateDelete(update) > 0;
+			if (updated)
+			{
+				// Drop the chunks of a body that used to be stored in pieces
+				final SQLiteStatement delete = statement(DELETE_NOTE_CHUNKS);
+				delete.bindLong(1, rowId);
+				delete.execute();
+				writeBody(rowId, body, format);
+			}
+			mDb.setTransactionSuccessful();
+		} finally
+		{
+			mDb.endTransaction();
+		}
+		return notifyIfChanged(updated ? 1 : 0, noteUri(rowId));
+	}
+
+	/**
+	 * Add the text a note is about to be saved with to its history. The
+	 * history is a chain of revisions, each a delta against the one before,
+	 * with a full snapshot every SNAPSHOT_INTERVAL revisions so rebuilding
+	 * one never replays more than that many deltas. If the note was changed
+	 * without a revision being kept, its current text is kept first so the
+	 * chain always matches what was saved. Bodies stored in chunks are left
+	 * out of the history.
+	 */
+	private void recordRevision(long rowId, String title, String body)
+	{
+		if (body == null || body.length() > INLINE_LIMIT)
+		{
+			return;
+		}
+		final String oldTitle;
+		final String oldBody;
+		final Cursor note = fetchNote(rowId);
+		try
+		{
+			if (note.getCount() == 0
+					|| note.getInt(note.getColumnIndexOrThrow(KEY_BODY_FORMAT)) == BodyCodec.FORMAT_CHUNKED)
+			{
+				return;
+			}
+			oldTitle = note.getString(note.getColumnIndexOrThrow(KEY_TITLE));
+			oldBody = note.getString(note.getColumnIndexOrThrow(KEY_BODY));
+		} finally
+		{
+			note.close();
+		}
+		if (oldBody.equals(body) && oldTitle.equals(title))
+		{
+			return;
+		}
+
+		long depth = -1;
+		final Cursor last = mDb.query("note_revisions", new String[] {
+				KEY_ROWID, KEY_TITLE, "depth" }, "note_id=?", args(rowId),
+				null, null, KEY_ROWID + " DESC", "1");
+		try
+		{
+			if (last.moveToFirst()
+					&& oldTitle.equals(last.getString(1))
+					&& oldBody.equals(fetchRevisionBody(last.getLong(0))))
+			{
+				depth = last.getLong(2);
+			}
+		} finally
+		{
+			last.close();
+		}
+		final long now = System.currentTimeMillis();
+		if (depth < 0)
+		{
+			insertSnapshot(rowId, now, oldTitle, oldBody);
+			depth = 0;
+		}
+		if (depth + 1 >= SNAPSHOT_INTERVAL)
+		{
+			insertSnapshot(rowId, now, title, body);
+		} else
+		{
+			insertRevision(rowId, now, title, REVISION_DELTA, depth + 1,
+					TextDelta.encode(oldBody, body));
+		}
+	}
+
+	private void insertSnapshot(long rowId, long savedAt, String title,
+			String body)
+	{
+		final byte[] packed = BodyCodec.compress(body);
+		if (packed != null)
+		{
+			insertRevision(rowId, savedAt, title, REVISION_DEFLATED, 0, packed);
+		} else
+		{
+			final SQLiteStatement insert = statement(INSERT_REVISION);
+			insert.bindLong(1, rowId);
+			insert.bindLong(2, savedAt);
+			bindText(insert, 3, title);
+			insert.bindLong(4, REVISION_SNAPSHOT);
+			insert.bindLong(5, 0);
+			insert.bindString(6, body);
+			insert.executeInsert();
+		}
+	}
+
+	private void insertRevision(long rowId, long savedAt, String title,
+			int kind, long depth, byte[] data)
+	{
+		final SQLiteStatement insert = statement(INSERT_REVISION);
+		insert.bindLong(1, rowId);
+		insert.bindLong(2, savedAt);
+		bindText(insert, 3, title);
+		insert.bindLong(4, kind);
+		insert.bindLong(5, depth);
+		insert.bindBlob(6, data);
+		insert.executeInsert();
+	}
+
+	/**
+	 * Return one page of the saved revisions of a note, newest first
+	 * 
+	 * @param rowId
+	 *            id of the note
+	 * @param beforeId
+	 *            id of the last revision already read, or Long.MAX_VALUE to
+	 *            start with the newest
+	 * @param limit
+	 *            most revisions to return
+	 * @return Cursor over the id, title and save time of each revision
+	 */
+	public Cursor fetchRevisions(long rowId, long beforeId, int limit)
+	{
+		return mDb.query("note_revisions", new String[] { KEY_ROWID,
+				KEY_TITLE, KEY_SAVED_AT }, "note_id=? AND " + KEY_ROWID
+				+ "<?", new String[] { Long.toString(rowId),
+				Long.toString(beforeId) }, null, null, KEY_ROWID + " DESC",
+				Integer.toString(limit));
+	}
+
+	/**
+	 * Rebuild the body of a note as it was at one revision, from the nearest
+	 * snapshot and the deltas after it.
+	 * 
+	 * @return the body, or null if there is no such revision
+	 */
+	public String fetchRevisionBody(long revisionId)
+	{
+		long rowId;
+		long depth;
+		final Cursor revision = mDb.query("note_revisions", new String[] {
+				"note_id", "depth" }, KEY_ROWID + "=?", args(revisionId), null,
+				null, null);
+		try
+		{
+			if (!revision.moveToFirst())
+			{
+				return null;
+			}
+			rowId = revision.getLong(0);
+			depth = revision.getLong(1);
+		} finally
+		{
+			revision.close();
+		}
+
+		final Cursor chain = mDb.query("note_revisions", new String[] {
+				"kind", "data" }, "note_id=? AND " + KEY_ROWID + "<=?",
+				new String[] { Long.toString(rowId), Long.toString(revisionId) },
+				null, null, KEY_ROWID + " DESC", Long.toString(depth + 1));
+		try
+		{
+			String body = null;
+			for (boolean more = chain.moveToLast(); more; more = chain
+					.moveToPrevious())
+			{
+				switch (chain.getInt(0))
+				{
+				case REVISION_SNAPSHOT:
+					body = chain.getString(1);
+					break;
+				case REVISION_DEFLATED:
+					body = BodyCodec.decompress(chain.getBlob(1));
+					break;
+				default:
+					body = TextDelta.apply(body, chain.getBlob(1));
+					break;
+				}
+			}
+			return body;
+		} finally
+		{
+			chain.close();
+		}
+	}
+
+	/**
+	 * Update the title and due date of a note, leaving its body alone
+	 * 
+	 * @return true if the note was successfully updated, false otherwise
+	 */
+	public boolean updateNoteHeader(long rowId, String title, long date)
+	{
+		final SQLiteStatement update = statement(UPDATE_NOTE_HEADER);
+		bindText(update, 1, title);
+		update.bindLong(2, date);
+		update.bindLong(3, rowId);
+		return notifyIfChanged(executeUpdateDelete(update), noteUri(rowId));
+	}
+
+	/**
+	 * Return the chunks of a note body that follow a given one, in order.
+	 * 
+	 * @param rowId
+	 *            id of the note
+	 * @param afterSeq
+	 *            seq of the last chunk already read, or Long.MIN_VALUE to
+	 *            start at the beginning
+	 * @param limit
+	 *            most chunks to return
+	 */
+	public List<NoteChunk> fetchChunks(long rowId, long afterSeq, int limit)
+	{
+		return readChunks(mDb.query("note_chunks", new String[] { KEY_ROWID,
+				"seq", "data" }, "note_id=? AND seq>?", new String[] {
+				Long.toString(rowId), Long.toString(afterSeq) }, null, null,
+				"seq", Integer.toString(limit)), false);
+	}
+
+	/**
+	 * Return the chunks of a note body that come before a given one, in
+	 * order.
+	 * 
+	 * @param rowId
+	 *            id of the note
+	 * @param beforeSeq
+	 *            seq of the first chunk already read
+	 * @param limit
+	 *            most chunks to return
+	 */
+	public List<NoteChunk> fetchChunksBefore(long rowId, long beforeSeq,
+			int limit)
+	{
+		return readChunks(mDb.query("note_chunks", new String[] { KEY_ROWID,
+				"seq", "data" }, "note_id=? AND seq<?", new String[] {
+				Long.toString(rowId), Long.toString(beforeSeq) }, null, null,
+				"seq DESC", Integer.toString(limit)), true);
+	}
+
+	private static List<NoteChunk> readChunks(Cursor cursor, boolean reverse)
+	{
+		final ArrayList<NoteChunk> chunks = new ArrayList<NoteChunk>(
+				cursor.getCount());
+		try
+		{
+			while (cursor.moveToNext())
+			{
+				chunks.add(new NoteChunk(cursor.getLong(0), cursor.getLong(1),
+						cursor.getString(2)));
+			}
+		} finally
+		{
+			cursor.close();
+		}
+		if (reverse)
+		{
+			Collections.reverse(chunks);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Save the edited text of a run of consecutive chunks. Only the chunks
+	 * that hold changed characters are written: the edit is located by
+	 * comparing the text with the chunks it was loaded from, then those
+	 * chunks are rewritten, split or dropped as its new length requires.
+	 * 
+	 * @param rowId
+	 *            id of the note
+	 * @param window
+	 *            the chunks the text was loaded from, in order
+	 * @param text
+	 *            their text after editing
+	 * @return the chunks now holding the text, in order
+	 */
+	public List<NoteChunk> saveChunks(long rowId, List<NoteChunk> window,
+			String text)
+	{
+		final int count = window.size();
+		final int[] starts = new int[count + 1];
+		for (int i = 0; i < count; i++)
+		{
+			starts[i + 1] = starts[i] + window.get(i).getText().length();
+		}
+		final int oldLength = starts[count];
+		final int newLength = text.length();
+
+		// Common prefix and suffix of the old and new text
+		int prefix = 0;
+		for (int i = 0; i < count && prefix == starts[i]; i++)
+		{
+			final String old = window.get(i).getText();
+			final int max = Math.min(old.length(), newLength - prefix);
+			int same = 0;
+			while (same < max && old.charAt(same) == text.charAt(prefix + same))
+			{
+				same++;
+			}
+			prefix += same;
+		}
+		if (prefix == oldLength && prefix == newLength)
+		{
+			return copy(window);
+		}
+		int suffix = 0;
+		final int maxSuffix = Math.min(oldLength, newLength) - prefix;
+		for (int i = count - 1; i >= 0 && suffix == oldLength - starts[i + 1]; i--)
+		{
+			final String old = window.get(i).getText();
+			int same = 0;
+			while (suffix + same < maxSuffix
+					&& same < old.length()
+					&& old.charAt(old.length() - 1 - same) == text
+							.charAt(newLength - 1 - suffix - same))
+			{
+				same++;
+			}
+			suffix += same;
+		}
+
+		// Chunks first to last hold every changed character
+		int first = 0;
+		while (first < count - 1 && starts[first + 1] <= prefix)
+		{
+			first++;
+		}
+		int last = first;
+		while (last < count - 1 && starts[last + 1] < oldLength - suffix)
+		{
+			last++;
+		}
+		final int replaced = (count == 0) ? 0 : last - first + 1;
+		final int regionStart = (count == 0) ? 0 : starts[first];
+		final int regionEnd = (count == 0) ? 0 : starts[last + 1];
+		final List<String> pieces = split(text.substring(regionStart,
+				regionEnd + newLength - oldLength));
+
+		final ArrayList<NoteChunk> saved = new ArrayList<NoteChunk>(count
+				+ pieces.size());
+		mDb.beginTransaction();
+		try
+		{
+			saved.addAll(copy(window.subList(0, Math.min(first, count))));
+			final int reused = Math.min(replaced, pieces.size());
+			for (int i = 0; i < reused; i++)
+			{
+				final NoteChunk chunk = window.get(first + i);
+				final String piece = pieces.get(i);
+				if (!piece.equals(chunk.getText()))
+				{
+					final SQLiteStatement update = statement(UPDATE_CHUNK);
+					update.bindString(1, piece);
+					update.bindLong(2, chunk.getId());
+					update.execute();
+				}
+				saved.add(new NoteChunk(chunk.getId(), chunk.getSeq(), piece));
+			}
+			for (int i = reused; i < replaced; i++)
+			{
+				final SQLiteStatement delete = statement(DELETE_CHUNK);
+				delete.bindLong(1, window.get(first + i).getId());
+				delete.execute();
+			}
+			HashMap<Long, Long> seqs = null;
+			if (pieces.size() > reused)
+			{
+				seqs = insertPieces(rowId, pieces.subList(reused, pieces
+						.size()), saved, (replaced == 0) ? null : window
+						.get(last));
+			}
+			if (count > 0)
+			{
+				for (NoteChunk chunk : copy(window.subList(last + 1, count)))
+				{
+					if (seqs != null)
+					{
+						chunk.setSeq(seqs.get(chunk.getId()));
+					}
+					saved.add(chunk);
+				}
+			}
+			updateChunkedSnippet(rowId);
+			mDb.setTransactionSuccessful();
+		} finally
+		{
+			mDb.endTransaction();
+		}
+		notifyChange(noteUri(rowId));
+		return saved;
+	}
+
+	/**
+	 * Insert new chunks after the given one, or at the end of the body if it
+	 * is null, picking seq numbers in the gap before the next chunk. The body
+	 * is renumbered first if that gap is too narrow.
+	 * 
+	 * @return the new seq of each chunk that existed before, by id, if the
+	 *         body was renumbered, otherwise null
+	 */
+	private HashMap<Long, Long> insertPieces(long rowId, List<String> pieces,
+			ArrayList<NoteChunk> saved, NoteChunk after)
+	{
+		HashMap<Long, Long> seqs = null;
+		long from;
+		long to;
+		if (after == null)
+		{
+			final SQLiteStatement last = statement(LAST_CHUNK_SEQ);
+			last.bindLong(1, -SEQ_STEP);
+			last.bindLong(2, rowId);
+			from = last.simpleQueryForLong();
+			to = from + SEQ_STEP * (pieces.size() + 1);
+		} else
+		{
+			from = after.getSeq();
+			to = nextSeq(rowId, from, pieces.size());
+			if (to - from <= pieces.size())
+			{
+				seqs = renumberChunks(rowId);
+				for (NoteChunk chunk : saved)
+				{
+					chunk.setSeq(seqs.get(chunk.getId()));
+				}
+				from = seqs.get(after.getId());
+				to = nextSeq(rowId, from, pieces.size());
+			}
+		}
+		final long step = (to - from) / (pieces.size() + 1);
+		long seq = from;
+		for (String piece : pieces)
+		{
+			seq += step;
+			saved.add(new NoteChunk(insertChunk(rowId, seq, piece), seq, piece));
+		}
+		return seqs;
+	}
+
+	private long nextSeq(long rowId, long seq, int pieces)
+	{
+		final SQLiteStatement next = statement(NEXT_CHUNK_SEQ);
+		next.bindLong(1, seq + SEQ_STEP * (pieces + 1));
+		next.bindLong(2, rowId);
+		next.bindLong(3, seq);
+		return next.simpleQueryForLong();
+	}
+
+	/**
+	 * Space the chunks of a body SEQ_STEP apart again. The seqs are made
+	 * negative on the way so the unique index never sees two chunks at once
+	 * on the same one.
+	 * 
+	 * @return the new seq of each chunk by id
+	 */
+	private HashMap<Long, Long> renumberChunks(long rowId)
+	{
+		final Cursor ids = mDb.query("note_chunks",
+				new String[] { KEY_ROWID }, "note_id=?", args(rowId), null,
+				null, "seq");
+		final HashMap<Long, Long> seqs = new HashMap<Long, Long>();
+		try
+		{
+			final SQLiteStatement update = statement(UPDATE_CHUNK_SEQ);
+			long seq = 0;
+			while (ids.moveToNext())
+			{
+				update.bindLong(1, -seq);
+				update.bindLong(2, ids.getLong(0));
+				update.execute();
+				seqs.put(ids.getLong(0), seq);
+				seq += SEQ_STEP;
+			}
+		} finally
+		{
+			ids.close();
+		}
+		final SQLiteStatement negate = statement(NEGATE_CHUNK_SEQS);
+		negate.bindLong(1, rowId);
+		negate.execute();
+		return seqs;
+	}
+
+	private long insertChunk(long rowId, long seq, String data)
+	{
+		final SQLiteStatement insert = statement(INSERT_CHUNK);
+		insert.bindLong(1, rowId);
+		insert.bindLong(2, seq);
+		insert.bindString(3, data);
+		return insert.executeInsert();
+	}
+
+	private static List<NoteChunk> copy(List<NoteChunk> chunks)
+	{
+		final ArrayList<NoteChunk> copies = new ArrayList<NoteChunk>(
+				chunks.size());
+		for (NoteChunk chunk : chunks)
+		{
+			copies.add(new NoteChunk(chunk.getId(), chunk.getSeq(), chunk
+					.getText()));
+		}
+		return copies;
+	}
+
+	/**
+	 * Cut text into pieces of CHUNK_SIZE characters, never between the two
+	 * halves of a surrogate pair.
+	 */
+	static List<String> split(String text)
+	{
+		final ArrayList<String> pieces = new ArrayList<String>(text.length()
+				/ CHUNK_SIZE + 1);
+		int start = 0;
+		while (start < text.length())
+		{
+			int end = Math.min(start + CHUNK_SIZE, text.length());
+			if (end < text.length()
+					&& Character.isHighSurrogate(text.charAt(end - 1)))
+			{
+				end--;
+			}
+			pieces.add(text.substring(start, end));
+			start = end;
+		}
+		return pieces;
+	}
+
+	/**
+	 * Open the body of a note for reading. A chunked body is read one chunk at
+	 * a time, so memory use does not grow with the size of the note.
+	 * 
+	 * @return Reader over the body, or null if there is no such note
+	 */
+	public Reader openBodyReader(long rowId)
+	{
+		final Cursor note = fetchNote(rowId);
+		try
+		{
+			if (note.getCount() == 0)
+			{
+				return null;
+			}
+			if (note.getInt(note.getColumnIndexOrThrow(KEY_BODY_FORMAT)) == BodyCodec.FORMAT_CHUNKED)
+			{
+				return new ChunkReader(rowId);
+			}
+			return new StringReader(note.getString(note
+					.getColumnIndexOrThrow(KEY_BODY)));
+		} finally
+		{
+			note.close();
+		}
+	}
+
+	/**
+	 * Replace the body of a note with the text written to the returned
+	 * Writer. The text is stored in chunks as it arrives; the last one is
+	 * written by close(). Readers may see a partial body until then unless
+	 * the caller holds a transaction around the whole write.
+	 */
+	public Writer openBodyWriter(long rowId)
+	{
+		final SQLiteStatement clear = statement(CLEAR_NOTE_BODY);
+		clear.bindLong(1, rowId);
+		clear.execute();
+		final SQLiteStatement delete = statement(DELETE_NOTE_CHUNKS);
+		delete.bindLong(1, rowId);
+		delete.execute();
+		return new ChunkWriter(rowId);
+	}
+
+	private class ChunkReader extends Reader
+	{
+		private final long mRowId;
+		private long mSeq = Long.MIN_VALUE;
+		private String mChunk = "";
+		private int mPosition;
+		private boolean mEnd;
+
+		ChunkReader(long rowId)
+		{
+			mRowId = rowId;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int count)
+		{
+			if (count == 0)
+			{
+				return 0;
+			}
+			while (mPosition == mChunk.length())
+			{
+				if (mEnd)
+				{
+					return -1;
+				}
+				final List<NoteChunk> next = fetchChunks(mRowId, mSeq, 1);
+				if (next.isEmpty())
+				{
+					mEnd = true;
+					return -1;
+				}
+				mSeq = next.get(0).getSeq();
+				mChunk = next.get(0).getText();
+				mPosition = 0;
+			}
+			final int read = Math.min(count, mChunk.length() - mPosition);
+			mChunk.getChars(mPosition, mPosition + read, buffer, offset);
+			mPosition += read;
+			return read;
+		}
+
+		@Override
+		public void close()
+		{
+			mChunk = "";
+			mPosition = 0;
+			mEnd = true;
+		}
+	}
+
+	private class ChunkWriter extends Writer
+	{
+		private final long mRowId;
+		private final StringBuilder mPending = new StringBuilder(CHUNK_SIZE);
+		private long mSeq;
+
+		ChunkWriter(long rowId)
+		{
+			mRowId = rowId;
+		}
+
+		@Override
+		public void write(char[] buffer, int offset, int count)
+		{
+			while (count > 0)
+			{
+				final int taken = Math.min(count, CHUNK_SIZE
+						- mPending.length());
+				mPending.append(buffer, offset, taken);
+				offset += taken;
+				count -= taken;
+				if (mPending.length() == CHUNK_SIZE)
+				{
+					int end = CHUNK_SIZE;
+					if (Character.isHighSurrogate(mPending.charAt(end - 1)))
+					{
+						end--;
+					}
+					writeChunk(end);
+				}
+			}
+		}
+
+		private void writeChunk(int end)
+		{
+			insertChunk(mRowId, mSeq, mPending.substring(0, end));
+			mSeq += SEQ_STEP;
+			mPending.delete(0, end);
+		}
+
+		/**
+		 * Does nothing; chunks are only written once full so that they keep
+		 * their size.
+		 */
+		@Override
+		public void flush()
+		{
+		}
+
+		@Override
+		public void close()
+		{
+			if (mPending.length() > 0)
+			{
+				writeChunk(mPending.length());
+			}
+			updateChunkedSnippet(mRowId);
+			notifyChange(noteUri(mRowId));
+		}
+	}
+
+	/**
+	 * @param rowId
+	 * 	rowId of the list to be updated
+	 * @param title
+	 * 	value to set the list title to
+	 * @return
+	 * 	true if the note was successfully updated, false otherwise
+	 */
+	public boolean updateList(long rowId, String title)
+	{
+		return updateListTitle(rowId, title);
+	}
+
+	/**
+	 * @param rowId
+	 * 	rowId of the data row to be updated
+	 * @param description
+	 * 	value to set the item_data field to
+	 * @param isChecked
+	 * 	value to set the isChecked field to
+	 * @return
+	 * 	true if the note was successfully updated, false otherwise
+	 */
+	public boolean updateListData(long rowId, String description, int isChecked)
+	{
+		final SQLiteStatement update = statement(UPDATE_LIST_ROW);
+		bindText(update, 1, description);
+		update.bindLong(2, isChecked);
+		update.bindLong(3, rowId);
+		return notifyIfChanged(executeUpdateDelete(update),
+				NotesUris.LISTS_URI);
+	}
+
+	/**
+	 * @param rowId
+	 * 	rowId of the list whoese title will be updated
+	 * @param newTitle
 	 * value of the title for a the specific list
 	 * @return
 	 * 	true if the list was successfully updated or false otherwise.
 	 */
 	public boolean updateListTitle(long rowId, String newTitle)
 	{
-		ContentValues args = new ContentValues();
-		args.put(KEY_TITLE, newTitle);
-		return mDb.update("lists", args, KEY_ROWID + "=" + rowId, null) > 0;
-
+		final SQLiteStatement update = statement(UPDATE_LIST_TITLE);
+		bindText(update, 1, newTitle);
+		update.bindLong(2, rowId);
+		return notifyIfChanged(executeUpdateDelete(update), listUri(rowId));
 	}
 }
@@ -0,0 +1,221 @@
+/*
+ * NotesProvider.java
+ *
+ * Read-only view of notes and lists under the content URIs of NotesUris. The
+ * application itself reads and writes through NotesDbAdapter; the provider is
+ * private to it and answers queries only. A query returns the columns its
+ * projection names, from those its URI allows, and the rows of the trash are
+ * left out. Bodies can be long, so only a single note's URI offers the body
+ * column: a projection over notes that names it is refused.
+ *
+ * URIs: notes, notes/#, lists, lists/# and lists/#/items.
+ */
+
+package notepad.main;
+
+import java.util.Arrays;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+
+public class NotesProvider extends ContentProvider
+{
+	private static final int NOTES = 1;
+	private static final int NOTE_ID = 2;
+	private static final int LISTS = 3;
+	private static final int LIST_ID = 4;
+	private static final int LIST_ITEMS = 5;
+
+	private static final UriMatcher MATCHER = new UriMatcher(
+			UriMatcher.NO_MATCH);
+	static
+	{
+		MATCHER.addURI(NotesUris.AUTHORITY, "notes", NOTES);
+		MATCHER.addURI(NotesUris.AUTHORITY, "notes/#", NOTE_ID);
+		MATCHER.addURI(NotesUris.AUTHORITY, "lists", LISTS);
+		MATCHER.addURI(NotesUris.AUTHORITY, "lists/#", LIST_ID);
+		MATCHER.addURI(NotesUris.AUTHORITY, "lists/#/items", LIST_ITEMS);
+	}
+
+	/** Columns of the notes URI, every one short */
+	private static final String[] NOTES_COLUMNS = { NotesDbAdapter.KEY_ROWID,
+			NotesDbAdapter.KEY_TITLE, NotesDbAdapter.KEY_DATE,
+			NotesDbAdapter.KEY_CREATE_DATE, NotesDbAdapter.KEY_SNIPPET };
+	/**
+	 * Columns of a single note. body_format comes with the body whether it is
+	 * named or not. A chunked body is too long for a cursor window, so its
+	 * body column is empty and body_format is BodyCodec.FORMAT_CHUNKED.
+	 */
+	private static final String[] NOTE_COLUMNS = { NotesDbAdapter.KEY_ROWID,
+			NotesDbAdapter.KEY_TITLE, NotesDbAdapter.KEY_DATE,
+			NotesDbAdapter.KEY_CREATE_DATE, NotesDbAdapter.KEY_SNIPPET,
+			NotesDbAdapter.KEY_BODY, NotesDbAdapter.KEY_BODY_FORMAT };
+	private static final String[] LISTS_COLUMNS = { NotesDbAdapter.KEY_ROWID,
+			NotesDbAdapter.KEY_TITLE, NotesDbAdapter.KEY_CREATE_DATE,
+			NotesDbAdapter.KEY_ITEM_COUNT, NotesDbAdapter.KEY_CHECKED_COUNT };
+	private static final String[] ITEMS_COLUMNS = { NotesDbAdapter.KEY_ROWID,
+			NotesDbAdapter.KEY_LIST_ID, "item_data", "checked",
+			NotesDbAdapter.KEY_POSITION };
+
+	private static final String LIVE = NotesDbAdapter.KEY_DELETED_AT
+			+ " IS NULL";
+
+	private NotesDbAdapter mDbHelper;
+
+	/**
+	 * The database is opened on the first query rather than here, since
+	 * providers are created on the main thread as the process starts.
+	 */
+	@Override
+	public boolean onCreate()
+	{
+		return true;
+	}
+
+	private synchronized NotesDbAdapter db()
+	{
+		if (mDbHelper == null)
+		{
+			mDbHelper = new NotesDbAdapter(getContext()).open();
+		}
+		return mDbHelper;
+	}
+
+	/**
+	 * Let go of the database, for tests. The platform only calls shutdown()
+	 * from API 11, so this does not override it here.
+	 */
+	public synchronized void shutdown()
+	{
+		if (mDbHelper != null)
+		{
+			mDbHelper.close();
+			mDbHelper = null;
+		}
+	}
+
+	/**
+	 * A null projection asks for every column the URI allows. selection and
+	 * sortOrder apply to the rows the URI names; without a sortOrder rows come
+	 * in _id order, and the items of a list in their list order.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the URI is unknown or the projection names a column it
+	 *             does not allow
+	 */
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection,
+			String[] selectionArgs, String sortOrder)
+	{
+		final String table;
+		final String[] columns;
+		String where;
+		String order = NotesDbAdapter.KEY_ROWID;
+		switch (MATCHER.match(uri))
+		{
+		case NOTES:
+			table = "notes";
+			columns = NOTES_COLUMNS;
+			where = LIVE;
+			break;
+		case NOTE_ID:
+			table = "notes";
+			columns = NOTE_COLUMNS;
+			where = LIVE + " AND " + NotesDbAdapter.KEY_ROWID + "="
+					+ ContentUris.parseId(uri);
+			break;
+		case LISTS:
+			table = "lists";
+			columns = LISTS_COLUMNS;
+			where = LIVE;
+			break;
+		case LIST_ID:
+			table = "lists";
+			columns = LISTS_COLUMNS;
+			where = LIVE + " AND " + NotesDbAdapter.KEY_ROWID + "="
+					+ ContentUris.parseId(uri);
+			break;
+		case LIST_ITEMS:
+			table = "list_data";
+			columns = ITEMS_COLUMNS;
+			where = NotesDbAdapter.KEY_LIST_ID + "="
+					+ Long.parseLong(uri.getPathSegments().get(1));
+			order = NotesDbAdapter.KEY_POSITION + ", "
+					+ NotesDbAdapter.KEY_ROWID;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown URI " + uri);
+		}
+		if (projection == null)
+		{
+			projection = columns;
+		} else
+		{
+			for (String column : projection)
+			{
+				if (!Arrays.asList(columns).contains(column))
+				{
+					throw new IllegalArgumentException("Unknown column "
+							+ column + " for " + uri);
+				}
+			}
+		}
+		if (selection != null)
+		{
+			where = DatabaseUtils.concatenateWhere(where, selection);
+		}
+		if (sortOrder != null)
+		{
+			order = sortOrder;
+		}
+
+		final Cursor cursor = db().query(table, projection, where,
+				selectionArgs, order);
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+		return cursor;
+	}
+
+	@Override
+	public String getType(Uri uri)
+	{
+		switch (MATCHER.match(uri))
+		{
+		case NOTES:
+			return "vnd.android.cursor.dir/vnd.hbnotepad.note";
+		case NOTE_ID:
+			return "vnd.android.cursor.item/vnd.hbnotepad.note";
+		case LISTS:
+			return "vnd.android.cursor.dir/vnd.hbnotepad.list";
+		case LIST_ID:
+			return "vnd.android.cursor.item/vnd.hbnotepad.list";
+		case LIST_ITEMS:
+			return "vnd.android.cursor.dir/vnd.hbnotepad.listitem";
+		default:
+			throw new IllegalArgumentException("Unknown URI " + uri);
+		}
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values)
+	{
+		throw new UnsupportedOperationException("Read-only: " + uri);
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection,
+			String[] selectionArgs)
+	{
+		throw new UnsupportedOperationException("Read-only: " + uri);
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs)
+	{
+		throw new UnsupportedOperationException("Read-only: " + uri);
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * NotesUris.java
+ *
+ * Content URIs naming notes and lists. They are the keys of change
+ * notifications and of RowCache, and NotesProvider answers queries on them.
+ * The application reads and writes through NotesDbAdapter, which notifies the
+ * URI of whatever it changed, so an observer of NOTES_URI or LISTS_URI hears
+ * about its own data and nothing else.
+ *
+ * URIs: notes, notes/#, lists, lists/# and lists/#/items.
+ */
+
+package notepad.main;
+
+import android.net.Uri;
+
+public final class NotesUris
+{
+	public static final String AUTHORITY = "notepad.main.provider";
+	public static final Uri NOTES_URI = Uri.parse("content://" + AUTHORITY
+			+ "/notes");
+	public static final Uri LISTS_URI = Uri.parse("content://" + AUTHORITY
+			+ "/lists");
+
+	private NotesUris()
+	{
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * PositionKey.java
+ *
+ * Sort keys for the rows of a list. A key is a base-62 fraction written as
+ * its digits after the point, in an alphabet whose ASCII order is its numeric
+ * order, so keys compare the same as strings in Java and in SQLite. There is
+ * always a key between two others, which lets a row be moved by rewriting
+ * only its own key. Keys never end in the zero digit, so no two spellings
+ * share a value.
+ *
+ * Keys grow as rows are squeezed into the same gap; once one is longer than
+ * MAX_LENGTH the list should be given fresh, evenly spaced keys. Rows added
+ * at the end step up a grid of APPEND_LENGTH digit keys instead, which has
+ * room for over a hundred thousand of them above a freshly spread list.
+ */
+
+package notepad.main;
+
+public class PositionKey
+{
+	private static final String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+	private static final int BASE = DIGITS.length();
+
+	/** Keys longer than this are a sign the list should be rebalanced */
+	public static final int MAX_LENGTH = 8;
+	/** Digits in the keys of rows added at the end of a list */
+	private static final int APPEND_LENGTH = 3;
+
+	private PositionKey()
+	{
+	}
+
+	/**
+	 * @param before
+	 *            key of the row before, or null for the start of the list
+	 * @param after
+	 *            key of the row after, or null for the end of the list
+	 * @return a key that sorts strictly between the two, as short as the gap
+	 *         allows
+	 * @throws IllegalArgumentException
+	 *             if before does not sort below after; the list needs
+	 *             rebalancing
+	 */
+	public static String between(String before, String after)
+	{
+		final String a = (before == null) ? "" : before;
+		if (after == null)
+		{
+			return append(a);
+		}
+		if (a.compareTo(after) >= 0)
+		{
+			throw new IllegalArgumentException("Keys out of order: " + before
+					+ ", " + after);
+		}
+		return midpoint(a, after);
+	}
+
+	/**
+	 * @return n keys in ascending order, spread evenly over the lower half of
+	 *         the key space so rows can be added after them for a long while
+	 *         before keys grow
+	 */
+	public static String[] spread(int n)
+	{
+		int length = 1;
+		long space = BASE;
+		while (space / 2 < 2L * (n + 1))
+		{
+			space *= BASE;
+			length++;
+		}
+		final String[] keys = new String[n];
+		for (int i = 0; i < n; i++)
+		{
+			keys[i] = encode((i + 1) * (space / 2) / (n + 1), length);
+		}
+		return keys;
+	}
+
+	public static boolean isTooLong(String key)
+	{
+		return key != null && key.length() > MAX_LENGTH;
+	}
+
+	/**
+	 * @return the key one step above a on the grid of keys APPEND_LENGTH
+	 *         digits long, dropping any digits a has past the grid; a finer
+	 *         grid is only used once the keys above a on it have run out
+	 */
+	private static String append(String a)
+	{
+		if (a.length() == 0)
+		{
+			return String.valueOf(DIGITS.charAt(BASE / 2));
+		}
+		int length = APPEND_LENGTH;
+		while (isTop(a, length))
+		{
+			length++;
+		}
+		final char[] digits = new char[length];
+		for (int i = 0; i < length; i++)
+		{
+			digits[i] = DIGITS.charAt(digit(a, i));
+		}
+		// Some digit is below the top, so the carry stops there; the digits
+		// it passed are zero and are left off
+		int i = length - 1;
+		while (digits[i] == DIGITS.charAt(BASE - 1))
+		{
+			i--;
+		}
+		digits[i] = DIGITS.charAt(DIGITS.indexOf(digits[i]) + 1);
+		return new String(digits, 0, i + 1);
+	}
+
+	/**
+	 * @return true if the first length digits of key are all the top digit
+	 */
+	private static boolean isTop(String key, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (digit(key, i) != BASE - 1)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the next key above a of the same length, the shortest way out
+	 *         of a gap above a; a key is only lengthened once its digits are
+	 *         all at the top
+	 */
+	private static String next(String a)
+	{
+		final char[] digits = a.toCharArray();
+		for (int i = digits.length - 1; i >= 0; i--)
+		{
+			final int digit = DIGITS.indexOf(digits[i]);
+			if (digit < BASE - 1)
+			{
+				digits[i] = DIGITS.charAt(digit + 1);
+				// The digits carried past are zero, which may not end a key
+				if (i < digits.length - 1)
+				{
+					digits[digits.length - 1] = DIGITS.charAt(1);
+				}
+				return new String(digits);
+			}
+			digits[i] = DIGITS.charAt(0);
+		}
+		return a + DIGITS.charAt(BASE / 2);
+	}
+
+	/**
+	 * @return a key strictly between a and b, where a < b and a may be empty
+	 *         for zero
+	 */
+	private static String midpoint(String a, String b)
+	{
+		// Digits both share are kept as they are
+		int n = 0;
+		while (n < b.length() && digit(a, n) == DIGITS.indexOf(b.charAt(n)))
+		{
+			n++;
+		}
+		if (n > 0)
+		{
+			return b.substring(0, n)
+					+ midpoint(a.substring(Math.min(n, a.length())), b
+							.substring(n));
+		}
+		final int digitA = digit(a, 0);
+		final int digitB = DIGITS.indexOf(b.charAt(0));
+		if (digitB - digitA > 1)
+		{
+			return String.valueOf(DIGITS.charAt((digitA + digitB + 1) / 2));
+		}
+		// Adjacent first digits: b's first digit alone is below b if b goes
+		// on, otherwise go on from a's first digit
+		if (b.length() > 1)
+		{
+			return b.substring(0, 1);
+		}
+		return DIGITS.charAt(digitA)
+				+ next(a.length() > 1 ? a.substring(1) : "");
+	}
+
+	private static int digit(String key, int index)
+	{
+		return (index < key.length()) ? DIGITS.indexOf(key.charAt(index)) : 0;
+	}
+
+	private static String encode(long value, int length)
+	{
+		final char[] digits = new char[length];
+		for (int i = length - 1; i >= 0; i--)
+		{
+			digits[i] = DIGITS.charAt((int) (value % BASE));
+			value /= BASE;
+		}
+		int end = length;
+		while (end > 1 && digits[end - 1] == DIGITS.charAt(0))
+		{
+			end--;
+		}
+		return new String(digits, 0, end);
+	}
+}
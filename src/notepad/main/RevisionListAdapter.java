@@ -0,0 +1,125 @@
+/*
+ * RevisionListAdapter.java
+ *
+ * Adapter for the history of one note. Only the id, title and save time of
+ * each revision are read, a page at a time as the list is scrolled; the body
+ * of a revision is only rebuilt once it is picked.
+ */
+
+package notepad.main;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+public class RevisionListAdapter extends BaseAdapter implements
+		AbsListView.OnScrollListener
+{
+	private static final int PAGE_SIZE = 20;
+
+	private final NotesDbAdapter dbHelper;
+	private final LayoutInflater inflater;
+	private final long noteId;
+	private final ArrayList<Long> ids = new ArrayList<Long>();
+	private final ArrayList<String> titles = new ArrayList<String>();
+	private final ArrayList<Long> savedAt = new ArrayList<Long>();
+	private final DateFormat dateFormat = DateFormat.getDateTimeInstance(
+			DateFormat.MEDIUM, DateFormat.SHORT);
+	private boolean exhausted;
+
+	public RevisionListAdapter(Context context, NotesDbAdapter dbHelper,
+			long noteId)
+	{
+		this.dbHelper = dbHelper;
+		this.noteId = noteId;
+		inflater = (LayoutInflater) context
+				.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+		loadPage();
+	}
+
+	private void loadPage()
+	{
+		final Cursor page = dbHelper.fetchRevisions(noteId,
+				ids.isEmpty() ? Long.MAX_VALUE : ids.get(ids.size() - 1),
+				PAGE_SIZE);
+		try
+		{
+			final int idColumn = page
+					.getColumnIndexOrThrow(NotesDbAdapter.KEY_ROWID);
+			final int titleColumn = page
+					.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE);
+			final int savedColumn = page
+					.getColumnIndexOrThrow(NotesDbAdapter.KEY_SAVED_AT);
+			while (page.moveToNext())
+			{
+				ids.add(page.getLong(idColumn));
+				titles.add(page.getString(titleColumn));
+				savedAt.add(page.getLong(savedColumn));
+			}
+			exhausted = page.getCount() < PAGE_SIZE;
+		} finally
+		{
+			page.close();
+		}
+		notifyDataSetChanged();
+	}
+
+	public void onScroll(AbsListView view, int firstVisibleItem,
+			int visibleItemCount, int totalItemCount)
+	{
+		if (!exhausted
+				&& firstVisibleItem + visibleItemCount >= totalItemCount
+						- PAGE_SIZE / 2)
+		{
+			loadPage();
+		}
+	}
+
+	public void onScrollStateChanged(AbsListView view, int scrollState)
+	{
+	}
+
+	public View getView(int position, View convertView, ViewGroup parent)
+	{
+		View v = convertView;
+		if (v == null)
+		{
+			v = inflater.inflate(R.layout.revision_row, parent, false);
+		}
+		((TextView) v.findViewById(R.id.revision_title)).setText(titles
+				.get(position));
+		((TextView) v.findViewById(R.id.revision_date)).setText(dateFormat
+				.format(new Date(savedAt.get(position))));
+		return v;
+	}
+
+	public int getCount()
+	{
+		return ids.size();
+	}
+
+	public Object getItem(int position)
+	{
+		return titles.get(position);
+	}
+
+	public long getItemId(int position)
+	{
+		return ids.get(position);
+	}
+
+	@Override
+	public boolean hasStableIds()
+	{
+		return true;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * RowCache.java
+ *
+ * Process-wide LRU cache of decoded notes and list rows, keyed by the change
+ * URI of the note or list they belong to, so reopening one does not read and
+ * decode it again. Entries are weighed by the characters they hold, and the
+ * least recently used are dropped once the total passes MAX_CHARS.
+ * NotesDbAdapter invalidates the URI of every row it writes.
+ *
+ * Callers always get and give copies, since Note and ListRow are mutable.
+ */
+
+package notepad.main;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.ListRow;
+import model.Note;
+import android.content.ContentUris;
+import android.net.Uri;
+
+public class RowCache
+{
+	/** Characters held by all entries together */
+	private static final int MAX_CHARS = 512 * 1024;
+	/** Weight of an entry or list row beyond the text it holds */
+	private static final int OVERHEAD = 32;
+
+	private static final RowCache sInstance = new RowCache();
+
+	private static class Slot
+	{
+		final Object value;
+		final int weight;
+
+		Slot(Object value, int weight)
+		{
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/** Entries in access order, least recently used first */
+	private final LinkedHashMap<Uri, Slot> mEntries = new LinkedHashMap<Uri, Slot>(
+			16, 0.75f, true);
+	private int mWeight;
+	/** Bumped by every invalidation; see {@link #stamp()} */
+	private long mGeneration;
+
+	private long mHits;
+	private long mMisses;
+	private long mEvictions;
+
+	private RowCache()
+	{
+	}
+
+	public static RowCache get()
+	{
+		return sInstance;
+	}
+
+	/**
+	 * @return a stamp to take before reading a row from the database and
+	 *         pass to the put that caches it; the put is dropped if the row
+	 *         may have been written in between
+	 */
+	public synchronized long stamp()
+	{
+		return mGeneration;
+	}
+
+	/**
+	 * @return a copy of the cached note, or null if it is not cached. A note
+	 *         whose body is stored in chunks is cached with a null body.
+	 */
+	public synchronized Note getNote(long rowId)
+	{
+		final Note note = (Note) lookup(noteUri(rowId));
+		return (note == null) ? null : copy(note);
+	}
+
+	public synchronized void putNote(long rowId, Note note, long stamp)
+	{
+		final int weight = OVERHEAD + length(note.getTitle())
+				+ length(note.getBody());
+		store(noteUri(rowId), copy(note), weight, stamp);
+	}
+
+	/**
+	 * @return copies of the cached rows of a list, or null if they are not
+	 *         cached
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<ListRow> getListRows(long listId)
+	{
+		final List<ListRow> rows = (List<ListRow>) lookup(listUri(listId));
+		return (rows == null) ? null : copy(rows);
+	}
+
+	public synchronized void putListRows(long listId, List<ListRow> rows,
+			long stamp)
+	{
+		int weight = OVERHEAD;
+		for (int i = 0; i < rows.size(); i++)
+		{
+			weight += OVERHEAD + length(rows.get(i).getRowDescription());
+		}
+		store(listUri(listId), copy(rows), weight, stamp);
+	}
+
+	/**
+	 * Drop what is cached for a note or list URI. A URI without an id, such
+	 * as {@link NotesUris#LISTS_URI}, drops every entry under it.
+	 */
+	public synchronized void invalidate(Uri uri)
+	{
+		mGeneration++;
+		final Slot entry = mEntries.remove(uri);
+		if (entry != null)
+		{
+			mWeight -= entry.weight;
+			return;
+		}
+		final String prefix = uri.toString() + "/";
+		for (Iterator<Map.Entry<Uri, Slot>> i = mEntries
+				.entrySet().iterator(); i.hasNext();)
+		{
+			final Map.Entry<Uri, Slot> e = i.next();
+			if (e.getKey().toString().startsWith(prefix))
+			{
+				mWeight -= e.getValue().weight;
+				i.remove();
+			}
+		}
+	}
+
+	public synchronized long hits()
+	{
+		return mHits;
+	}
+
+	public synchronized long misses()
+	{
+		return mMisses;
+	}
+
+	public synchronized long evictions()
+	{
+		return mEvictions;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "RowCache[" + mEntries.size() + " entries, " + mWeight
+				+ " chars, hits=" + mHits + " misses=" + mMisses
+				+ " evictions=" + mEvictions + "]";
+	}
+
+	private Object lookup(Uri key)
+	{
+		final Slot entry = mEntries.get(key);
+		if (entry == null)
+		{
+			mMisses++;
+			return null;
+		}
+		mHits++;
+		return entry.value;
+	}
+
+	private void store(Uri key, Object value, int weight, long stamp)
+	{
+		if (stamp != mGeneration || weight > MAX_CHARS)
+		{
+			return;
+		}
+		final Slot old = mEntries.put(key, new Slot(value, weight));
+		if (old != null)
+		{
+			mWeight -= old.weight;
+		}
+		mWeight += weight;
+		final Iterator<Slot> eldest = mEntries.values().iterator();
+		while (mWeight > MAX_CHARS)
+		{
+			mWeight -= eldest.next().weight;
+			eldest.remove();
+			mEvictions++;
+		}
+	}
+
+	private static Uri noteUri(long rowId)
+	{
+		return ContentUris.withAppendedId(NotesUris.NOTES_URI, rowId);
+	}
+
+	private static Uri listUri(long listId)
+	{
+		return ContentUris.withAppendedId(NotesUris.LISTS_URI, listId);
+	}
+
+	private static int length(String text)
+	{
+		return (text == null) ? 0 : text.length();
+	}
+
+	private static Note copy(Note note)
+	{
+		return new Note(note.getTitle(), note.getDue_date(), note.getBody());
+	}
+
+	private static List<ListRow> copy(List<ListRow> rows)
+	{
+		final ArrayList<ListRow> copies = new ArrayList<ListRow>(rows.size());
+		for (int i = 0; i < rows.size(); i++)
+		{
+			final ListRow row = rows.get(i);
+			copies.add(new ListRow(row.getId(), row.getListId(), row
+					.getRowDescription(), row.getIsChecked(), row
+					.getVersion(), row.getPosition()));
+		}
+		return copies;
+	}
+}
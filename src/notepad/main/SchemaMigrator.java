@@ -0,0 +1,602 @@
+/*
+ * SchemaMigrator.java
+ *
+ * Upgrades the notes database one version at a time without throwing away
+ * data. Each Step moves the schema from version N - 1 to N inside the
+ * onUpgrade transaction. Cheap changes (new columns, indexes) are applied
+ * there directly. A change that needs a table rebuilt only creates the new
+ * layout beside the old table and queues a copy job; the rows are then moved
+ * by resume() in batches, each committed together with its progress record, so
+ * an upgrade that is interrupted carries on from the last batch on the next
+ * open instead of starting over.
+ *
+ * Indexes, triggers and the statements that fill virtual tables are written
+ * against the current layout, which older tables only reach once every step
+ * has added its columns. During an upgrade they are therefore created after
+ * the last step, or after the copy of a table being rebuilt.
+ */
+
+package notepad.main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+public class SchemaMigrator
+{
+	private static final String TAG = "SchemaMigrator";
+	private static final String SUFFIX = "_migrating";
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	/** Converted values convertColumn remembers before it starts afresh */
+	private static final int CONVERTED_LIMIT = 1024;
+
+	private static final String CREATE_JOBS_TABLE = "CREATE TABLE IF NOT EXISTS schema_jobs (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+			+ "table_name TEXT NOT NULL UNIQUE,"
+			+ "filter TEXT,"
+			+ "last_id INTEGER)";
+
+	/**
+	 * A single upgrade from version - 1 to version.
+	 */
+	public static abstract class Step
+	{
+		/**
+		 * @param migrator
+		 *            the migrator running the step, used to queue rebuilds
+		 * @param db
+		 *            database inside the onUpgrade transaction
+		 */
+		public abstract void upgrade(SchemaMigrator migrator, SQLiteDatabase db);
+	}
+
+	/**
+	 * Turns the text of a column into the value stored in its replacement.
+	 */
+	public interface Converter
+	{
+		long convert(String value);
+	}
+
+	/**
+	 * Step that rebuilds every registered table.
+	 */
+	public static final Step REBUILD_ALL = new Step()
+	{
+		@Override
+		public void upgrade(SchemaMigrator migrator, SQLiteDatabase db)
+		{
+			migrator.rebuildAll(db);
+		}
+	};
+
+	private final LinkedHashMap<String, String[]> mTables = new LinkedHashMap<String, String[]>();
+	private final HashSet<String> mVirtualTables = new HashSet<String>();
+	private final SparseArray<Step> mSteps = new SparseArray<Step>();
+	private final int mBatchSize;
+	/** Tables whose extras wait for the end of the upgrade being run */
+	private final LinkedHashSet<String> mPendingExtras = new LinkedHashSet<String>();
+	private boolean mUpgrading;
+
+	public SchemaMigrator()
+	{
+		this(DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param batchSize
+	 *            number of rows copied per transaction while rebuilding
+	 */
+	public SchemaMigrator(int batchSize)
+	{
+		mBatchSize = batchSize;
+	}
+
+	/**
+	 * Register the current layout of a table. Virtual tables hold derived
+	 * data, so rebuilding one drops it and runs its extras again to refill it.
+	 *
+	 * @param name
+	 *            table name
+	 * @param createSql
+	 *            CREATE TABLE or CREATE VIRTUAL TABLE statement for the table
+	 * @param extras
+	 *            indexes and triggers created along with the table, written so
+	 *            they can be run again on a table that already has them
+	 * @return this (self reference, allowing calls to be chained)
+	 */
+	public SchemaMigrator addTable(String name, String createSql,
+			String... extras)
+	{
+		if (createSql.startsWith("CREATE VIRTUAL TABLE " + name + " "))
+		{
+			mVirtualTables.add(name);
+		} else if (!createSql.startsWith("CREATE TABLE " + name + " "))
+		{
+			throw new IllegalArgumentException("Bad create statement for "
+					+ name);
+		}
+		final String[] statements = new String[extras.length + 1];
+		statements[0] = createSql;
+		System.arraycopy(extras, 0, statements, 1, extras.length);
+		mTables.put(name, statements);
+		return this;
+	}
+
+	/**
+	 * Register the step that upgrades the schema to version.
+	 *
+	 * @return this (self reference, allowing calls to be chained)
+	 */
+	public SchemaMigrator addStep(int version, Step step)
+	{
+		mSteps.put(version, step);
+		return this;
+	}
+
+	/**
+	 * Create every registered table from scratch.
+	 */
+	public void create(SQLiteDatabase db)
+	{
+		db.execSQL(CREATE_JOBS_TABLE);
+		for (String[] statements : mTables.values())
+		{
+			for (String sql : statements)
+			{
+				db.execSQL(sql);
+			}
+		}
+	}
+
+	/**
+	 * Run the steps between the two versions. Called from onUpgrade, so every
+	 * step shares the helper's transaction; rebuilds are only queued here and
+	 * carried out by {@link #resume(SQLiteDatabase)}. The extras the steps ask
+	 * for are created once the last step has run. Virtual tables are filled
+	 * after any queued rebuild, so they only index the rows that are kept.
+	 *
+	 * @throws SQLiteException
+	 *             if there is no step for one of the versions
+	 */
+	public void upgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+	{
+		db.execSQL(CREATE_JOBS_TABLE);
+		mPendingExtras.clear();
+		mUpgrading = true;
+		try
+		{
+			for (int version = oldVersion + 1; version <= newVersion; version++)
+			{
+				final Step step = mSteps.get(version);
+				if (step == null)
+				{
+					throw new SQLiteException("No migration to version "
+							+ version);
+				}
+				Log.i(TAG, "Upgrading schema to version " + version);
+				step.upgrade(this, db);
+			}
+		} finally
+		{
+			mUpgrading = false;
+		}
+
+		final boolean rebuilding = hasJob(db, null);
+		for (String name : mPendingExtras)
+		{
+			if (hasJob(db, name))
+			{
+				// Created by the rebuild once the rows are copied
+				continue;
+			}
+			if (rebuilding && mVirtualTables.contains(name))
+			{
+				db.execSQL("INSERT INTO schema_jobs (table_name) VALUES (?)",
+						new Object[] { name });
+			} else
+			{
+				runExtras(db, name);
+			}
+		}
+		mPendingExtras.clear();
+	}
+
+	/**
+	 * Queue a rebuild of every registered table, creating the ones that do
+	 * not exist yet. Used for layouts older than the first tracked version.
+	 */
+	public void rebuildAll(SQLiteDatabase db)
+	{
+		for (String name : mTables.keySet())
+		{
+			rebuild(db, name, null);
+		}
+	}
+
+	/**
+	 * Queue a rebuild of a table into its registered layout. Columns the two
+	 * layouts share are copied, NOT NULL columns that are new or hold nulls
+	 * are filled with an empty value. Queuing a table twice copies it once.
+	 *
+	 * @param name
+	 *            table to rebuild
+	 * @param filter
+	 *            optional WHERE clause selecting the rows to keep
+	 */
+	public void rebuild(SQLiteDatabase db, String name, String filter)
+	{
+		final String[] statements = mTables.get(name);
+		if (mVirtualTables.contains(name))
+		{
+			db.execSQL("DROP TABLE IF EXISTS " + name);
+		}
+		if (!tableExists(db, name))
+		{
+			db.execSQL(statements[0]);
+			createExtras(db, name);
+			return;
+		}
+
+		final Cursor job = db.rawQuery(
+				"SELECT filter FROM schema_jobs WHERE table_name = ?",
+				new String[] { name });
+		try
+		{
+			if (job.moveToFirst())
+			{
+				if (filter != null)
+				{
+					final String merged = job.isNull(0) ? filter : "("
+							+ job.getString(0) + ") AND (" + filter + ")";
+					db.execSQL(
+							"UPDATE schema_jobs SET filter = ? WHERE table_name = ?",
+							new Object[] { merged, name });
+				}
+				return;
+			}
+		} finally
+		{
+			job.close();
+		}
+
+		db.execSQL(statements[0].replaceFirst("CREATE TABLE " + name + " ",
+				"CREATE TABLE " + name + SUFFIX + " "));
+		db.execSQL("INSERT INTO schema_jobs (table_name, filter) VALUES (?, ?)",
+				new Object[] { name, filter });
+	}
+
+	/**
+	 * Add a column to a table unless the table already has it, which is the
+	 * case for tables created from the current layout earlier in the upgrade.
+	 */
+	public void addColumn(SQLiteDatabase db, String table, String column,
+			String type)
+	{
+		if (!columnNames(db, table).contains(column))
+		{
+			db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " "
+					+ type);
+		}
+	}
+
+	/**
+	 * Fill one column from the text of another, converting the rows in rowId
+	 * order a batch at a time. Values repeated close together are only
+	 * converted once. Does nothing if the table has no source column.
+	 * <p>
+	 * Unlike a rebuild this runs in full inside the onUpgrade transaction and
+	 * records no progress, so an upgrade interrupted part way converts every
+	 * row again on the next open. It reads one batch of rows at a time and
+	 * keeps at most CONVERTED_LIMIT converted values, so its memory stays
+	 * bounded, but its time grows with the table.
+	 *
+	 * @param from
+	 *            column holding the text
+	 * @param to
+	 *            column receiving the converted value
+	 */
+	public void convertColumn(SQLiteDatabase db, String table, String from,
+			String to, Converter converter)
+	{
+		if (!columnNames(db, table).contains(from))
+		{
+			return;
+		}
+		final HashMap<String, Long> converted = new HashMap<String, Long>();
+		final SQLiteStatement update = db.compileStatement("UPDATE " + table
+				+ " SET " + to + " = ? WHERE _id = ?");
+		try
+		{
+			long lastId = Long.MIN_VALUE;
+			int count;
+			do
+			{
+				final Cursor c = db.rawQuery("SELECT _id, " + from + " FROM "
+						+ table + " WHERE _id > ? ORDER BY _id LIMIT "
+						+ mBatchSize, new String[] { Long.toString(lastId) });
+				try
+				{
+					count = c.getCount();
+					while (c.moveToNext())
+					{
+						lastId = c.getLong(0);
+						final String text = c.getString(1);
+						Long value = converted.get(text);
+						if (value == null)
+						{
+							value = converter.convert(text);
+							if (converted.size() == CONVERTED_LIMIT)
+							{
+								converted.clear();
+							}
+							converted.put(text, value);
+						}
+						update.bindLong(1, value);
+						update.bindLong(2, lastId);
+						update.execute();
+					}
+				} finally
+				{
+					c.close();
+				}
+			} while (count == mBatchSize);
+		} finally
+		{
+			update.close();
+		}
+	}
+
+	/**
+	 * Create the registered indexes and triggers of a table that are missing.
+	 * Inside {@link #upgrade(SQLiteDatabase, int, int)} this only notes the
+	 * table, and they are created when the upgrade has run its last step.
+	 */
+	public void createExtras(SQLiteDatabase db, String name)
+	{
+		if (mUpgrading)
+		{
+			mPendingExtras.add(name);
+		} else
+		{
+			runExtras(db, name);
+		}
+	}
+
+	private void runExtras(SQLiteDatabase db, String name)
+	{
+		final String[] statements = mTables.get(name);
+		for (int i = 1; i < statements.length; i++)
+		{
+			db.execSQL(statements[i]);
+		}
+	}
+
+	/**
+	 * Finish any queued rebuilds. Each batch of rows is copied and its
+	 * progress recorded in one transaction. Must run with foreign keys off,
+	 * since the old tables are dropped once their rows have been moved.
+	 */
+	public void resume(SQLiteDatabase db)
+	{
+		if (!tableExists(db, "schema_jobs"))
+		{
+			return;
+		}
+
+		final ArrayList<Object[]> jobs = new ArrayList<Object[]>();
+		final Cursor c = db.rawQuery(
+				"SELECT _id, table_name, filter, last_id FROM schema_jobs ORDER BY _id",
+				null);
+		try
+		{
+			while (c.moveToNext())
+			{
+				jobs.add(new Object[] { c.getLong(0), c.getString(1),
+						c.getString(2), c.isNull(3) ? null : c.getLong(3) });
+			}
+		} finally
+		{
+			c.close();
+		}
+
+		for (Object[] job : jobs)
+		{
+			if (mVirtualTables.contains(job[1]))
+			{
+				fillTable(db, (Long) job[0], (String) job[1]);
+			} else
+			{
+				copyTable(db, (Long) job[0], (String) job[1],
+						(String) job[2], (Long) job[3]);
+			}
+		}
+	}
+
+	/**
+	 * Fill a virtual table whose extras were left for after the rebuilds
+	 * queued before it.
+	 */
+	private void fillTable(SQLiteDatabase db, long jobId, String name)
+	{
+		final long start = SystemClock.elapsedRealtime();
+		db.beginTransaction();
+		try
+		{
+			runExtras(db, name);
+			db.execSQL("DELETE FROM schema_jobs WHERE _id = ?",
+					new Object[] { jobId });
+			db.setTransactionSuccessful();
+		} finally
+		{
+			db.endTransaction();
+		}
+		Log.i(TAG, "Filled " + name + " in "
+				+ (SystemClock.elapsedRealtime() - start) + "ms");
+	}
+
+	private void copyTable(SQLiteDatabase db, long jobId, String name,
+			String filter, Long lastId)
+	{
+		final long start = SystemClock.elapsedRealtime();
+		final String target = name + SUFFIX;
+		final String[] columns = copyColumns(db, name, target);
+		final String where = (filter == null) ? "" : " AND (" + filter + ")";
+		int batches = 0;
+
+		while (true)
+		{
+			db.beginTransaction();
+			try
+			{
+				final long from = (lastId == null) ? Long.MIN_VALUE : lastId;
+				db.execSQL("INSERT INTO " + target + " (" + columns[0]
+						+ ") SELECT " + columns[1] + " FROM " + name
+						+ " WHERE _id > ?" + where + " ORDER BY _id LIMIT "
+						+ mBatchSize, new Object[] { from });
+				final Long max = maxId(db, target);
+				if (max == null || max.longValue() == from)
+				{
+					db.execSQL("DROP TABLE " + name);
+					db.execSQL("ALTER TABLE " + target + " RENAME TO " + name);
+					runExtras(db, name);
+					db.execSQL("DELETE FROM schema_jobs WHERE _id = ?",
+							new Object[] { jobId });
+					db.setTransactionSuccessful();
+					break;
+				}
+				db.execSQL("UPDATE schema_jobs SET last_id = ? WHERE _id = ?",
+						new Object[] { max, jobId });
+				db.setTransactionSuccessful();
+				lastId = max;
+				batches++;
+			} finally
+			{
+				db.endTransaction();
+			}
+		}
+		Log.i(TAG, "Rebuilt " + name + " in " + batches + " batches, "
+				+ (SystemClock.elapsedRealtime() - start) + "ms");
+	}
+
+	/**
+	 * @return the column list of the target table and the matching select
+	 *         list over the source table
+	 */
+	private static String[] copyColumns(SQLiteDatabase db, String source,
+			String target)
+	{
+		final ArrayList<String> existing = columnNames(db, source);
+		final StringBuilder into = new StringBuilder();
+		final StringBuilder select = new StringBuilder();
+		final Cursor c = db.rawQuery("PRAGMA table_info(" + target + ")", null);
+		try
+		{
+			while (c.moveToNext())
+			{
+				final String column = c.getString(c
+						.getColumnIndexOrThrow("name"));
+				String empty = null;
+				if (c.getInt(c.getColumnIndexOrThrow("notnull")) == 1
+						&& c.isNull(c.getColumnIndexOrThrow("dflt_value")))
+				{
+					final String type = c.getString(c
+							.getColumnIndexOrThrow("type"));
+					empty = "INTEGER".equalsIgnoreCase(type) ? "0" : "''";
+				}
+				String value = empty;
+				if (existing.contains(column))
+				{
+					value = (empty == null) ? column : "ifnull(" + column
+							+ ", " + empty + ")";
+				}
+				if (value != null)
+				{
+					if (into.length() > 0)
+					{
+						into.append(", ");
+						select.append(", ");
+					}
+					into.append(column);
+					select.append(value);
+				}
+			}
+		} finally
+		{
+			c.close();
+		}
+		return new String[] { into.toString(), select.toString() };
+	}
+
+	private static ArrayList<String> columnNames(SQLiteDatabase db,
+			String table)
+	{
+		final ArrayList<String> names = new ArrayList<String>();
+		final Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+		try
+		{
+			while (c.moveToNext())
+			{
+				names.add(c.getString(c.getColumnIndexOrThrow("name")));
+			}
+		} finally
+		{
+			c.close();
+		}
+		return names;
+	}
+
+	private static Long maxId(SQLiteDatabase db, String table)
+	{
+		final Cursor c = db.rawQuery("SELECT max(_id) FROM " + table, null);
+		try
+		{
+			return (c.moveToFirst() && !c.isNull(0)) ? c.getLong(0) : null;
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * @return whether a rebuild of the table is queued, or of any table if
+	 *         name is null
+	 */
+	private static boolean hasJob(SQLiteDatabase db, String name)
+	{
+		final Cursor c = (name == null) ? db.rawQuery(
+				"SELECT 1 FROM schema_jobs LIMIT 1", null) : db.rawQuery(
+				"SELECT 1 FROM schema_jobs WHERE table_name = ?",
+				new String[] { name });
+		try
+		{
+			return c.moveToFirst();
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	private static boolean tableExists(SQLiteDatabase db, String name)
+	{
+		final Cursor c = db.rawQuery(
+				"SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+				new String[] { name });
+		try
+		{
+			return c.moveToFirst();
+		} finally
+		{
+			c.close();
+		}
+	}
+}
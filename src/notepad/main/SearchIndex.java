@@ -0,0 +1,166 @@
+/*
+ * SearchIndex.java
+ *
+ * Full-text index over note titles, note bodies and list items. The FTS tables
+ * are keyed by the rowId of the row they index (docid) and kept in step with
+ * notes, note_chunks and list_data by triggers, so every write path through
+ * NotesDbAdapter updates the index without any extra code. The one exception
+ * is compressed note bodies, which SQL cannot read: the triggers index them as
+ * empty and NotesDbAdapter writes their text into notes_search itself.
+ */
+
+package notepad.main;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.style.StyleSpan;
+
+public class SearchIndex
+{
+	public static final String KEY_NOTE_ID = "note_id";
+	public static final String KEY_LIST_ID = "list_id";
+	public static final String KEY_SNIPPET = "snippet";
+
+	/** Marks the start of a matched term inside a snippet */
+	public static final char MATCH_START = '\u0002';
+	/** Marks the end of a matched term inside a snippet */
+	public static final char MATCH_END = '\u0003';
+
+	static final String CREATE_NOTES_SEARCH = "CREATE VIRTUAL TABLE notes_search USING fts3(title, body)";
+	static final String FILL_NOTES_SEARCH = "INSERT INTO notes_search (docid, title, body) SELECT _id, title, "
+			+ plainBody("") + " FROM notes";
+	static final String UPDATE_NOTE_BODY = "UPDATE notes_search SET body = ? WHERE docid = ?";
+	static final String CREATE_NOTE_CHUNKS_SEARCH = "CREATE VIRTUAL TABLE note_chunks_search USING fts3(data)";
+	static final String FILL_NOTE_CHUNKS_SEARCH = "INSERT INTO note_chunks_search (docid, data) SELECT _id, data FROM note_chunks";
+	static final String CREATE_LIST_DATA_SEARCH = "CREATE VIRTUAL TABLE list_data_search USING fts3(item_data)";
+	static final String FILL_LIST_DATA_SEARCH = "INSERT INTO list_data_search (docid, item_data) SELECT _id, item_data FROM list_data";
+
+	static final String NOTES_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS notes_search_insert AFTER INSERT ON notes BEGIN "
+			+ "INSERT INTO notes_search (docid, title, body) VALUES (new._id, new.title, "
+			+ plainBody("new.") + "); END";
+	static final String NOTES_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS notes_search_update AFTER UPDATE OF title, body ON notes BEGIN "
+			+ "UPDATE notes_search SET title = new.title, body = "
+			+ plainBody("new.") + " WHERE docid = new._id; END";
+	static final String NOTES_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS notes_search_delete AFTER DELETE ON notes BEGIN "
+			+ "DELETE FROM notes_search WHERE docid = old._id; END";
+	static final String NOTE_CHUNKS_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS note_chunks_search_insert AFTER INSERT ON note_chunks BEGIN "
+			+ "INSERT INTO note_chunks_search (docid, data) VALUES (new._id, new.data); END";
+	static final String NOTE_CHUNKS_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS note_chunks_search_update AFTER UPDATE OF data ON note_chunks BEGIN "
+			+ "UPDATE note_chunks_search SET data = new.data WHERE docid = new._id; END";
+	static final String NOTE_CHUNKS_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS note_chunks_search_delete AFTER DELETE ON note_chunks BEGIN "
+			+ "DELETE FROM note_chunks_search WHERE docid = old._id; END";
+	static final String LIST_DATA_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS list_data_search_insert AFTER INSERT ON list_data BEGIN "
+			+ "INSERT INTO list_data_search (docid, item_data) VALUES (new._id, new.item_data); END";
+	static final String LIST_DATA_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS list_data_search_update AFTER UPDATE OF item_data ON list_data BEGIN "
+			+ "UPDATE list_data_search SET item_data = new.item_data WHERE docid = new._id; END";
+	static final String LIST_DATA_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS list_data_search_delete AFTER DELETE ON list_data BEGIN "
+			+ "DELETE FROM list_data_search WHERE docid = old._id; END";
+
+	/*
+	 * offsets() returns four integers per matched term, so counting its
+	 * separators gives the number of hits in the row, which is used as rank.
+	 * The _id column packs note, chunk and list item ids into one key space
+	 * for adapters.
+	 */
+	private static final String RANK = "(length(offsets(%1$s)) - length(replace(offsets(%1$s), ' ', '')) + 1) / 4";
+	private static final String SNIPPET = "snippet(%s, '" + MATCH_START
+			+ "', '" + MATCH_END + "', '...')";
+
+	static final String SEARCH_QUERY = "SELECT _id, note_id, list_id, title, snippet FROM ("
+			+ "SELECT notes._id * 3 AS _id, notes._id AS note_id, NULL AS list_id, notes.title AS title, "
+			+ String.format(SNIPPET, "notes_search") + " AS snippet, "
+			+ String.format(RANK, "notes_search") + " AS rank"
+			+ " FROM notes_search JOIN notes ON notes._id = notes_search.docid"
+			+ " WHERE notes_search MATCH ? AND notes.deleted_at IS NULL"
+			+ " UNION ALL "
+			+ "SELECT note_chunks._id * 3 + 1, notes._id, NULL, notes.title, "
+			+ String.format(SNIPPET, "note_chunks_search") + ", "
+			+ String.format(RANK, "note_chunks_search")
+			+ " FROM note_chunks_search JOIN note_chunks ON note_chunks._id = note_chunks_search.docid"
+			+ " JOIN notes ON notes._id = note_chunks.note_id"
+			+ " WHERE note_chunks_search MATCH ? AND notes.deleted_at IS NULL"
+			+ " UNION ALL "
+			+ "SELECT list_data._id * 3 + 2, NULL, lists._id, lists.title, "
+			+ String.format(SNIPPET, "list_data_search") + ", "
+			+ String.format(RANK, "list_data_search")
+			+ " FROM list_data_search JOIN list_data ON list_data._id = list_data_search.docid"
+			+ " JOIN lists ON lists._id = list_data.list_id"
+			+ " WHERE list_data_search MATCH ? AND lists.deleted_at IS NULL"
+			+ ") ORDER BY rank DESC, _id DESC LIMIT ? OFFSET ?";
+
+	private SearchIndex()
+	{
+	}
+
+	private static String plainBody(String row)
+	{
+		return "CASE WHEN " + row + NotesDbAdapter.KEY_BODY_FORMAT + " = "
+				+ BodyCodec.FORMAT_PLAIN + " THEN " + row
+				+ NotesDbAdapter.KEY_BODY + " ELSE '' END";
+	}
+
+	/**
+	 * Turn free text typed by the user into an FTS query that matches every
+	 * word as a prefix. Characters that have a meaning in the FTS query syntax
+	 * are dropped so user input can never produce a malformed query.
+	 *
+	 * @param text
+	 *            the text typed by the user
+	 * @return the FTS query, or null if the text has no searchable words
+	 */
+	public static String toMatchQuery(String text)
+	{
+		final StringBuilder query = new StringBuilder();
+		final String[] words = text.split("\\s+");
+		for (String word : words)
+		{
+			final StringBuilder term = new StringBuilder();
+			for (int i = 0; i < word.length(); i++)
+			{
+				final char c = word.charAt(i);
+				if (Character.isLetterOrDigit(c))
+				{
+					term.append(c);
+				}
+			}
+			if (term.length() > 0)
+			{
+				if (query.length() > 0)
+				{
+					query.append(' ');
+				}
+				query.append(term).append('*');
+			}
+		}
+		return (query.length() == 0) ? null : query.toString();
+	}
+
+	/**
+	 * @param snippet
+	 *            a snippet from the search results
+	 * @return the snippet with the matched terms in bold and the markers
+	 *         removed
+	 */
+	public static CharSequence highlight(String snippet)
+	{
+		final SpannableStringBuilder text = new SpannableStringBuilder();
+		int start = -1;
+		for (int i = 0; i < snippet.length(); i++)
+		{
+			final char c = snippet.charAt(i);
+			if (c == MATCH_START)
+			{
+				start = text.length();
+			} else if (c == MATCH_END && start >= 0)
+			{
+				text.setSpan(new StyleSpan(Typeface.BOLD), start,
+						text.length(), 0);
+				start = -1;
+			} else
+			{
+				text.append(c);
+			}
+		}
+		return text;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * StartupTrace.java
+ *
+ * Times the phases of a cold start: the process starting, the main activity
+ * being created, the database being open, the first page of notes being read
+ * and the first frame that shows it. Each phase is recorded the first time it
+ * is reached, and once the first frame is drawn they are logged on a single
+ * line under the tag "StartupTrace", so repeated launches can be compared
+ * from logcat. Starts that take longer than FIRST_FRAME_BUDGET are logged as
+ * warnings. Only the first start of each process is traced, unless a
+ * benchmark restarts the trace to time another launch.
+ */
+
+package notepad.main;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+public final class StartupTrace
+{
+	public static final int PROCESS_START = 0;
+	public static final int ACTIVITY_CREATE = 1;
+	public static final int DB_READY = 2;
+	public static final int FIRST_CURSOR = 3;
+	public static final int FIRST_FRAME = 4;
+
+	private static final String[] PHASES = { "process_start",
+			"activity_create", "db_ready", "first_cursor", "first_frame" };
+
+	/** Milliseconds from process start to first frame considered acceptable */
+	static final long FIRST_FRAME_BUDGET = 1000;
+	/** Clock ticks per second in /proc, fixed at 100 on Linux for ARM */
+	private static final long TICKS_PER_SECOND = 100;
+
+	private static final String TAG = "StartupTrace";
+
+	/** Uptime of each phase, 0 until it is reached */
+	private static final long[] sMarks = new long[PHASES.length];
+	private static boolean sDone;
+
+	private StartupTrace()
+	{
+	}
+
+	/**
+	 * Record that a phase has been reached, unless it already was or the
+	 * start has been logged. May be called from any thread.
+	 */
+	public static synchronized void mark(int phase)
+	{
+		if (sDone || sMarks[phase] != 0)
+		{
+			return;
+		}
+		sMarks[phase] = SystemClock.uptimeMillis();
+		if (phase == FIRST_FRAME)
+		{
+			sDone = true;
+			log();
+		}
+	}
+
+	/**
+	 * Trace the next launch of the main activity as if the process had
+	 * started now, for benchmarks that launch it again and again in one
+	 * process
+	 */
+	static synchronized void restart()
+	{
+		for (int i = 0; i < sMarks.length; i++)
+		{
+			sMarks[i] = 0;
+		}
+		sMarks[PROCESS_START] = SystemClock.uptimeMillis();
+		sDone = false;
+	}
+
+	/**
+	 * @return milliseconds from process start to a phase of the start last
+	 *         logged, or -1 if there is none yet or the phase was not reached
+	 */
+	static synchronized long elapsed(int phase)
+	{
+		if (!sDone || sMarks[phase] == 0)
+		{
+			return -1;
+		}
+		return sMarks[phase] - sMarks[PROCESS_START];
+	}
+
+	private static void log()
+	{
+		if (sMarks[PROCESS_START] == 0)
+		{
+			sMarks[PROCESS_START] = processStart(sMarks[ACTIVITY_CREATE]);
+		}
+		final long start = sMarks[PROCESS_START];
+		final StringBuilder line = new StringBuilder("cold start");
+		for (int i = PROCESS_START + 1; i < PHASES.length; i++)
+		{
+			line.append(' ').append(PHASES[i]).append('=');
+			if (sMarks[i] == 0)
+			{
+				line.append('-');
+			} else
+			{
+				line.append(sMarks[i] - start).append("ms");
+			}
+		}
+		if (sMarks[FIRST_FRAME] - start > FIRST_FRAME_BUDGET)
+		{
+			Log.w(TAG, line.append(" over budget of ")
+					.append(FIRST_FRAME_BUDGET).append("ms").toString());
+		} else
+		{
+			Log.i(TAG, line.toString());
+		}
+	}
+
+	/**
+	 * @return the uptime the process started at, from its start time in
+	 *         /proc/self/stat, or fallback if that cannot be read or makes no
+	 *         sense
+	 */
+	private static long processStart(long fallback)
+	{
+		try
+		{
+			final BufferedReader reader = new BufferedReader(new FileReader(
+					"/proc/self/stat"), 512);
+			final String stat;
+			try
+			{
+				stat = reader.readLine();
+			} finally
+			{
+				reader.close();
+			}
+			// The command name may hold spaces, so fields are counted from
+			// the parenthesis that ends it; start time is field 22 of the
+			// line, the 20th after the name
+			final String[] fields = stat.substring(stat.lastIndexOf(')') + 2)
+					.split(" ");
+			final long started = Long.parseLong(fields[19]) * 1000
+					/ TICKS_PER_SECOND;
+			if (started > 0 && started <= fallback)
+			{
+				return started;
+			}
+		} catch (IOException e)
+		{
+			Log.w(TAG, "Process start time unavailable", e);
+		} catch (RuntimeException e)
+		{
+			Log.w(TAG, "Process start time unreadable", e);
+		}
+		return fallback;
+	}
+}
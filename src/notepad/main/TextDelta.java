@@ -0,0 +1,221 @@
+/*
+ * TextDelta.java
+ *
+ * Compact description of how one text became another, for the revision
+ * history of notes. A delta is a sequence of operations that build the new
+ * text: COPY a range of the old text, or INSERT new characters. The common
+ * prefix and suffix are copied whole, and the rest is matched a line at a
+ * time, so an edit costs about the size of the lines it touched.
+ */
+
+package notepad.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+public class TextDelta
+{
+	private static final byte COPY = 'C';
+	private static final byte INSERT = 'I';
+	private static final String CHARSET = "UTF-8";
+
+	private TextDelta()
+	{
+	}
+
+	/**
+	 * @return the delta that turns from into to
+	 */
+	public static byte[] encode(String from, String to)
+	{
+		int prefix = 0;
+		final int max = Math.min(from.length(), to.length());
+		while (prefix < max && from.charAt(prefix) == to.charAt(prefix))
+		{
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < max - prefix
+				&& from.charAt(from.length() - 1 - suffix) == to.charAt(to
+						.length() - 1 - suffix))
+		{
+			suffix++;
+		}
+		// Inserted text is encoded, so it must not start or end inside a
+		// surrogate pair
+		if (prefix > 0 && Character.isHighSurrogate(to.charAt(prefix - 1)))
+		{
+			prefix--;
+		}
+		if (suffix > 0
+				&& Character.isLowSurrogate(to.charAt(to.length() - suffix)))
+		{
+			suffix--;
+		}
+
+		// Where each line of the old text first appears
+		final HashMap<String, Integer> lines = new HashMap<String, Integer>();
+		for (int start = 0; start < from.length();)
+		{
+			final int end = lineEnd(from, start);
+			final String line = from.substring(start, end);
+			if (!lines.containsKey(line))
+			{
+				lines.put(line, start);
+			}
+			start = end;
+		}
+
+		final Encoder out = new Encoder();
+		out.copy(0, prefix);
+		final int middleEnd = to.length() - suffix;
+		for (int start = prefix; start < middleEnd;)
+		{
+			final int end = Math.min(lineEnd(to, start), middleEnd);
+			final int length = end - start;
+			if (!out.extendCopy(from, to, start, length))
+			{
+				final Integer at = lines.get(to.substring(start, end));
+				if (at != null)
+				{
+					out.copy(at, length);
+				} else
+				{
+					out.insert(to, start, end);
+				}
+			}
+			start = end;
+		}
+		out.copy(from.length() - suffix, suffix);
+		return out.finish();
+	}
+
+	/**
+	 * @return the text a delta from {@link #encode(String, String)} builds
+	 *         from the text it was made against
+	 */
+	public static String apply(String from, byte[] delta)
+	{
+		final DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(delta));
+		final StringBuilder text = new StringBuilder(from.length());
+		try
+		{
+			while (in.available() > 0)
+			{
+				final byte op = in.readByte();
+				if (op == COPY)
+				{
+					final int start = in.readInt();
+					text.append(from, start, start + in.readInt());
+				} else if (op == INSERT)
+				{
+					final byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					text.append(new String(bytes, CHARSET));
+				} else
+				{
+					throw new IllegalStateException("Corrupt delta");
+				}
+			}
+		} catch (IOException e)
+		{
+			throw new IllegalStateException("Corrupt delta", e);
+		}
+		return text.toString();
+	}
+
+	private static int lineEnd(String text, int start)
+	{
+		final int newline = text.indexOf('\n', start);
+		return (newline == -1) ? text.length() : newline + 1;
+	}
+
+	/**
+	 * Collects operations, merging a run of copies of consecutive old text
+	 * or of inserts into one operation.
+	 */
+	private static class Encoder
+	{
+		private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+		private final DataOutputStream mOut = new DataOutputStream(mBytes);
+		private int mCopyStart = -1;
+		private int mCopyLength;
+		private final StringBuilder mInsert = new StringBuilder();
+
+		/**
+		 * Grow the pending copy if the old text goes on the way the new text
+		 * does.
+		 */
+		boolean extendCopy(String from, String to, int start, int length)
+		{
+			if (mCopyStart < 0
+					|| !from.regionMatches(mCopyStart + mCopyLength, to,
+							start, length))
+			{
+				return false;
+			}
+			mCopyLength += length;
+			return true;
+		}
+
+		void copy(int start, int length)
+		{
+			if (length == 0)
+			{
+				return;
+			}
+			if (mCopyStart >= 0 && mCopyStart + mCopyLength == start)
+			{
+				mCopyLength += length;
+				return;
+			}
+			flush();
+			mCopyStart = start;
+			mCopyLength = length;
+		}
+
+		void insert(String to, int start, int end)
+		{
+			if (mCopyStart >= 0)
+			{
+				flush();
+			}
+			mInsert.append(to, start, end);
+		}
+
+		private void flush()
+		{
+			try
+			{
+				if (mCopyStart >= 0)
+				{
+					mOut.writeByte(COPY);
+					mOut.writeInt(mCopyStart);
+					mOut.writeInt(mCopyLength);
+					mCopyStart = -1;
+				} else if (mInsert.length() > 0)
+				{
+					final byte[] bytes = mInsert.toString().getBytes(CHARSET);
+					mOut.writeByte(INSERT);
+					mOut.writeInt(bytes.length);
+					mOut.write(bytes);
+					mInsert.setLength(0);
+				}
+			} catch (IOException e)
+			{
+				throw new AssertionError(e);
+			}
+		}
+
+		byte[] finish()
+		{
+			flush();
+			return mBytes.toByteArray();
+		}
+	}
+}
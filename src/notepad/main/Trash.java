@@ -0,0 +1,226 @@
+/*
+ * Trash.java
+ *
+ * Shows the notes and lists that have been deleted, most recent first, and
+ * lets them be restored or the trash be emptied. Anything left in the trash
+ * longer than RETENTION is deleted for good by purgeExpired(), which the main
+ * activity starts in the background once a process has shown its notes.
+ *
+ * Purges run on the DbWriter thread PURGE_BATCH rows at a time, each batch in
+ * its own transaction, with the next batch queued only once the last one is
+ * done, so edits made meanwhile never wait behind a large purge.
+ */
+
+package notepad.main;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import android.app.AlertDialog;
+import android.app.ListActivity;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+
+public class Trash extends ListActivity
+{
+	/** How long deleted notes and lists can still be restored */
+	public static final long RETENTION = 30L * 24 * 60 * 60 * 1000;
+	private static final int PURGE_BATCH = 200;
+
+	private static final int EMPTY_ID = 1;
+
+	/** Set once this process has started purging expired trash */
+	private static boolean sPurgedExpired;
+
+	private NotesDbAdapter mDbHelper;
+	private SimpleCursorAdapter mTrash;
+	private boolean mDestroyed;
+
+	private final Handler mHandler = new Handler();
+
+	private final ContentObserver mObserver = new ContentObserver(mHandler)
+	{
+		@Override
+		public void onChange(boolean selfChange)
+		{
+			if (!mDestroyed)
+			{
+				mTrash.getCursor().requery();
+			}
+		}
+	};
+
+	@Override
+	public void onCreate(Bundle savedInstanceState)
+	{
+		super.onCreate(savedInstanceState);
+		setTitle(R.string.trash);
+		mDbHelper = new NotesDbAdapter(this).open();
+
+		mTrash = new SimpleCursorAdapter(this, R.layout.trash_row, mDbHelper
+				.fetchTrash(), new String[] { NotesDbAdapter.KEY_TITLE,
+				NotesDbAdapter.KEY_DELETED_AT }, new int[] { R.id.trash_title,
+				R.id.trash_deleted });
+		mTrash.setViewBinder(deletedDate);
+		setListAdapter(mTrash);
+
+		getContentResolver().registerContentObserver(NotesUris.NOTES_URI,
+				true, mObserver);
+		getContentResolver().registerContentObserver(NotesUris.LISTS_URI,
+				true, mObserver);
+	}
+
+	@Override
+	protected void onDestroy()
+	{
+		super.onDestroy();
+		mDestroyed = true;
+		getContentResolver().unregisterContentObserver(mObserver);
+		mTrash.changeCursor(null);
+		mDbHelper.close();
+	}
+
+	private final SimpleCursorAdapter.ViewBinder deletedDate = new SimpleCursorAdapter.ViewBinder()
+	{
+		public boolean setViewValue(View view, Cursor cursor, int columnIndex)
+		{
+			if (view.getId() != R.id.trash_deleted)
+			{
+				return false;
+			}
+			((TextView) view).setText(getString(R.string.deleted_at,
+					DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
+							DateFormat.SHORT).format(
+							new Date(cursor.getLong(columnIndex)))));
+			return true;
+		}
+	};
+
+	/**
+	 * Offer to restore the note or list that was tapped
+	 */
+	@Override
+	protected void onListItemClick(ListView l, View v, int position, long id)
+	{
+		final Cursor item = (Cursor) l.getItemAtPosition(position);
+		final int noteColumn = item
+				.getColumnIndexOrThrow(NotesDbAdapter.KEY_NOTE_ID);
+		final boolean isNote = !item.isNull(noteColumn);
+		final long rowId = isNote ? item.getLong(noteColumn) : item
+				.getLong(item.getColumnIndexOrThrow(NotesDbAdapter.KEY_LIST_ID));
+		new AlertDialog.Builder(this).setTitle(
+				item.getString(item
+						.getColumnIndexOrThrow(NotesDbAdapter.KEY_TITLE)))
+				.setPositiveButton(R.string.restore,
+						new DialogInterface.OnClickListener()
+						{
+							public void onClick(DialogInterface dialog,
+									int whichButton)
+							{
+								restore(isNote, rowId);
+							}
+						}).setNegativeButton("CANCEL", null).show();
+	}
+
+	private void restore(final boolean isNote, final long rowId)
+	{
+		DbWriter.get(this).submit(null, new DbWriter.Write<Integer>()
+		{
+			@Override
+			public Integer run(NotesDbAdapter db)
+			{
+				final long[] ids = new long[] { rowId };
+				return isNote ? db.restoreNotes(ids) : db.restoreLists(ids);
+			}
+		}, null);
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu)
+	{
+		super.onCreateOptionsMenu(menu);
+		menu.add(0, EMPTY_ID, 0, R.string.empty_trash).setIcon(
+				android.R.drawable.ic_menu_delete);
+		return true;
+	}
+
+	@Override
+	public boolean onMenuItemSelected(int featureId, MenuItem item)
+	{
+		if (item.getItemId() == EMPTY_ID)
+		{
+			new AlertDialog.Builder(this).setMessage(
+					R.string.confirm_empty_trash).setPositiveButton("OK",
+					new DialogInterface.OnClickListener()
+					{
+						public void onClick(DialogInterface dialog,
+								int whichButton)
+						{
+							purge(getApplicationContext(), Long.MAX_VALUE);
+						}
+					}).setNegativeButton("CANCEL", null).show();
+			return true;
+		}
+		return super.onMenuItemSelected(featureId, item);
+	}
+
+	/**
+	 * Delete for good whatever has been in the trash longer than RETENTION.
+	 * Done once per process, since little can expire while it runs. Called
+	 * on the main thread.
+	 */
+	public static void purgeExpired(Context context)
+	{
+		if (sPurgedExpired)
+		{
+			return;
+		}
+		sPurgedExpired = true;
+		purge(context.getApplicationContext(), System.currentTimeMillis()
+				- RETENTION);
+	}
+
+	/**
+	 * Delete for good everything put in the trash before a given time, one
+	 * batch after another, then compact the database if that freed enough.
+	 * A compaction that readers keep from running is tried again by the next
+	 * purge.
+	 */
+	private static void purge(final Context context, final long before)
+	{
+		DbWriter.get(context).submit(null, new DbWriter.Write<Integer>()
+		{
+			@Override
+			public Integer run(NotesDbAdapter db)
+			{
+				final int purged = db.purgeTrash(before, PURGE_BATCH);
+				if (purged < PURGE_BATCH)
+				{
+					db.reclaimSpace();
+				}
+				return purged;
+			}
+		}, new DbWriter.Callback<Integer>()
+		{
+			public void onComplete(Integer purged)
+			{
+				// Queued from here rather than from the writer thread, which
+				// would wait on itself if the queue were full
+				if (purged != null && purged == PURGE_BATCH)
+				{
+					purge(context, before);
+				}
+			}
+		});
+	}
+}
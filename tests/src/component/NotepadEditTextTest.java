@@ -0,0 +1,82 @@
+package component;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+
+/**
+ * Draws a note of LINE_COUNT lines through a screen-sized canvas scrolled to
+ * its top, middle and bottom, the way the ScrollView around the editor does,
+ * and logs the time per frame at each under the tag "NotepadEditTextTest".
+ * With only the visible ruled lines drawn the three should be about the same.
+ */
+public class NotepadEditTextTest extends AndroidTestCase
+{
+	private static final String TAG = "NotepadEditTextTest";
+
+	private static final int LINE_COUNT = 10000;
+	private static final int WIDTH = 480;
+	private static final int HEIGHT = 800;
+	/** Frames drawn at each scroll position */
+	private static final int FRAMES = 200;
+
+	public void testDrawLongNote()
+	{
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < LINE_COUNT; i++)
+		{
+			text.append("Line ").append(i).append('\n');
+		}
+		final NotepadEditText view = new NotepadEditText(getContext(), null);
+		view.setText(text);
+		view.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+				MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+		view.layout(0, 0, WIDTH, view.getMeasuredHeight());
+		assertTrue(view.getLineCount() > LINE_COUNT);
+
+		final Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT,
+				Bitmap.Config.ARGB_8888);
+		try
+		{
+			final Canvas canvas = new Canvas(bitmap);
+			final int end = view.getHeight() - HEIGHT;
+			// The first draw builds the line buffer and warms up the layout
+			draw(view, canvas, 0);
+			time("top", view, canvas, 0);
+			time("middle", view, canvas, end / 2);
+			time("bottom", view, canvas, end);
+		} finally
+		{
+			bitmap.recycle();
+		}
+	}
+
+	private static void time(String where, NotepadEditText view,
+			Canvas canvas, int scrollY)
+	{
+		final long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < FRAMES; i++)
+		{
+			draw(view, canvas, scrollY);
+		}
+		final long elapsed = SystemClock.elapsedRealtime() - start;
+		Log.i(TAG, "Drew " + FRAMES + " frames of " + view.getLineCount()
+				+ " lines at the " + where + " in " + elapsed + "ms, "
+				+ elapsed * 1000 / FRAMES + "us per frame");
+	}
+
+	/**
+	 * Draw the view as seen through a canvas scrolled down to scrollY, so the
+	 * clip covers HEIGHT pixels of it from there
+	 */
+	private static void draw(NotepadEditText view, Canvas canvas, int scrollY)
+	{
+		canvas.save();
+		canvas.translate(0, -scrollY);
+		view.draw(canvas);
+		canvas.restore();
+	}
+}
@@ -0,0 +1,156 @@
+package component;
+
+import junit.framework.TestCase;
+import android.graphics.Typeface;
+import android.os.SystemClock;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.util.Log;
+
+/**
+ * Checks that a snapshot is reused, as the same String, until the text is
+ * changed by any of the ways an Editable can be edited. Needs no Context.
+ * Also times inserts, deletes and snapshots of a BODY_LENGTH body against a
+ * plain SpannableStringBuilder, logged under the tag "VersionedEditableTest".
+ */
+public class VersionedEditableTest extends TestCase
+{
+	private static final String TAG = "VersionedEditableTest";
+
+	/** Characters in the body of the benchmark, a few megabytes of text */
+	private static final int BODY_LENGTH = 2 * 1024 * 1024;
+	/** Inserts, then deletes, made in the middle of the body */
+	private static final int EDITS = 20000;
+	/** Snapshots taken of the body while it is unchanged */
+	private static final int SNAPSHOTS = 50;
+
+	public void testSnapshotReusedWhileUnchanged()
+	{
+		final VersionedEditable text = new VersionedEditable("hello");
+		final String first = text.snapshot();
+		assertEquals("hello", first);
+		assertSame(first, text.snapshot());
+	}
+
+	public void testEveryEditMakesNewSnapshot()
+	{
+		final VersionedEditable text = new VersionedEditable("hello");
+		String last = text.snapshot();
+
+		text.append(" world");
+		last = assertNewSnapshot(text, last, "hello world");
+		text.insert(0, ">");
+		last = assertNewSnapshot(text, last, ">hello world");
+		text.delete(0, 1);
+		last = assertNewSnapshot(text, last, "hello world");
+		text.replace(0, 5, "HELLO");
+		last = assertNewSnapshot(text, last, "HELLO world");
+		text.clear();
+		assertNewSnapshot(text, last, "");
+	}
+
+	public void testReplaceWithSameTextCountsAsEdit()
+	{
+		final VersionedEditable text = new VersionedEditable("abc");
+		final String before = text.snapshot();
+		text.replace(1, 2, "b");
+		final String after = text.snapshot();
+		assertNotSame(before, after);
+		assertEquals(before, after);
+	}
+
+	public void testSpansLeaveSnapshot()
+	{
+		final VersionedEditable text = new VersionedEditable("hello");
+		final String before = text.snapshot();
+		text.setSpan(new StyleSpan(Typeface.BOLD), 0, 5,
+				Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		assertSame(before, text.snapshot());
+	}
+
+	public void testBenchmarkAgainstSpannableStringBuilder()
+	{
+		final StringBuilder body = new StringBuilder(BODY_LENGTH + 32);
+		for (int i = 0; body.length() < BODY_LENGTH; i++)
+		{
+			body.append("Line ").append(i).append(" of a long note\n");
+		}
+		final VersionedEditable versioned = new VersionedEditable(body);
+		final SpannableStringBuilder plain = new SpannableStringBuilder(body);
+
+		final long[] versionedTimes = time(versioned, new Snapshotter()
+		{
+			public String snapshot()
+			{
+				return versioned.snapshot();
+			}
+		});
+		final long[] plainTimes = time(plain, new Snapshotter()
+		{
+			public String snapshot()
+			{
+				return plain.toString();
+			}
+		});
+		assertEquals(plain.toString(), versioned.snapshot());
+		Log.i(TAG, "Body of " + body.length() + " chars, VersionedEditable"
+				+ " against SpannableStringBuilder: " + EDITS + " inserts "
+				+ versionedTimes[0] + "ms against " + plainTimes[0] + "ms, "
+				+ EDITS + " deletes " + versionedTimes[1] + "ms against "
+				+ plainTimes[1] + "ms, " + SNAPSHOTS + " snapshots "
+				+ versionedTimes[2] + "ms against " + plainTimes[2] + "ms");
+		// Only the first snapshot copies the text
+		assertTrue(versionedTimes[2] < plainTimes[2]);
+	}
+
+	/**
+	 * Takes the String copy of a text, one way or the other
+	 */
+	private interface Snapshotter
+	{
+		String snapshot();
+	}
+
+	/**
+	 * @return milliseconds taken by EDITS one-character inserts in the middle
+	 *         of the text, by as many deletes, and by SNAPSHOTS snapshots of
+	 *         the text that follows
+	 */
+	private static long[] time(SpannableStringBuilder text,
+			Snapshotter snapshotter)
+	{
+		final int middle = text.length() / 2;
+		long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < EDITS; i++)
+		{
+			text.insert(middle, "x");
+		}
+		final long inserts = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < EDITS; i++)
+		{
+			text.delete(middle, middle + 1);
+		}
+		final long deletes = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < SNAPSHOTS; i++)
+		{
+			assertTrue(snapshotter.snapshot().length() >= BODY_LENGTH);
+		}
+		final long snapshots = SystemClock.elapsedRealtime() - start;
+		return new long[] { inserts, deletes, snapshots };
+	}
+
+	private static String assertNewSnapshot(VersionedEditable text,
+			String previous, String expected)
+	{
+		final String snapshot = text.snapshot();
+		assertNotSame(previous, snapshot);
+		assertEquals(expected, snapshot);
+		assertSame(snapshot, text.snapshot());
+		return snapshot;
+	}
+}
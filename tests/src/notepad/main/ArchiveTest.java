@@ -0,0 +1,200 @@
+/*
+ * ArchiveTest.java
+ *
+ * Exports RECORD_COUNT notes, lists and list rows, imports the archive into an
+ * empty database and exports that again; the two archives must be identical.
+ * Throughput of each direction is logged under the tag "ArchiveTest".
+ */
+
+package notepad.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+public class ArchiveTest extends AndroidTestCase
+{
+	private static final String TAG = "ArchiveTest";
+	private static final String DATABASE_NAME = "data";
+
+	private static final int NOTE_COUNT = 250000;
+	private static final int LIST_COUNT = 2500;
+	private static final int ROWS_PER_LIST = 99;
+	private static final int RECORD_COUNT = NOTE_COUNT + LIST_COUNT
+			* (ROWS_PER_LIST + 1);
+	/** Rows written per transaction while filling the database */
+	private static final int BATCH_SIZE = 1000;
+
+	private Context mContext;
+	private File mFirst;
+	private File mSecond;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		// NotesDbAdapter opens its database through the application context,
+		// which must be the renaming one so the real notes are left alone
+		mContext = new RenamingDelegatingContext(getContext(), "archive_test.")
+		{
+			@Override
+			public Context getApplicationContext()
+			{
+				return this;
+			}
+		};
+		mContext.deleteDatabase(DATABASE_NAME);
+		mFirst = new File(getContext().getCacheDir(), "archive_test_1");
+		mSecond = new File(getContext().getCacheDir(), "archive_test_2");
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		mContext.deleteDatabase(DATABASE_NAME);
+		mFirst.delete();
+		mSecond.delete();
+		super.tearDown();
+	}
+
+	public void testRoundTrip() throws IOException
+	{
+		NotesDbAdapter db = new NotesDbAdapter(mContext).open();
+		try
+		{
+			fill(db);
+			assertEquals(RECORD_COUNT, timed("Exported", db, mFirst, true));
+		} finally
+		{
+			db.close();
+		}
+
+		mContext.deleteDatabase(DATABASE_NAME);
+		db = new NotesDbAdapter(mContext).open();
+		try
+		{
+			assertEquals(RECORD_COUNT, timed("Imported", db, mFirst, false));
+			assertEquals(RECORD_COUNT, timed("Exported", db, mSecond, true));
+			final Cursor lists = db.fetchAllLists();
+			try
+			{
+				assertEquals(LIST_COUNT, lists.getCount());
+				lists.moveToFirst();
+				assertEquals(ROWS_PER_LIST, lists.getInt(lists
+						.getColumnIndexOrThrow(NotesDbAdapter.KEY_ITEM_COUNT)));
+			} finally
+			{
+				lists.close();
+			}
+		} finally
+		{
+			db.close();
+		}
+		assertSameContent(mFirst, mSecond);
+	}
+
+	/**
+	 * Fill the database with NOTE_COUNT notes, the first stored compressed and
+	 * the second in chunks, and LIST_COUNT lists of ROWS_PER_LIST rows.
+	 */
+	private static void fill(NotesDbAdapter db)
+	{
+		final StringBuilder large = new StringBuilder();
+		while (large.length() <= NotesDbAdapter.INLINE_LIMIT)
+		{
+			large.append("A line of a very large note \u00e9\u4e2d\n");
+		}
+		final long now = System.currentTimeMillis();
+		db.beginTransaction();
+		try
+		{
+			for (int i = 0; i < NOTE_COUNT; i++)
+			{
+				final String body;
+				if (i == 0)
+				{
+					body = large.substring(0, BodyCodec.COMPRESS_THRESHOLD * 2);
+				} else if (i == 1)
+				{
+					body = large.toString();
+				} else
+				{
+					body = "Body of note " + i;
+				}
+				db.createNote("Note " + i, now + i, body, now - i);
+				if (i % BATCH_SIZE == BATCH_SIZE - 1)
+				{
+					db.setTransactionSuccessful();
+					db.endTransaction();
+					db.beginTransaction();
+				}
+			}
+			for (int i = 0; i < LIST_COUNT; i++)
+			{
+				final long listId = db.createList("List " + i, now - i);
+				for (int j = 0; j < ROWS_PER_LIST; j++)
+				{
+					db.createListRowData(listId, "Item " + j, j % 2);
+				}
+				db.setTransactionSuccessful();
+				db.endTransaction();
+				db.beginTransaction();
+			}
+			db.setTransactionSuccessful();
+		} finally
+		{
+			db.endTransaction();
+		}
+	}
+
+	private static long timed(String action, NotesDbAdapter db, File file,
+			boolean export) throws IOException
+	{
+		final long start = SystemClock.elapsedRealtime();
+		final long records = export ? Archive.exportTo(db, file) : Archive
+				.importFrom(db, file);
+		final long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+		Log.i(TAG, action + " " + records + " records (" + file.length()
+				+ " bytes) in " + elapsed + "ms, " + records * 1000 / elapsed
+				+ " records/s");
+		return records;
+	}
+
+	private static void assertSameContent(File expected, File actual)
+			throws IOException
+	{
+		assertEquals(expected.length(), actual.length());
+		final InputStream a = new FileInputStream(expected);
+		final InputStream b = new FileInputStream(actual);
+		try
+		{
+			final byte[] bufferA = new byte[8192];
+			final byte[] bufferB = new byte[8192];
+			int n;
+			while ((n = a.read(bufferA)) != -1)
+			{
+				int read = 0;
+				while (read < n)
+				{
+					read += b.read(bufferB, read, n - read);
+				}
+				for (int i = 0; i < n; i++)
+				{
+					assertEquals(bufferA[i], bufferB[i]);
+				}
+			}
+		} finally
+		{
+			a.close();
+			b.close();
+		}
+	}
+}
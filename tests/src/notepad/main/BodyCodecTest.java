@@ -0,0 +1,145 @@
+/*
+ * BodyCodecTest.java
+ *
+ * Round trips of note bodies through BodyCodec, and the trade-off it makes:
+ * for bodies of the sizes users paste, the space compression saves and the
+ * time it costs to compress and decompress them are logged under the tag
+ * "BodyCodecTest".
+ */
+
+package notepad.main;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.os.SystemClock;
+import android.util.Log;
+
+public class BodyCodecTest extends TestCase
+{
+	private static final String TAG = "BodyCodecTest";
+
+	/** Body sizes, in characters, that the trade-off is measured at */
+	private static final int[] SIZES = { 4 * 1024, 16 * 1024, 64 * 1024,
+			256 * 1024, 1024 * 1024 };
+	/** Times each body is compressed and decompressed while measuring */
+	private static final int ROUNDS = 20;
+
+	public void testShortBodiesStayPlain()
+	{
+		assertNull(BodyCodec.compress(null));
+		assertNull(BodyCodec.compress(""));
+		assertNull(BodyCodec.compress(log(BodyCodec.COMPRESS_THRESHOLD - 1)));
+	}
+
+	public void testRoundTrip()
+	{
+		for (int size : SIZES)
+		{
+			final String body = log(size);
+			final byte[] packed = BodyCodec.compress(body);
+			assertNotNull(packed);
+			assertTrue(packed.length < body.length());
+			assertEquals(body, BodyCodec.decompress(packed));
+		}
+	}
+
+	public void testRoundTripOfOtherScripts()
+	{
+		final StringBuilder body = new StringBuilder();
+		while (body.length() < BodyCodec.COMPRESS_THRESHOLD * 2)
+		{
+			// Accents, CJK and a character outside the BMP
+			body.append("caf\u00e9 \u4e2d\u6587 \ud83d\ude00\n");
+		}
+		final byte[] packed = BodyCodec.compress(body.toString());
+		assertNotNull(packed);
+		assertEquals(body.toString(), BodyCodec.decompress(packed));
+	}
+
+	public void testBodyAtThresholdIsCompressed()
+	{
+		final String body = log(BodyCodec.COMPRESS_THRESHOLD);
+		final byte[] packed = BodyCodec.compress(body);
+		assertNotNull(packed);
+		assertEquals(body, BodyCodec.decompress(packed));
+	}
+
+	public void testCorruptBodyIsRejected()
+	{
+		final byte[] packed = BodyCodec.compress(log(SIZES[0]));
+		final byte[] truncated = new byte[packed.length / 2];
+		System.arraycopy(packed, 0, truncated, 0, truncated.length);
+		try
+		{
+			BodyCodec.decompress(truncated);
+			fail();
+		} catch (IllegalStateException e)
+		{
+			// expected
+		}
+		try
+		{
+			BodyCodec.decompress(new byte[] { 1, 2, 3, 4 });
+			fail();
+		} catch (IllegalStateException e)
+		{
+			// expected
+		}
+	}
+
+	public void testTradeOff()
+	{
+		for (int size : SIZES)
+		{
+			final String body = log(size);
+			byte[] packed = null;
+			long start = SystemClock.elapsedRealtime();
+			for (int i = 0; i < ROUNDS; i++)
+			{
+				packed = BodyCodec.compress(body);
+			}
+			final long write = SystemClock.elapsedRealtime() - start;
+			start = SystemClock.elapsedRealtime();
+			for (int i = 0; i < ROUNDS; i++)
+			{
+				assertEquals(size, BodyCodec.decompress(packed).length());
+			}
+			final long read = SystemClock.elapsedRealtime() - start;
+			// Plain bodies are stored as UTF-8, which for this text is a byte
+			// a character
+			Log.i(TAG, size + " chars: " + packed.length + " bytes, "
+					+ (100 - packed.length * 100 / size) + "% saved, "
+					+ "compress " + write * 1000 / ROUNDS + "us, decompress "
+					+ read * 1000 / ROUNDS + "us");
+		}
+	}
+
+	/**
+	 * @return size characters of text like a pasted application log, which
+	 *         repeats its structure but not its numbers
+	 */
+	private static String log(int size)
+	{
+		final Random random = new Random(size);
+		final String[] levels = { "DEBUG", "INFO", "WARN", "ERROR" };
+		final String[] messages = { "Connection opened to", "Request served by",
+				"Cache miss for key", "Retrying after timeout on",
+				"Session closed for" };
+		final StringBuilder text = new StringBuilder(size + 100);
+		while (text.length() < size)
+		{
+			text.append("2011-03-").append(10 + random.nextInt(20)).append(' ')
+					.append(random.nextInt(24)).append(':')
+					.append(random.nextInt(60)).append(':')
+					.append(random.nextInt(60)).append('.')
+					.append(random.nextInt(1000)).append(' ')
+					.append(levels[random.nextInt(levels.length)]).append(' ')
+					.append(messages[random.nextInt(messages.length)])
+					.append(" node-").append(random.nextInt(64)).append(" id=")
+					.append(Long.toHexString(random.nextLong())).append('\n');
+		}
+		text.setLength(size);
+		return text.toString();
+	}
+}
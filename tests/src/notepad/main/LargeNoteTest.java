@@ -0,0 +1,176 @@
+/*
+ * LargeNoteTest.java
+ *
+ * Writes a note of BODY_LENGTH characters through openBodyWriter, so it is
+ * stored in chunks, and opens it in NoteEdit. The editor shows only a window
+ * of the chunks, so opening the note must take no longer than OPEN_BUDGET
+ * and grow the heap by no more than HEAP_BUDGET, however long the note is.
+ * Both are logged under the tag "LargeNoteTest".
+ *
+ * NoteEdit uses the application's own database, so whatever database is
+ * there is moved aside for the test and put back afterwards.
+ */
+
+package notepad.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.widget.EditText;
+
+public class LargeNoteTest extends ActivityInstrumentationTestCase2<NoteEdit>
+{
+	private static final String TAG = "LargeNoteTest";
+	private static final String DATABASE_NAME = "data";
+	/** Files SQLite may keep beside a database, by suffix */
+	private static final String[] DATABASE_FILES = { "", "-journal", "-wal",
+			"-shm" };
+	private static final String BACKUP_SUFFIX = ".large_note_test";
+
+	/** Characters in the body, 20 MB of text */
+	private static final int BODY_LENGTH = 20 * 1024 * 1024;
+	/** Milliseconds NoteEdit may take to open the note and settle */
+	private static final long OPEN_BUDGET = 2000;
+	/** Bytes the heap may grow by while the note is open */
+	private static final long HEAP_BUDGET = 4 * 1024 * 1024;
+
+	private long mRowId;
+
+	public LargeNoteTest()
+	{
+		super(NoteEdit.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		final Context context = getInstrumentation().getTargetContext();
+		// A backup left by an interrupted run holds the real notes, and the
+		// database beside it is the test's own
+		if (context.getDatabasePath(DATABASE_NAME + BACKUP_SUFFIX).exists())
+		{
+			context.deleteDatabase(DATABASE_NAME);
+		} else
+		{
+			moveDatabase("", BACKUP_SUFFIX);
+		}
+		final NotesDbAdapter db = new NotesDbAdapter(context).open();
+		try
+		{
+			mRowId = writeLargeNote(db);
+		} finally
+		{
+			db.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		getInstrumentation().getTargetContext().deleteDatabase(DATABASE_NAME);
+		moveDatabase(BACKUP_SUFFIX, "");
+		super.tearDown();
+	}
+
+	public void testOpenLargeNote()
+	{
+		final Intent intent = new Intent();
+		intent.putExtra(NotesDbAdapter.KEY_ROWID, mRowId);
+		setActivityIntent(intent);
+
+		final long heapBefore = usedHeap();
+		final long start = SystemClock.elapsedRealtime();
+		final NoteEdit activity = getActivity();
+		getInstrumentation().waitForIdleSync();
+		final long elapsed = SystemClock.elapsedRealtime() - start;
+		final long growth = usedHeap() - heapBefore;
+
+		final EditText body = (EditText) activity.findViewById(R.id.body);
+		final int shown = body.getText().length();
+		Log.i(TAG, "Opened a note of " + BODY_LENGTH + " chars in " + elapsed
+				+ "ms, showing " + shown + " chars; heap grew by " + growth
+				/ 1024 + "KB");
+		assertTrue(shown > 0 && shown < BODY_LENGTH);
+		assertTrue("Opened in " + elapsed + "ms", elapsed <= OPEN_BUDGET);
+		assertTrue("Heap grew by " + growth + " bytes", growth <= HEAP_BUDGET);
+
+		// Saving on the way out finds every chunk unchanged
+		activity.finish();
+		setActivity(null);
+		getInstrumentation().waitForIdleSync();
+	}
+
+	/**
+	 * @return bytes of the heap in use once garbage is collected
+	 */
+	private static long usedHeap()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+		{
+			runtime.gc();
+			runtime.runFinalization();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Write a note of BODY_LENGTH characters of numbered lines a line at a
+	 * time, so the whole body is never held in memory
+	 *
+	 * @return rowId of the note
+	 */
+	private static long writeLargeNote(NotesDbAdapter db) throws IOException
+	{
+		final long now = System.currentTimeMillis();
+		db.beginTransaction();
+		try
+		{
+			final long rowId = db.createNote("Large note", now, "", now);
+			final Writer writer = db.openBodyWriter(rowId);
+			final StringBuilder line = new StringBuilder();
+			int written = 0;
+			for (int i = 0; written < BODY_LENGTH; i++)
+			{
+				line.setLength(0);
+				line.append("Line ").append(i).append(" of a very long note\n");
+				final int length = Math.min(line.length(), BODY_LENGTH
+						- written);
+				writer.write(line.toString(), 0, length);
+				written += length;
+			}
+			writer.close();
+			db.setTransactionSuccessful();
+			return rowId;
+		} finally
+		{
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Rename the files of the application's database from one suffix to
+	 * another
+	 */
+	private void moveDatabase(String fromSuffix, String toSuffix)
+	{
+		final Context context = getInstrumentation().getTargetContext();
+		for (String file : DATABASE_FILES)
+		{
+			final File from = context.getDatabasePath(DATABASE_NAME + file
+					+ fromSuffix);
+			if (from.exists())
+			{
+				assertTrue(from.renameTo(context.getDatabasePath(DATABASE_NAME
+						+ file + toSuffix)));
+			}
+		}
+	}
+}
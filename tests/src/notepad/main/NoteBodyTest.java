@@ -0,0 +1,284 @@
+/*
+ * NoteBodyTest.java
+ *
+ * Round trips of note bodies through NotesDbAdapter in each of the formats it
+ * stores them in, the snippets made from them, and edits saved to a chunked
+ * body through saveChunks. After each edit the body read back must be the
+ * edited text and its chunks must still be in seq order.
+ */
+
+package notepad.main;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import model.NoteChunk;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+public class NoteBodyTest extends AndroidTestCase
+{
+	private static final String DATABASE_NAME = "data";
+
+	private Context mContext;
+	private NotesDbAdapter mDb;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		// NotesDbAdapter opens its database through the application context,
+		// which must be the renaming one so the real notes are left alone
+		mContext = new RenamingDelegatingContext(getContext(), "body_test.")
+		{
+			@Override
+			public Context getApplicationContext()
+			{
+				return this;
+			}
+		};
+		mContext.deleteDatabase(DATABASE_NAME);
+		mDb = new NotesDbAdapter(mContext).open();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		mDb.close();
+		mContext.deleteDatabase(DATABASE_NAME);
+		super.tearDown();
+	}
+
+	public void testSnippetOf()
+	{
+		assertEquals("", NotesDbAdapter.snippetOf(null));
+		assertEquals("", NotesDbAdapter.snippetOf(""));
+		assertEquals("", NotesDbAdapter.snippetOf(" \n\t "));
+		assertEquals("a b c", NotesDbAdapter.snippetOf("\n  a\n\nb \t c  \n"));
+
+		final StringBuilder body = new StringBuilder();
+		while (body.length() < NotesDbAdapter.SNIPPET_LENGTH * 3)
+		{
+			body.append("word\n");
+		}
+		final String snippet = NotesDbAdapter.snippetOf(body.toString());
+		assertEquals(NotesDbAdapter.SNIPPET_LENGTH, snippet.length());
+		assertTrue(snippet.startsWith("word word "));
+	}
+
+	public void testPlainBody()
+	{
+		assertBodyRoundTrip("A short note", BodyCodec.FORMAT_PLAIN);
+	}
+
+	public void testCompressedBody()
+	{
+		assertBodyRoundTrip(text(BodyCodec.COMPRESS_THRESHOLD * 4),
+				BodyCodec.FORMAT_DEFLATE);
+	}
+
+	public void testChunkedBody() throws IOException
+	{
+		final String body = text(NotesDbAdapter.INLINE_LIMIT * 2);
+		final long rowId = mDb.createNote("Title", 0, body, 0);
+		assertEquals(BodyCodec.FORMAT_CHUNKED, format(rowId));
+		assertEquals(body, readBody(rowId));
+		assertEquals(NotesDbAdapter.snippetOf(body), snippet(rowId));
+		assertChunksInOrder(rowId, body);
+	}
+
+	public void testSaveChunks() throws IOException
+	{
+		String body = text(NotesDbAdapter.CHUNK_SIZE * 5);
+		assertTrue(body.length() > NotesDbAdapter.INLINE_LIMIT);
+		final long rowId = mDb.createNote("Title", 0, body, 0);
+
+		// Unchanged text
+		body = edit(rowId, body, 0, 0, "");
+		// Insert inside one chunk
+		body = edit(rowId, body, 100, 100, "inserted");
+		// Delete across the boundary between two chunks
+		body = edit(rowId, body, NotesDbAdapter.CHUNK_SIZE - 50,
+				NotesDbAdapter.CHUNK_SIZE + 50, "");
+		// Replace at the very start and the very end
+		body = edit(rowId, body, 0, 10, "Start");
+		body = edit(rowId, body, body.length() - 10, body.length(), "End");
+		// Inserts larger than a chunk, at the same place until the seqs
+		// between two chunks run out and the body is renumbered
+		for (int i = 0; i < 12; i++)
+		{
+			body = edit(rowId, body, NotesDbAdapter.CHUNK_SIZE * 2,
+					NotesDbAdapter.CHUNK_SIZE * 2, text(NotesDbAdapter.CHUNK_SIZE
+							* 3 / 2));
+		}
+		// Delete most of the body
+		body = edit(rowId, body, 20, body.length() - 20, "");
+		assertEquals(NotesDbAdapter.snippetOf(body), snippet(rowId));
+	}
+
+	public void testSaveChunksOfWindow() throws IOException
+	{
+		final String body = text(NotesDbAdapter.CHUNK_SIZE * 6);
+		final long rowId = mDb.createNote("Title", 0, body, 0);
+		final List<NoteChunk> all = mDb.fetchChunks(rowId, Long.MIN_VALUE,
+				Integer.MAX_VALUE);
+		assertEquals(6, all.size());
+
+		// Chunks 2 and 3 only, as the editor holds them, with text added
+		// in the middle of the window
+		final List<NoteChunk> window = mDb.fetchChunks(rowId, all.get(1)
+				.getSeq(), 2);
+		final String windowText = window.get(0).getText()
+				+ window.get(1).getText();
+		final int middle = window.get(0).getText().length() + 5;
+		final String inserted = text(NotesDbAdapter.CHUNK_SIZE * 2);
+		final List<NoteChunk> saved = mDb.saveChunks(rowId, window, windowText
+				.substring(0, middle)
+				+ inserted + windowText.substring(middle));
+
+		final int windowStart = NotesDbAdapter.CHUNK_SIZE * 2;
+		final String expected = body.substring(0, windowStart + middle)
+				+ inserted + body.substring(windowStart + middle);
+		assertEquals(expected, readBody(rowId));
+		assertChunksInOrder(rowId, expected);
+		// The chunks returned are the window as now stored
+		final List<NoteChunk> stored = mDb.fetchChunks(rowId, all.get(1)
+				.getSeq(), saved.size());
+		assertEquals(stored.size(), saved.size());
+		for (int i = 0; i < saved.size(); i++)
+		{
+			assertEquals(stored.get(i).getId(), saved.get(i).getId());
+			assertEquals(stored.get(i).getSeq(), saved.get(i).getSeq());
+			assertEquals(stored.get(i).getText(), saved.get(i).getText());
+		}
+	}
+
+	/**
+	 * Replace the characters start to end of a chunked body through
+	 * saveChunks, with every chunk of the body as the window
+	 *
+	 * @return the body as edited
+	 */
+	private String edit(long rowId, String body, int start, int end,
+			String replacement) throws IOException
+	{
+		final List<NoteChunk> window = mDb.fetchChunks(rowId, Long.MIN_VALUE,
+				Integer.MAX_VALUE);
+		final String edited = body.substring(0, start) + replacement
+				+ body.substring(end);
+		final List<NoteChunk> saved = mDb.saveChunks(rowId, window, edited);
+		final StringBuilder text = new StringBuilder();
+		for (NoteChunk chunk : saved)
+		{
+			text.append(chunk.getText());
+		}
+		assertEquals(edited, text.toString());
+		assertEquals(edited, readBody(rowId));
+		assertChunksInOrder(rowId, edited);
+		return edited;
+	}
+
+	private void assertBodyRoundTrip(String body, int format)
+	{
+		final long rowId = mDb.createNote("Title", 0, body, 0);
+		assertEquals(format, format(rowId));
+		final Cursor note = mDb.fetchNote(rowId);
+		try
+		{
+			assertEquals(body, note.getString(note
+					.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY)));
+		} finally
+		{
+			note.close();
+		}
+		assertEquals(NotesDbAdapter.snippetOf(body), snippet(rowId));
+
+		final String edited = body + " edited";
+		assertTrue(mDb.updateNote(rowId, "Title", 0, edited));
+		assertEquals(edited, mDb.loadNote(rowId).getBody());
+	}
+
+	/**
+	 * Assert the chunks of a body, in seq order, hold the expected text, with
+	 * no chunk empty or longer than CHUNK_SIZE
+	 */
+	private void assertChunksInOrder(long rowId, String expected)
+	{
+		final List<NoteChunk> chunks = mDb.fetchChunks(rowId, Long.MIN_VALUE,
+				Integer.MAX_VALUE);
+		final StringBuilder text = new StringBuilder();
+		long seq = Long.MIN_VALUE;
+		for (NoteChunk chunk : chunks)
+		{
+			assertTrue(chunk.getSeq() > seq);
+			seq = chunk.getSeq();
+			assertTrue(chunk.getText().length() > 0);
+			assertTrue(chunk.getText().length() <= NotesDbAdapter.CHUNK_SIZE);
+			text.append(chunk.getText());
+		}
+		assertEquals(expected, text.toString());
+	}
+
+	private String readBody(long rowId) throws IOException
+	{
+		final Reader reader = mDb.openBodyReader(rowId);
+		final StringBuilder text = new StringBuilder();
+		try
+		{
+			final char[] buffer = new char[4096];
+			int n;
+			while ((n = reader.read(buffer)) != -1)
+			{
+				text.append(buffer, 0, n);
+			}
+		} finally
+		{
+			reader.close();
+		}
+		return text.toString();
+	}
+
+	private int format(long rowId)
+	{
+		return Integer.parseInt(stringFor("SELECT body_format FROM notes"
+				+ " WHERE _id = " + rowId));
+	}
+
+	private String snippet(long rowId)
+	{
+		return stringFor("SELECT snippet FROM notes WHERE _id = " + rowId);
+	}
+
+	private String stringFor(String sql)
+	{
+		final SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME,
+				0, null);
+		try
+		{
+			return DatabaseUtils.stringForQuery(db, sql, null);
+		} finally
+		{
+			db.close();
+		}
+	}
+
+	/**
+	 * @return length characters of numbered lines, which differ enough that
+	 *         a misplaced chunk shows
+	 */
+	private static String text(int length)
+	{
+		final StringBuilder text = new StringBuilder(length + 32);
+		for (int i = 0; text.length() < length; i++)
+		{
+			text.append("Line ").append(i).append(" of the body\n");
+		}
+		text.setLength(length);
+		return text.toString();
+	}
+}
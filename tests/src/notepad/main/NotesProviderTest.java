@@ -0,0 +1,181 @@
+/*
+ * NotesProviderTest.java
+ *
+ * Queries NotesProvider by URI and checks it returns the columns the
+ * projection names and no others, refuses the body where only short columns
+ * are offered, leaves out the trash, and will not write.
+ */
+
+package notepad.main;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+public class NotesProviderTest extends AndroidTestCase
+{
+	private static final String DATABASE_NAME = "data";
+
+	private Context mContext;
+	private NotesDbAdapter mDb;
+	private NotesProvider mProvider;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		// NotesDbAdapter opens its database through the application context,
+		// which must be the renaming one so the real notes are left alone
+		mContext = new RenamingDelegatingContext(getContext(), "provider_test.")
+		{
+			@Override
+			public Context getApplicationContext()
+			{
+				return this;
+			}
+		};
+		mContext.deleteDatabase(DATABASE_NAME);
+		mDb = new NotesDbAdapter(mContext).open();
+		mProvider = new NotesProvider();
+		mProvider.attachInfo(mContext, null);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		mProvider.shutdown();
+		mDb.close();
+		mContext.deleteDatabase(DATABASE_NAME);
+		super.tearDown();
+	}
+
+	public void testNotesProjection()
+	{
+		final long rowId = mDb.createNote("Title", 5, "A body\nof two lines", 7);
+		final Cursor notes = mProvider.query(NotesUris.NOTES_URI,
+				new String[] { NotesDbAdapter.KEY_SNIPPET,
+						NotesDbAdapter.KEY_ROWID }, null, null, null);
+		try
+		{
+			assertEquals(2, notes.getColumnCount());
+			assertEquals(1, notes.getCount());
+			assertTrue(notes.moveToFirst());
+			assertEquals("A body of two lines", notes.getString(0));
+			assertEquals(rowId, notes.getLong(1));
+		} finally
+		{
+			notes.close();
+		}
+	}
+
+	public void testNotesRefuseBody()
+	{
+		mDb.createNote("Title", 5, "Body", 7);
+		try
+		{
+			mProvider.query(NotesUris.NOTES_URI,
+					new String[] { NotesDbAdapter.KEY_BODY }, null, null, null);
+			fail();
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	public void testNoteBody()
+	{
+		final StringBuilder body = new StringBuilder();
+		while (body.length() < BodyCodec.COMPRESS_THRESHOLD * 4)
+		{
+			body.append("A body long enough to be compressed\n");
+		}
+		final long rowId = mDb.createNote("Title", 5, body.toString(), 7);
+		final Cursor note = mProvider.query(ContentUris.withAppendedId(
+				NotesUris.NOTES_URI, rowId), new String[] {
+				NotesDbAdapter.KEY_TITLE, NotesDbAdapter.KEY_BODY }, null,
+				null, null);
+		try
+		{
+			assertTrue(note.moveToFirst());
+			assertEquals("Title", note.getString(0));
+			assertEquals(body.toString(), note.getString(1));
+			assertEquals(BodyCodec.FORMAT_DEFLATE, note.getInt(note
+					.getColumnIndexOrThrow(NotesDbAdapter.KEY_BODY_FORMAT)));
+		} finally
+		{
+			note.close();
+		}
+	}
+
+	public void testTrashLeftOut()
+	{
+		final long kept = mDb.createNote("Kept", 5, "Body", 7);
+		final long trashed = mDb.createNote("Trashed", 5, "Body", 7);
+		assertTrue(mDb.deleteNote(trashed));
+		assertIds(mProvider.query(NotesUris.NOTES_URI, null, null, null,
+				null), kept);
+		assertIds(mProvider.query(ContentUris.withAppendedId(
+				NotesUris.NOTES_URI, trashed), null, null, null, null));
+	}
+
+	public void testListItemsInListOrder()
+	{
+		final long listId = mDb.createList("List", 7);
+		final long first = mDb.createListRowData(listId, "First", 0);
+		final long second = mDb.createListRowData(listId, "Second", 1);
+		final Uri items = Uri.parse(ContentUris.withAppendedId(
+				NotesUris.LISTS_URI, listId)
+				+ "/items");
+		assertIds(mProvider.query(items, new String[] {
+				NotesDbAdapter.KEY_ROWID, "item_data" }, null, null, null),
+				first, second);
+		assertIds(mProvider.query(items,
+				new String[] { NotesDbAdapter.KEY_ROWID }, "checked=?",
+				new String[] { "1" }, null), second);
+	}
+
+	public void testReadOnly()
+	{
+		try
+		{
+			mProvider.insert(NotesUris.NOTES_URI, new ContentValues());
+			fail();
+		} catch (UnsupportedOperationException e)
+		{
+			// expected
+		}
+		try
+		{
+			mProvider.delete(NotesUris.NOTES_URI, null, null);
+			fail();
+		} catch (UnsupportedOperationException e)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * Assert the _id column of cursor holds ids in order, and close it
+	 */
+	private static void assertIds(Cursor cursor, long... ids)
+	{
+		try
+		{
+			assertEquals(ids.length, cursor.getCount());
+			final int column = cursor
+					.getColumnIndexOrThrow(NotesDbAdapter.KEY_ROWID);
+			for (long id : ids)
+			{
+				assertTrue(cursor.moveToNext());
+				assertEquals(id, cursor.getLong(column));
+			}
+		} finally
+		{
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * PositionKeyTest.java
+ *
+ * Checks that position keys keep the order they are made in: keys from
+ * between() fall strictly inside their gap, spread() keys ascend, and rows
+ * added one after another at the end of a list keep short keys. Keys are
+ * compared as Java strings, the way SQLite's default collation compares them.
+ */
+
+package notepad.main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PositionKeyTest extends TestCase
+{
+	/** Rows added to the end of a list, more than a rebalance used to allow */
+	private static final int APPENDS = 100000;
+	private static final int RANDOM_INSERTS = 5000;
+
+	public void testFirstKeyOfEmptyList()
+	{
+		final String key = PositionKey.between(null, null);
+		assertValid(key);
+		assertValid(PositionKey.between(null, key));
+		assertValid(PositionKey.between(key, null));
+	}
+
+	public void testBetweenFallsInsideGap()
+	{
+		final String[][] gaps = { { null, "1" }, { null, "01" },
+				{ "1", "2" }, { "1", "11" }, { "V", "W" }, { "Vz", "W" },
+				{ "V", "V1" }, { "y", "z" }, { "z", null }, { "zz", null },
+				{ "zzz", null }, { "zzzzzzzz", null } };
+		for (String[] gap : gaps)
+		{
+			final String key = PositionKey.between(gap[0], gap[1]);
+			assertValid(key);
+			if (gap[0] != null)
+			{
+				assertTrue(gap[0] + " < " + key, gap[0].compareTo(key) < 0);
+			}
+			if (gap[1] != null)
+			{
+				assertTrue(key + " < " + gap[1], key.compareTo(gap[1]) < 0);
+			}
+		}
+	}
+
+	public void testBetweenRejectsKeysOutOfOrder()
+	{
+		try
+		{
+			PositionKey.between("W", "V");
+			fail();
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+		try
+		{
+			PositionKey.between("V", "V");
+			fail();
+		} catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	public void testSpreadAscends()
+	{
+		for (int n : new int[] { 1, 2, 10, 61, 62, 1000, 100000 })
+		{
+			final String[] keys = PositionKey.spread(n);
+			assertEquals(n, keys.length);
+			assertValid(keys[0]);
+			for (int i = 1; i < n; i++)
+			{
+				assertValid(keys[i]);
+				assertTrue(keys[i - 1] + " < " + keys[i], keys[i - 1]
+						.compareTo(keys[i]) < 0);
+			}
+		}
+	}
+
+	public void testAppendsStayShort()
+	{
+		final String[] spread = PositionKey.spread(10);
+		String last = spread[spread.length - 1];
+		for (int i = 0; i < APPENDS; i++)
+		{
+			final String key = PositionKey.between(last, null);
+			assertValid(key);
+			assertTrue(last + " < " + key, last.compareTo(key) < 0);
+			assertFalse("append " + i + " gave " + key, PositionKey
+					.isTooLong(key));
+			last = key;
+		}
+	}
+
+	public void testAppendAfterLongKeyShortens()
+	{
+		final String key = PositionKey.between("V1234567", null);
+		assertTrue("V1234567".compareTo(key) < 0);
+		assertTrue(key, key.length() <= 3);
+	}
+
+	public void testRandomInsertsKeepOrder()
+	{
+		final Random random = new Random(18);
+		final List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < RANDOM_INSERTS; i++)
+		{
+			final int at = random.nextInt(keys.size() + 1);
+			final String before = (at == 0) ? null : keys.get(at - 1);
+			final String after = (at == keys.size()) ? null : keys.get(at);
+			final String key = PositionKey.between(before, after);
+			assertValid(key);
+			keys.add(at, key);
+		}
+		for (int i = 1; i < keys.size(); i++)
+		{
+			assertTrue(keys.get(i - 1).compareTo(keys.get(i)) < 0);
+		}
+	}
+
+	/**
+	 * Assert key is made of key digits and does not end in the zero digit
+	 */
+	private static void assertValid(String key)
+	{
+		assertNotNull(key);
+		assertTrue(key.length() > 0);
+		for (int i = 0; i < key.length(); i++)
+		{
+			final char c = key.charAt(i);
+			assertTrue(key, (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z')
+					|| (c >= 'a' && c <= 'z'));
+		}
+		assertTrue(key, key.charAt(key.length() - 1) != '0');
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * RowCacheTest.java
+ *
+ * Checks the hit, miss and eviction counters of RowCache, that it hands out
+ * copies, that a read which raced a write is not cached, and that the write
+ * paths of NotesDbAdapter drop what it holds so a repeat open never sees a
+ * stale note or list.
+ */
+
+package notepad.main;
+
+import java.util.List;
+
+import model.ListRow;
+import model.Note;
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+public class RowCacheTest extends AndroidTestCase
+{
+	private static final String DATABASE_NAME = "data";
+
+	/** Characters in each note put while filling the cache past its limit */
+	private static final int LARGE_BODY = 64 * 1024;
+
+	private final RowCache mCache = RowCache.get();
+	private Context mContext;
+	private NotesDbAdapter mDb;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		// NotesDbAdapter opens its database through the application context,
+		// which must be the renaming one so the real notes are left alone
+		mContext = new RenamingDelegatingContext(getContext(), "cache_test.")
+		{
+			@Override
+			public Context getApplicationContext()
+			{
+				return this;
+			}
+		};
+		mContext.deleteDatabase(DATABASE_NAME);
+		mDb = new NotesDbAdapter(mContext).open();
+		// The cache is shared by the process, so start from an empty one
+		mCache.invalidate(NotesUris.NOTES_URI);
+		mCache.invalidate(NotesUris.LISTS_URI);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		mDb.close();
+		mContext.deleteDatabase(DATABASE_NAME);
+		mCache.invalidate(NotesUris.NOTES_URI);
+		mCache.invalidate(NotesUris.LISTS_URI);
+		super.tearDown();
+	}
+
+	public void testRepeatOpenIsHit()
+	{
+		final long rowId = mDb.createNote("Title", 1, "Body", 0);
+		final long hits = mCache.hits();
+		final long misses = mCache.misses();
+
+		assertEquals("Body", mDb.loadNote(rowId).getBody());
+		assertEquals(misses + 1, mCache.misses());
+		assertEquals(hits, mCache.hits());
+
+		assertEquals("Body", mDb.loadNote(rowId).getBody());
+		assertEquals(misses + 1, mCache.misses());
+		assertEquals(hits + 1, mCache.hits());
+	}
+
+	public void testCopiesAreHandedOut()
+	{
+		mCache.putNote(1, new Note("Title", 1, "Body"), mCache.stamp());
+		mCache.getNote(1).setBody("Changed");
+		assertEquals("Body", mCache.getNote(1).getBody());
+	}
+
+	public void testStaleReadIsNotCached()
+	{
+		final long stamp = mCache.stamp();
+		mCache.invalidate(NotesUris.NOTES_URI);
+		mCache.putNote(1, new Note("Title", 1, "Old body"), stamp);
+		assertNull(mCache.getNote(1));
+	}
+
+	public void testLeastRecentlyUsedIsEvicted()
+	{
+		final StringBuilder body = new StringBuilder(LARGE_BODY);
+		while (body.length() < LARGE_BODY)
+		{
+			body.append("A large note body\n");
+		}
+		final long evictions = mCache.evictions();
+		mCache.putNote(0, new Note("First", 1, body.toString()), mCache
+				.stamp());
+		int count = 1;
+		for (; mCache.evictions() == evictions; count++)
+		{
+			assertNotNull(mCache.getNote(0));
+			mCache.putNote(count, new Note("Note", 1, body.toString()),
+					mCache.stamp());
+		}
+		// Note 0 was used after each put, so note 1 went first
+		assertNotNull(mCache.getNote(0));
+		assertNull(mCache.getNote(1));
+		assertNotNull(mCache.getNote(count - 1));
+	}
+
+	public void testNoteWritesInvalidate()
+	{
+		final long rowId = mDb.createNote("Title", 1, "Body", 0);
+		mDb.loadNote(rowId);
+
+		assertTrue(mDb.updateNote(rowId, "Title", 1, "Edited"));
+		assertNull(mCache.getNote(rowId));
+		assertEquals("Edited", mDb.loadNote(rowId).getBody());
+
+		assertTrue(mDb.updateNoteHeader(rowId, "Renamed", 2));
+		assertEquals("Renamed", mDb.loadNote(rowId).getTitle());
+
+		assertTrue(mDb.deleteNote(rowId));
+		assertNull(mCache.getNote(rowId));
+	}
+
+	public void testListWritesInvalidate()
+	{
+		final long listId = mDb.createList("List", 0);
+		mDb.createListRowData(listId, "First", 0);
+		assertEquals(1, mDb.loadListRows(listId).size());
+
+		mDb.createListRowData(listId, "Second", 1);
+		final List<ListRow> rows = mDb.loadListRows(listId);
+		assertEquals(2, rows.size());
+		assertEquals("First", rows.get(0).getRowDescription());
+		assertEquals("Second", rows.get(1).getRowDescription());
+
+		// Changes to the rows handed out stay out of the cache
+		rows.get(0).setRowDescription("Changed");
+		assertEquals("First", mDb.loadListRows(listId).get(0)
+				.getRowDescription());
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * SchemaUpgradeTest.java
+ *
+ * Upgrades databases written by versions 1 to 4 of the schema, which predate
+ * tracked migrations, to the current version through NotesDbAdapter.open(),
+ * the way the application first opens them after an update. Each database
+ * holds NOTE_COUNT notes and a few lists, one of which was deleted before
+ * list rows went with their list. The time each upgrade takes is logged under
+ * the tag "SchemaUpgradeTest".
+ */
+
+package notepad.main;
+
+import java.util.Date;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+public class SchemaUpgradeTest extends AndroidTestCase
+{
+	private static final String TAG = "SchemaUpgradeTest";
+	private static final String DATABASE_NAME = "data";
+
+	private static final int NOTE_COUNT = 100000;
+	private static final int LIST_COUNT = 100;
+	private static final int ROWS_PER_LIST = 20;
+	/** Rows of a list deleted while list_data had no foreign key */
+	private static final int ORPHAN_ROWS = 50;
+	/** Every this many notes mention the word searched for */
+	private static final int NEEDLE_INTERVAL = 1000;
+
+	/**
+	 * Layout shared by versions 1 to 4, with dates held as the strings the
+	 * editors displayed
+	 */
+	private static final String[] LEGACY_SCHEMA = {
+			"CREATE TABLE notes (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+					+ "title TEXT NOT NULL," + "body TEXT NOT NULL,"
+					+ "due_date TEXT NOT NULL," + "create_date TEXT NOT NULL)",
+			"CREATE TABLE lists (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+					+ "title TEXT NOT NULL," + "create_date TEXT NOT NULL)",
+			"CREATE TABLE list_data (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+					+ "list_id INTEGER NOT NULL," + "item_data TEXT NOT NULL,"
+					+ "checked INTEGER NOT NULL)" };
+
+	/** Indexes and triggers every upgraded database must end up with */
+	private static final String[] EXTRAS = { "notes_due_at",
+			"notes_created_at", "note_chunks_note_id",
+			"note_revisions_note_id", "lists_deleted_at", "list_data_position",
+			"notes_search_insert", "notes_search_update",
+			"notes_search_delete", "list_data_search_insert",
+			"list_data_count_insert", "list_data_count_update",
+			"list_data_count_delete" };
+
+	private Context mContext;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		// NotesDbAdapter opens its database through the application context,
+		// which must be the renaming one so the real notes are left alone
+		mContext = new RenamingDelegatingContext(getContext(), "upgrade_test.")
+		{
+			@Override
+			public Context getApplicationContext()
+			{
+				return this;
+			}
+		};
+		mContext.deleteDatabase(DATABASE_NAME);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		mContext.deleteDatabase(DATABASE_NAME);
+		super.tearDown();
+	}
+
+	public void testUpgradeFromVersion1()
+	{
+		upgradeFrom(1);
+	}
+
+	public void testUpgradeFromVersion2()
+	{
+		upgradeFrom(2);
+	}
+
+	public void testUpgradeFromVersion3()
+	{
+		upgradeFrom(3);
+	}
+
+	public void testUpgradeFromVersion4()
+	{
+		upgradeFrom(4);
+	}
+
+	private void upgradeFrom(int version)
+	{
+		writeLegacyDatabase(version);
+
+		final long start = SystemClock.elapsedRealtime();
+		final NotesDbAdapter adapter = new NotesDbAdapter(mContext).open();
+		final long elapsed = SystemClock.elapsedRealtime() - start;
+		Log.i(TAG, "Upgraded " + NOTE_COUNT + " notes from version " + version
+				+ " in " + elapsed + "ms");
+		try
+		{
+			final Cursor found = adapter.search("needle", NOTE_COUNT, 0);
+			try
+			{
+				assertEquals(NOTE_COUNT / NEEDLE_INTERVAL, found.getCount());
+			} finally
+			{
+				found.close();
+			}
+		} finally
+		{
+			adapter.close();
+		}
+
+		final SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME,
+				0, null);
+		try
+		{
+			assertEquals(0, count(db, "SELECT count(*) FROM schema_jobs"));
+			assertEquals(0, count(db, "SELECT count(*) FROM sqlite_master"
+					+ " WHERE name LIKE '%_migrating'"));
+			for (String name : EXTRAS)
+			{
+				assertEquals(name, 1, count(db, "SELECT count(*) FROM"
+						+ " sqlite_master WHERE name = '" + name + "'"));
+			}
+
+			assertEquals(NOTE_COUNT, count(db, "SELECT count(*) FROM notes"
+					+ " WHERE due_at > 0 AND created_at > 0"
+					+ " AND deleted_at IS NULL AND snippet != ''"));
+			assertEquals(NOTE_COUNT, count(db,
+					"SELECT count(*) FROM notes_search"));
+			assertEquals(LIST_COUNT, count(db, "SELECT count(*) FROM lists"
+					+ " WHERE created_at > 0 AND item_count = " + ROWS_PER_LIST
+					+ " AND checked_count = " + ROWS_PER_LIST / 2));
+			assertEquals(LIST_COUNT * ROWS_PER_LIST, count(db,
+					"SELECT count(*) FROM list_data WHERE position != ''"));
+			assertEquals(LIST_COUNT * ROWS_PER_LIST, count(db,
+					"SELECT count(*) FROM list_data_search"));
+		} finally
+		{
+			db.close();
+		}
+	}
+
+	private void writeLegacyDatabase(int version)
+	{
+		final SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME,
+				0, null);
+		try
+		{
+			db.beginTransaction();
+			try
+			{
+				for (String sql : LEGACY_SCHEMA)
+				{
+					db.execSQL(sql);
+				}
+				writeNotes(db);
+				writeLists(db);
+				db.setVersion(version);
+				db.setTransactionSuccessful();
+			} finally
+			{
+				db.endTransaction();
+			}
+		} finally
+		{
+			db.close();
+		}
+	}
+
+	private static void writeNotes(SQLiteDatabase db)
+	{
+		final SQLiteStatement insert = db.compileStatement("INSERT INTO notes"
+				+ " (title, body, due_date, create_date) VALUES (?, ?, ?, ?)");
+		try
+		{
+			final String created = new Date().toString().substring(0, 16);
+			for (int i = 0; i < NOTE_COUNT; i++)
+			{
+				insert.bindString(1, "Note " + i);
+				insert.bindString(2, "Body of note " + i
+						+ (i % NEEDLE_INTERVAL == 0 ? " with a needle" : ""));
+				insert.bindString(3, (i % 28 + 1) + "-Mar-2011");
+				insert.bindString(4, created);
+				insert.execute();
+			}
+		} finally
+		{
+			insert.close();
+		}
+	}
+
+	private static void writeLists(SQLiteDatabase db)
+	{
+		final String created = new Date().toString().substring(0, 16);
+		final SQLiteStatement row = db.compileStatement("INSERT INTO list_data"
+				+ " (list_id, item_data, checked) VALUES (?, ?, ?)");
+		try
+		{
+			for (int i = 0; i < LIST_COUNT; i++)
+			{
+				db.execSQL("INSERT INTO lists (title, create_date) VALUES (?, ?)",
+						new Object[] { "List " + i, created });
+				final long listId = count(db, "SELECT last_insert_rowid()");
+				for (int j = 0; j < ROWS_PER_LIST; j++)
+				{
+					row.bindLong(1, listId);
+					row.bindString(2, "Item " + j);
+					row.bindLong(3, j % 2);
+					row.execute();
+				}
+			}
+			for (int j = 0; j < ORPHAN_ROWS; j++)
+			{
+				row.bindLong(1, LIST_COUNT + 1);
+				row.bindString(2, "Orphan " + j);
+				row.bindLong(3, 0);
+				row.execute();
+			}
+		} finally
+		{
+			row.close();
+		}
+	}
+
+	private static long count(SQLiteDatabase db, String sql)
+	{
+		return DatabaseUtils.longForQuery(db, sql, null);
+	}
+}
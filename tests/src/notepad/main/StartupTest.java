@@ -0,0 +1,173 @@
+/*
+ * StartupTest.java
+ *
+ * Launches the main activity RUNS times over a database of NOTE_COUNT notes
+ * and checks the phases StartupTrace records for each launch: every phase is
+ * reached, none after the first frame, and the median time to the first
+ * frame is within StartupTrace.FIRST_FRAME_BUDGET. StartupTrace logs each
+ * launch, and the medians are logged under the tag "StartupTest".
+ *
+ * The test runs in the application's process, so a launch is timed from the
+ * moment it is asked for rather than from a process start; it covers the
+ * activity, the database open and the first page of notes. The activity uses
+ * the application's own database, so whatever database is there is moved
+ * aside for the test and put back afterwards.
+ */
+
+package notepad.main;
+
+import java.io.File;
+import java.util.Arrays;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+public class StartupTest extends ActivityInstrumentationTestCase2<Notepadv3>
+{
+	private static final String TAG = "StartupTest";
+	private static final String DATABASE_NAME = "data";
+	/** Files SQLite may keep beside a database, by suffix */
+	private static final String[] DATABASE_FILES = { "", "-journal", "-wal",
+			"-shm" };
+	private static final String BACKUP_SUFFIX = ".startup_test";
+
+	private static final int NOTE_COUNT = 50000;
+	/** Notes written per transaction while filling the database */
+	private static final int BATCH_SIZE = 1000;
+	private static final int RUNS = 5;
+	/** Milliseconds a launch may take to draw its first frame */
+	private static final long TIMEOUT = 30000;
+	private static final long POLL_INTERVAL = 10;
+
+	public StartupTest()
+	{
+		super(Notepadv3.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		final Context context = getInstrumentation().getTargetContext();
+		// A backup left by an interrupted run holds the real notes, and the
+		// database beside it is the test's own
+		if (context.getDatabasePath(DATABASE_NAME + BACKUP_SUFFIX).exists())
+		{
+			context.deleteDatabase(DATABASE_NAME);
+		} else
+		{
+			moveDatabase("", BACKUP_SUFFIX);
+		}
+		fill(new NotesDbAdapter(context).open());
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		getInstrumentation().getTargetContext().deleteDatabase(DATABASE_NAME);
+		moveDatabase(BACKUP_SUFFIX, "");
+		super.tearDown();
+	}
+
+	public void testStartup()
+	{
+		final long[] dbReady = new long[RUNS];
+		final long[] firstCursor = new long[RUNS];
+		final long[] firstFrame = new long[RUNS];
+		for (int i = 0; i < RUNS; i++)
+		{
+			StartupTrace.restart();
+			final Notepadv3 activity = getActivity();
+			waitForFirstFrame();
+			firstFrame[i] = StartupTrace.elapsed(StartupTrace.FIRST_FRAME);
+			dbReady[i] = StartupTrace.elapsed(StartupTrace.DB_READY);
+			firstCursor[i] = StartupTrace.elapsed(StartupTrace.FIRST_CURSOR);
+			final long created = StartupTrace
+					.elapsed(StartupTrace.ACTIVITY_CREATE);
+			assertTrue(created >= 0 && created <= firstCursor[i]);
+			assertTrue(dbReady[i] >= 0 && dbReady[i] <= firstFrame[i]);
+			assertTrue(firstCursor[i] >= 0 && firstCursor[i] <= firstFrame[i]);
+
+			// Finished before the purge of expired trash is due, so no
+			// launch leaves the writer thread running
+			activity.finish();
+			setActivity(null);
+			getInstrumentation().waitForIdleSync();
+		}
+		Log.i(TAG, "Median of " + RUNS + " launches with " + NOTE_COUNT
+				+ " notes: db_ready=" + median(dbReady) + "ms first_cursor="
+				+ median(firstCursor) + "ms first_frame=" + median(firstFrame)
+				+ "ms");
+		assertTrue("First frame after " + median(firstFrame) + "ms",
+				median(firstFrame) <= StartupTrace.FIRST_FRAME_BUDGET);
+	}
+
+	private static void waitForFirstFrame()
+	{
+		final long deadline = SystemClock.uptimeMillis() + TIMEOUT;
+		while (StartupTrace.elapsed(StartupTrace.FIRST_FRAME) < 0)
+		{
+			assertTrue("No first frame within " + TIMEOUT + "ms", SystemClock
+					.uptimeMillis() < deadline);
+			SystemClock.sleep(POLL_INTERVAL);
+		}
+	}
+
+	private static long median(long[] values)
+	{
+		final long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	/**
+	 * Rename the files of the application's database from one suffix to
+	 * another
+	 */
+	private void moveDatabase(String fromSuffix, String toSuffix)
+	{
+		final Context context = getInstrumentation().getTargetContext();
+		for (String file : DATABASE_FILES)
+		{
+			final File from = context.getDatabasePath(DATABASE_NAME + file
+					+ fromSuffix);
+			if (from.exists())
+			{
+				assertTrue(from.renameTo(context.getDatabasePath(DATABASE_NAME
+						+ file + toSuffix)));
+			}
+		}
+	}
+
+	private static void fill(NotesDbAdapter db)
+	{
+		final long now = System.currentTimeMillis();
+		try
+		{
+			db.beginTransaction();
+			try
+			{
+				for (int i = 0; i < NOTE_COUNT; i++)
+				{
+					db.createNote("Note " + i, now + i, "Body of note " + i,
+							now - i);
+					if (i % BATCH_SIZE == BATCH_SIZE - 1)
+					{
+						db.setTransactionSuccessful();
+						db.endTransaction();
+						db.beginTransaction();
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally
+			{
+				db.endTransaction();
+			}
+		} finally
+		{
+			db.close();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * TextDeltaTest.java
+ *
+ * Round trips of revisions through TextDelta: every delta must rebuild the
+ * text it was made for from the text it was made against, and an edit to a
+ * few lines of a long note must cost about the size of those lines.
+ */
+
+package notepad.main;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TextDeltaTest extends TestCase
+{
+	private static final int LINES = 1000;
+	private static final int RANDOM_EDITS = 500;
+
+	public void testRoundTrips()
+	{
+		final String text = lines(20);
+		final String[][] pairs = { { "", "" }, { "", text }, { text, "" },
+				{ text, text }, { "abc", "abXc" }, { "abc", "ac" },
+				{ "one\ntwo\n", "two\none\n" }, { "no newline", "no newline\n" },
+				{ text, text.replace("Line 7", "Changed line") },
+				{ text, text.substring(text.indexOf("Line 5")) + text },
+				// Edits next to and inside surrogate pairs
+				{ "a\ud83d\ude00b", "a\ud83d\ude01b" },
+				{ "a\ud83d\ude00b", "a\ud83d\ude00\ud83d\ude00b" },
+				{ "\ud83d\ude00", "x\ud83d\ude00" } };
+		for (String[] pair : pairs)
+		{
+			assertRoundTrip(pair[0], pair[1]);
+		}
+	}
+
+	public void testRandomEdits()
+	{
+		final Random random = new Random(13);
+		String text = lines(50);
+		for (int i = 0; i < RANDOM_EDITS; i++)
+		{
+			final StringBuilder edited = new StringBuilder(text);
+			final int at = random.nextInt(edited.length() + 1);
+			switch (random.nextInt(3))
+			{
+			case 0:
+				edited.insert(at, "inserted " + i + (random.nextBoolean() ? "\n"
+						: ""));
+				break;
+			case 1:
+				edited.delete(at, Math.min(edited.length(), at
+						+ random.nextInt(40)));
+				break;
+			default:
+				// Move a line elsewhere
+				final int start = text.lastIndexOf('\n', Math.max(0, at - 1)) + 1;
+				final int end = text.indexOf('\n', at);
+				if (end != -1)
+				{
+					final String line = edited.substring(start, end + 1);
+					edited.delete(start, end + 1);
+					edited.insert(random.nextInt(edited.length() + 1), line);
+				}
+				break;
+			}
+			assertRoundTrip(text, edited.toString());
+			text = edited.toString();
+		}
+	}
+
+	public void testSmallEditMakesSmallDelta()
+	{
+		final String from = lines(LINES);
+		final String to = from.replace("Line 500 ", "Line five hundred ");
+		final byte[] delta = assertRoundTrip(from, to);
+		assertTrue(delta.length + " bytes", delta.length < 200);
+	}
+
+	private static byte[] assertRoundTrip(String from, String to)
+	{
+		final byte[] delta = TextDelta.encode(from, to);
+		assertEquals(to, TextDelta.apply(from, delta));
+		return delta;
+	}
+
+	private static String lines(int count)
+	{
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < count; i++)
+		{
+			text.append("Line ").append(i).append(" of a note\n");
+		}
+		return text.toString();
+	}
+}